@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.type.Switch;
+import org.bukkit.material.Button;
+import org.bukkit.plugin.Plugin;
+
+import de.blablubbabc.homestations.utils.BlockPositions;
+
+/**
+ * A lightweight, headless stand-in for a Bukkit {@link World} and its {@link Block blocks}, backed by a map.
+ * 
+ * <p>
+ * Like on a real server, every block lookup creates a new {@link Block} object, and every block state lookup creates a
+ * new snapshot.
+ * </p>
+ */
+class BenchmarkWorld {
+
+	private final String name;
+	private final World world;
+	private final Map<Long, Material> types = new HashMap<>();
+	private final Map<Long, BlockFace> attachedFaces = new HashMap<>();
+
+	BenchmarkWorld(String name) {
+		this.name = name;
+		this.world = proxy(World.class, (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "getName":
+				return this.name;
+			case "getBlockAt":
+				if (args.length == 3) {
+					return this.getBlockAt((Integer) args[0], (Integer) args[1], (Integer) args[2]);
+				}
+				Location location = (Location) args[0];
+				return this.getBlockAt(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+			case "getMaxHeight":
+				return 256;
+			case "isChunkLoaded":
+				return true;
+			default:
+				return objectMethod(proxy, method, args);
+			}
+		});
+	}
+
+	World getWorld() {
+		return world;
+	}
+
+	void setType(int x, int y, int z, Material type) {
+		types.put(BlockPositions.pack(x, y, z), type);
+	}
+
+	void setButton(int x, int y, int z, Material type, BlockFace attachedFace) {
+		long position = BlockPositions.pack(x, y, z);
+		types.put(position, type);
+		attachedFaces.put(position, attachedFace);
+	}
+
+	/**
+	 * Builds a station whose lower station button is located at the given coordinates.
+	 * 
+	 * @param x
+	 *            the x coordinate of the lower station button
+	 * @param y
+	 *            the y coordinate of the lower station button
+	 * @param z
+	 *            the z coordinate of the lower station button
+	 * @param direction
+	 *            the station's direction
+	 */
+	void buildStation(int x, int y, int z, BlockFace direction) {
+		this.setType(x, y - 1, z, Material.EMERALD_BLOCK);
+		this.setButton(x, y, z, Material.STONE_BUTTON, direction);
+		this.setButton(x, y + 1, z, Material.STONE_BUTTON, direction);
+		int lapisX = x + direction.getModX();
+		int lapisZ = z + direction.getModZ();
+		this.setType(lapisX, y, lapisZ, Material.LAPIS_BLOCK);
+		this.setType(lapisX, y + 1, lapisZ, Material.LAPIS_BLOCK);
+		this.setType(lapisX, y + 2, lapisZ, Material.REDSTONE_BLOCK);
+	}
+
+	Block getBlockAt(int x, int y, int z) {
+		long position = BlockPositions.pack(x, y, z);
+		return proxy(Block.class, (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "getType":
+				return types.getOrDefault(position, Material.AIR);
+			case "getX":
+				return x;
+			case "getY":
+				return y;
+			case "getZ":
+				return z;
+			case "getWorld":
+				return world;
+			case "getLocation":
+				return new Location(world, x, y, z);
+			case "getRelative":
+				if (args.length == 3) {
+					return this.getBlockAt(x + (Integer) args[0], y + (Integer) args[1], z + (Integer) args[2]);
+				}
+				BlockFace face = (BlockFace) args[0];
+				int distance = (args.length == 2) ? (Integer) args[1] : 1;
+				return this.getBlockAt(x + face.getModX() * distance, y + face.getModY() * distance, z + face.getModZ() * distance);
+			case "getBlockData":
+				return this.createBlockData(position);
+			case "getState":
+				return this.createBlockState(position);
+			case "equals":
+				if (!(args[0] instanceof Block)) return false;
+				Block other = (Block) args[0];
+				return other.getWorld() == world && other.getX() == x && other.getY() == y && other.getZ() == z;
+			case "hashCode":
+				return Long.hashCode(position);
+			default:
+				return objectMethod(proxy, method, args);
+			}
+		});
+	}
+
+	private BlockData createBlockData(long position) {
+		Material type = types.getOrDefault(position, Material.AIR);
+		BlockFace attachedFace = attachedFaces.get(position);
+		if (attachedFace == null) {
+			return proxy(BlockData.class, (proxy, method, args) -> {
+				if (method.getName().equals("getMaterial")) return type;
+				return objectMethod(proxy, method, args);
+			});
+		}
+		return proxy(Switch.class, (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "getMaterial":
+				return type;
+			case "getFace":
+				return Switch.Face.WALL;
+			case "getFacing":
+				return attachedFace.getOppositeFace();
+			default:
+				return objectMethod(proxy, method, args);
+			}
+		});
+	}
+
+	@SuppressWarnings("deprecation")
+	private BlockState createBlockState(long position) {
+		Material type = types.getOrDefault(position, Material.AIR);
+		BlockFace attachedFace = attachedFaces.get(position);
+		// the snapshot copies the block's data:
+		final Button legacyData;
+		if (attachedFace != null) {
+			legacyData = new Button();
+			legacyData.setFacingDirection(attachedFace.getOppositeFace());
+		} else {
+			legacyData = null;
+		}
+		final BlockData blockData = this.createBlockData(position);
+		return proxy(BlockState.class, (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "getType":
+				return type;
+			case "getData":
+				return legacyData;
+			case "getBlockData":
+				return blockData;
+			default:
+				return objectMethod(proxy, method, args);
+			}
+		});
+	}
+
+	// PROXY UTILITIES
+
+	static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(BenchmarkWorld.class.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+
+	private static Object objectMethod(Object proxy, Method method, Object[] args) {
+		switch (method.getName()) {
+		case "equals":
+			return proxy == args[0];
+		case "hashCode":
+			return System.identityHashCode(proxy);
+		case "toString":
+			return "Proxy(" + method.getDeclaringClass().getSimpleName() + ")";
+		default:
+			throw new UnsupportedOperationException("Not supported by the benchmark stand-in: " + method);
+		}
+	}
+
+	/**
+	 * Creates a minimal {@link Plugin} stand-in which only provides a logger.
+	 * 
+	 * @return the plugin
+	 */
+	static Plugin createPlugin() {
+		final Logger logger = Logger.getLogger("HomeStations");
+		return proxy(Plugin.class, (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "getLogger":
+				return logger;
+			case "getName":
+				return "HomeStations";
+			case "isEnabled":
+				return true;
+			default:
+				return objectMethod(proxy, method, args);
+			}
+		});
+	}
+}
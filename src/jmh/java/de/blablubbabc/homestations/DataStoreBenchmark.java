@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.blablubbabc.homestations.storage.StorageType;
+import de.blablubbabc.homestations.utils.SoftBlockLocation;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DataStoreBenchmark {
+
+	private static final int PLAYERS = 1000;
+
+	@Param({ "FILES", "LOG", "MAPPED" })
+	public StorageType storageType;
+
+	// number of home stations per player, more than one are stored as named homes:
+	@Param({ "1", "5" })
+	public int homes;
+
+	private Path dataFolder;
+	private DataStore dataStore;
+	private UUID[] playerIds;
+	private PlayerData playerData;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		// each trial starts without any data, so that nothing gets migrated into the measured storage:
+		dataFolder = Files.createTempDirectory("homestations-benchmark");
+		dataStore = new DataStore(BenchmarkWorld.createPlugin(), dataFolder.toFile(), storageType, new HomeStationsMetrics());
+		playerIds = new UUID[PLAYERS];
+		playerData = new PlayerData(new SoftBlockLocation("world", 100, 64, -200), new SoftBlockLocation("world", 0, 70, 0));
+		for (int i = 1; i < homes; i++) {
+			playerData = playerData.withHome("home" + (i + 1), new SoftBlockLocation("world", 100 + i * 50, 64, -200));
+		}
+		for (int i = 0; i < PLAYERS; i++) {
+			playerIds[i] = UUID.randomUUID();
+			dataStore.savePlayerData(playerIds[i], playerData);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		dataStore.shutdown();
+		try (Stream<Path> paths = Files.walk(dataFolder)) {
+			// delete the contents before their folders:
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	private UUID nextPlayerId() {
+		UUID playerId = playerIds[next];
+		next = (next + 1) % PLAYERS;
+		return playerId;
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String getMessage() {
+		return dataStore.getMessage(Message.TeleportToHome);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String getMessageWithPlaceholders() {
+		return dataStore.getMessage(Message.TeleportCostsConfirm, "costs", "10.0", "balance", "1234.56");
+	}
+
+	@Benchmark
+	public PlayerData loadPlayerData() {
+		return dataStore.loadPlayerDataIfExist(this.nextPlayerId());
+	}
+
+	@Benchmark
+	public PlayerData saveAndLoadPlayerData() {
+		UUID playerId = this.nextPlayerId();
+		// without running save task, this writes the player data immediately:
+		dataStore.savePlayerData(playerId, playerData);
+		return dataStore.loadPlayerDataIfExist(playerId);
+	}
+}
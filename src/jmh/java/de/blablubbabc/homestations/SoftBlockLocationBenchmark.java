@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.blablubbabc.homestations.utils.SoftBlockLocation;
+import de.blablubbabc.homestations.utils.Utils;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SoftBlockLocationBenchmark {
+
+	private String locationString = "world_nether;-12345;64;67890";
+	private String notSetString = "not set";
+	private SoftBlockLocation location = new SoftBlockLocation("world_nether", -12345, 64, 67890);
+	private StringBuilder builder = new StringBuilder(32);
+
+	@Benchmark
+	public SoftBlockLocation getFromString() {
+		return SoftBlockLocation.getFromString(locationString);
+	}
+
+	@Benchmark
+	public SoftBlockLocation getFromStringNotSet() {
+		return SoftBlockLocation.getFromString(notSetString);
+	}
+
+	// baseline: the previous split based parser
+	@Benchmark
+	public SoftBlockLocation getFromStringSplit() {
+		String[] split = locationString.split(";");
+		if (split.length != 4) return null;
+		Integer x = Utils.parseInteger(split[1]);
+		if (x == null) return null;
+		Integer y = Utils.parseInteger(split[2]);
+		if (y == null) return null;
+		Integer z = Utils.parseInteger(split[3]);
+		if (z == null) return null;
+		return new SoftBlockLocation(split[0], x, y, z);
+	}
+
+	@Benchmark
+	public String toLocationString() {
+		return location.toString();
+	}
+
+	@Benchmark
+	public StringBuilder appendTo() {
+		builder.setLength(0);
+		return location.appendTo(builder);
+	}
+
+	@Benchmark
+	public int hashCodeOfLocation() {
+		return location.hashCode();
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.material.Button;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.blablubbabc.homestations.utils.SoftBlockLocation;
+
+/**
+ * Station detection and spawn station lookup, as performed for every button click.
+ * 
+ * <p>
+ * Run with <code>-prof gc</code> to compare the allocation rates as well.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StationBenchmark {
+
+	private static final int SPAWN_STATIONS = 100;
+
+	private BenchmarkWorld benchmarkWorld;
+	private World world;
+	private Block stationButton;
+	private Block otherButton;
+
+	private Set<SoftBlockLocation> spawnStations;
+	private StationIndex stationIndex;
+
+	@Setup
+	public void setup() {
+		benchmarkWorld = new BenchmarkWorld("world");
+		world = benchmarkWorld.getWorld();
+		spawnStations = new HashSet<>();
+		for (int i = 0; i < SPAWN_STATIONS; i++) {
+			benchmarkWorld.buildStation(i * 16, 64, i * 16, BlockFace.NORTH);
+			spawnStations.add(new SoftBlockLocation("world", i * 16, 64, i * 16));
+		}
+		stationButton = benchmarkWorld.getBlockAt(50 * 16, 64, 50 * 16);
+		// a button on top of an emerald block, but without the rest of the station:
+		benchmarkWorld.setType(5, 63, 5, Material.EMERALD_BLOCK);
+		benchmarkWorld.setButton(5, 64, 5, Material.STONE_BUTTON, BlockFace.NORTH);
+		otherButton = benchmarkWorld.getBlockAt(5, 64, 5);
+
+		stationIndex = new StationIndex(new HomeStationsMetrics());
+		stationIndex.setSpawnStations(spawnStations);
+	}
+
+	// STATION DETECTION
+
+	@Benchmark
+	public BlockFace detectStationLegacy() {
+		return detectStationFaceLegacy(stationButton);
+	}
+
+	@Benchmark
+	public BlockFace detectStation() {
+		return StationStructure.detectStationFace(stationButton);
+	}
+
+	@Benchmark
+	public BlockFace detectStationCached() {
+		return stationIndex.getStationFace(world, 50 * 16, 64, 50 * 16);
+	}
+
+	@Benchmark
+	public BlockFace detectNoStationLegacy() {
+		return detectStationFaceLegacy(otherButton);
+	}
+
+	@Benchmark
+	public BlockFace detectNoStation() {
+		return StationStructure.detectStationFace(otherButton);
+	}
+
+	@Benchmark
+	public BlockFace detectNoStationCached() {
+		return stationIndex.getStationFace(world, 5, 64, 5);
+	}
+
+	// SPAWN STATION LOOKUP
+
+	@Benchmark
+	public boolean isSpawnStationLegacy() {
+		return spawnStations.contains(new SoftBlockLocation(stationButton.getLocation()));
+	}
+
+	@Benchmark
+	public boolean isSpawnStation() {
+		return stationIndex.isSpawnStation(world, 50 * 16, 64, 50 * 16);
+	}
+
+	// the station detection as it was implemented before it switched to block data
+	@SuppressWarnings("deprecation")
+	private static BlockFace detectStationFaceLegacy(Block buttonB) {
+		if (buttonB.getType() != Material.STONE_BUTTON) {
+			return null;
+		}
+		Block emerald = buttonB.getRelative(BlockFace.DOWN);
+		if (emerald.getType() != Material.EMERALD_BLOCK) {
+			return null;
+		}
+		Block buttonT = buttonB.getRelative(BlockFace.UP);
+		if (buttonT.getType() != Material.STONE_BUTTON) {
+			return null;
+		}
+		Button buttonBA = (Button) buttonB.getState().getData();
+
+		BlockFace stationDirection = buttonBA.getAttachedFace();
+
+		Block lapisB = buttonB.getRelative(stationDirection);
+		if (lapisB.getType() != Material.LAPIS_BLOCK) {
+			return null;
+		}
+		Button buttonTA = (Button) buttonT.getState().getData();
+		Block lapisT = buttonT.getRelative(buttonTA.getAttachedFace());
+		if (lapisT.getType() != Material.LAPIS_BLOCK || !lapisT.equals(lapisB.getRelative(BlockFace.UP))) {
+			return null;
+		}
+		Block redstone = lapisT.getRelative(BlockFace.UP);
+		if (redstone.getType() != Material.REDSTONE_BLOCK) {
+			return null;
+		}
+
+		return stationDirection;
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.blablubbabc.homestations.utils.MessageTemplate;
+import de.blablubbabc.homestations.utils.Utils;
+import de.blablubbabc.homestations.utils.WorldRegistry;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UtilsBenchmark {
+
+	private String message = "\u00A7cTeleporting costs \u00A7e{costs}$\u00A7c, you have \u00A7e{balance}$\u00A7c! \u00A76Click again to confirm.";
+	private String multiLineMessage = "\u00A7aYou have set your \u00A7ehome station\u00A7a!\\n\u00A7aYou will teleport here every time you trigger the top button of a \u00A7espawn station\u00A7a.";
+	private String costs = "10.0";
+	private String balance = "1234.56";
+	private MessageTemplate messageTemplate = MessageTemplate.compile(message);
+
+	private World world;
+	private String locationString = "world;-1234.5;64.0;5678.25;-90.0;12.5";
+	private Location location;
+	private StringBuilder builder = new StringBuilder(64);
+
+	@Setup
+	public void setup() {
+		world = new BenchmarkWorld("world").getWorld();
+		WorldRegistry.onWorldLoad(world);
+		location = new Location(world, -1234.5D, 64.0D, 5678.25D, -90.0F, 12.5F);
+	}
+
+	@Benchmark
+	public String replacePlaceholders() {
+		return Utils.replacePlaceholders(message, "costs", costs, "balance", balance);
+	}
+
+	@Benchmark
+	public String renderMessageTemplate() {
+		return messageTemplate.render("costs", costs, "balance", balance);
+	}
+
+	@Benchmark
+	public List<String> getLines() {
+		return Utils.getLines(multiLineMessage);
+	}
+
+	@Benchmark
+	public Location stringToLocation() {
+		return Utils.StringToLocation(locationString);
+	}
+
+	// baseline: the previous split based parser
+	@Benchmark
+	public Location stringToLocationSplit() {
+		String[] split = locationString.split(";");
+		if (split.length != 4 && split.length != 6) return null;
+		if (!world.getName().equals(split[0])) return null;
+		Double x = Utils.parseDouble(split[1]);
+		if (x == null) return null;
+		Double y = Utils.parseDouble(split[2]);
+		if (y == null) return null;
+		Double z = Utils.parseDouble(split[3]);
+		if (z == null) return null;
+		Float yaw = Utils.parseFloat(split[4]);
+		Float pitch = Utils.parseFloat(split[5]);
+		return new Location(world, x, y, z, yaw, pitch);
+	}
+
+	@Benchmark
+	public String locationToString() {
+		return Utils.LocationToString(location);
+	}
+
+	@Benchmark
+	public StringBuilder appendLocation() {
+		builder.setLength(0);
+		return Utils.appendLocation(builder, location);
+	}
+}
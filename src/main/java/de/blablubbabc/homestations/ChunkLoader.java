@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Loads chunks without blocking the calling event handler.
+ * 
+ * <p>
+ * Uses Paper's asynchronous chunk loading if available. Otherwise the chunk is loaded during the next tick.
+ * </p>
+ */
+class ChunkLoader {
+
+	// Paper: CompletableFuture<Chunk> World#getChunkAtAsync(int, int)
+	private static final Method GET_CHUNK_AT_ASYNC;
+	static {
+		Method method = null;
+		try {
+			method = World.class.getMethod("getChunkAtAsync", int.class, int.class);
+			if (!CompletableFuture.class.isAssignableFrom(method.getReturnType())) {
+				method = null;
+			}
+		} catch (NoSuchMethodException e) {
+			// not available
+		}
+		GET_CHUNK_AT_ASYNC = method;
+	}
+
+	private final Plugin plugin;
+
+	ChunkLoader(Plugin plugin) {
+		this.plugin = plugin;
+	}
+
+	/**
+	 * Checks if chunks get loaded asynchronously.
+	 * 
+	 * @return <code>true</code> if chunks get loaded asynchronously
+	 */
+	boolean isAsync() {
+		return (GET_CHUNK_AT_ASYNC != null);
+	}
+
+	/**
+	 * Loads the specified chunk, if it isn't loaded yet.
+	 * 
+	 * <p>
+	 * If the chunk is already loaded, the callback is run right away. Otherwise it is run on the main thread once the
+	 * chunk has been loaded (or loading failed). The callback is not run if the plugin got disabled in the meantime.
+	 * </p>
+	 * 
+	 * @param world
+	 *            the world
+	 * @param chunkX
+	 *            the chunk's x coordinate
+	 * @param chunkZ
+	 *            the chunk's z coordinate
+	 * @param callback
+	 *            the callback, can be <code>null</code>
+	 */
+	void loadChunk(World world, int chunkX, int chunkZ, Runnable callback) {
+		if (world.isChunkLoaded(chunkX, chunkZ)) {
+			if (callback != null) callback.run();
+			return;
+		}
+
+		if (GET_CHUNK_AT_ASYNC != null) {
+			CompletableFuture<?> future = null;
+			try {
+				future = (CompletableFuture<?>) GET_CHUNK_AT_ASYNC.invoke(world, chunkX, chunkZ);
+			} catch (ReflectiveOperationException e) {
+				plugin.getLogger().warning("Unable to load chunk asynchronously: " + e.getMessage());
+			}
+			if (future != null) {
+				future.whenComplete((chunk, error) -> this.runOnMainThread(callback));
+				return;
+			}
+		}
+
+		// load the chunk during the next tick, outside of the calling event handler:
+		Bukkit.getScheduler().runTask(plugin, () -> {
+			world.getChunkAt(chunkX, chunkZ);
+			if (callback != null) callback.run();
+		});
+	}
+
+	private void runOnMainThread(Runnable callback) {
+		if (callback == null || !plugin.isEnabled()) return;
+		if (Bukkit.isPrimaryThread()) {
+			callback.run();
+		} else {
+			Bukkit.getScheduler().runTask(plugin, callback);
+		}
+	}
+}
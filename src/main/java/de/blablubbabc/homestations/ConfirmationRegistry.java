@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import de.blablubbabc.homestations.HomeStations.ConfirmationRequest;
+import de.blablubbabc.homestations.utils.SoftBlockLocation;
+
+/**
+ * Keeps track of the pending confirmation request of each player.
+ *
+ * <p>
+ * Requests are expired by a hashed timing wheel, which advances one slot every {@link #TICKS_PER_SLOT} server ticks.
+ * Requests are additionally indexed by their affected station, so that all requests affected by a station can be
+ * removed without looking at the requests of other stations. Adding, removing and expiring a request takes constant
+ * time.
+ * </p>
+ *
+ * <p>
+ * Safe to be used from multiple threads.
+ * </p>
+ */
+class ConfirmationRegistry {
+
+	private static final int TICKS_PER_SLOT = 5;
+	private static final int WHEEL_SIZE = 64; // power of 2
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+	private static final class Entry {
+
+		private final UUID playerId;
+		private final ConfirmationRequest request;
+		private final SoftBlockLocation station;
+
+		// the number of remaining full wheel rotations before the request expires:
+		private int remainingRounds;
+		private int slot;
+		// the requests sharing the same wheel slot:
+		private Entry previousInSlot;
+		private Entry nextInSlot;
+		// the requests affected by the same station:
+		private Entry previousForStation;
+		private Entry nextForStation;
+
+		private Entry(UUID playerId, ConfirmationRequest request) {
+			this.playerId = playerId;
+			this.request = request;
+			this.station = request.getAffectedStationLocation();
+		}
+	}
+
+	private final Map<UUID, Entry> byPlayer = new HashMap<>();
+	// station -> first request affected by that station:
+	private final Map<SoftBlockLocation, Entry> byStation = new HashMap<>();
+	private final Entry[] wheel = new Entry[WHEEL_SIZE];
+	private int currentSlot = 0;
+	private BukkitTask task = null;
+
+	// statistics:
+	private long expiredRequests = 0L;
+
+	/**
+	 * Starts advancing the timing wheel.
+	 *
+	 * @param plugin
+	 *            the plugin
+	 */
+	synchronized void start(Plugin plugin) {
+		this.stop();
+		task = Bukkit.getScheduler().runTaskTimer(plugin, this::advance, TICKS_PER_SLOT, TICKS_PER_SLOT);
+	}
+
+	/**
+	 * Stops advancing the timing wheel and removes all requests.
+	 */
+	synchronized void stop() {
+		if (task != null) {
+			task.cancel();
+			task = null;
+		}
+		this.clear();
+	}
+
+	/**
+	 * Sets the pending confirmation request of a player, replacing any previous request.
+	 *
+	 * @param playerId
+	 *            the player id
+	 * @param request
+	 *            the request
+	 */
+	synchronized void put(UUID playerId, ConfirmationRequest request) {
+		this.remove(playerId);
+
+		Entry entry = new Entry(playerId, request);
+		byPlayer.put(playerId, entry);
+
+		// wheel:
+		long durationTicks = request.getDurationInSeconds() * 20L;
+		long slots = Math.max(1L, (durationTicks + TICKS_PER_SLOT - 1) / TICKS_PER_SLOT);
+		entry.remainingRounds = (int) ((slots - 1) / WHEEL_SIZE);
+		entry.slot = (int) ((currentSlot + slots) & WHEEL_MASK);
+		Entry slotHead = wheel[entry.slot];
+		entry.nextInSlot = slotHead;
+		if (slotHead != null) slotHead.previousInSlot = entry;
+		wheel[entry.slot] = entry;
+
+		// station index:
+		Entry stationHead = byStation.put(entry.station, entry);
+		entry.nextForStation = stationHead;
+		if (stationHead != null) stationHead.previousForStation = entry;
+	}
+
+	/**
+	 * Gets and removes the pending confirmation request of a player.
+	 *
+	 * @param playerId
+	 *            the player id
+	 * @return the request, or <code>null</code> if there is none
+	 */
+	synchronized ConfirmationRequest remove(UUID playerId) {
+		Entry entry = byPlayer.get(playerId);
+		if (entry == null) return null;
+		this.unlink(entry);
+		return entry.request;
+	}
+
+	/**
+	 * Removes all confirmation requests which are affected by the given station.
+	 *
+	 * @param affectedStationLocation
+	 *            the station location
+	 */
+	synchronized void removeAffected(SoftBlockLocation affectedStationLocation) {
+		Entry entry = byStation.get(affectedStationLocation);
+		while (entry != null) {
+			Entry next = entry.nextForStation;
+			this.unlink(entry);
+			entry = next;
+		}
+	}
+
+	// expires the requests of the next slot:
+	private synchronized void advance() {
+		currentSlot = (currentSlot + 1) & WHEEL_MASK;
+		Entry entry = wheel[currentSlot];
+		while (entry != null) {
+			Entry next = entry.nextInSlot;
+			if (entry.remainingRounds > 0) {
+				entry.remainingRounds--;
+			} else {
+				this.unlink(entry);
+				expiredRequests++;
+			}
+			entry = next;
+		}
+	}
+
+	private void unlink(Entry entry) {
+		byPlayer.remove(entry.playerId);
+
+		// wheel:
+		if (entry.previousInSlot != null) {
+			entry.previousInSlot.nextInSlot = entry.nextInSlot;
+		} else {
+			wheel[entry.slot] = entry.nextInSlot;
+		}
+		if (entry.nextInSlot != null) {
+			entry.nextInSlot.previousInSlot = entry.previousInSlot;
+		}
+
+		// station index:
+		if (entry.previousForStation != null) {
+			entry.previousForStation.nextForStation = entry.nextForStation;
+		} else if (entry.nextForStation != null) {
+			byStation.put(entry.station, entry.nextForStation);
+		} else {
+			byStation.remove(entry.station);
+		}
+		if (entry.nextForStation != null) {
+			entry.nextForStation.previousForStation = entry.previousForStation;
+		}
+	}
+
+	synchronized void clear() {
+		byPlayer.clear();
+		byStation.clear();
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			wheel[i] = null;
+		}
+	}
+
+	synchronized int size() {
+		return byPlayer.size();
+	}
+
+	synchronized long getExpiredRequests() {
+		return expiredRequests;
+	}
+}
@@ -4,60 +4,283 @@
  */
 package de.blablubbabc.homestations;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.EnumMap;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.logging.Logger;
 
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
-
-import de.blablubbabc.homestations.utils.SoftBlockLocation;
-import de.blablubbabc.homestations.utils.Utils;
+import org.bukkit.plugin.IllegalPluginAccessException;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import de.blablubbabc.homestations.storage.FilePlayerDataStorage;
+import de.blablubbabc.homestations.storage.LogPlayerDataStorage;
+import de.blablubbabc.homestations.storage.MappedPlayerDataStorage;
+import de.blablubbabc.homestations.storage.PlayerDataMigrator;
+import de.blablubbabc.homestations.storage.PlayerDataStorage;
+import de.blablubbabc.homestations.storage.StorageType;
+import de.blablubbabc.homestations.utils.MessageTemplate;
 
 class DataStore {
 
 	// path information:
 	final static String pluginFolderPath = "plugins" + File.separator + "HomeStations";
-	final static String messagesFilePath = pluginFolderPath + File.separator + "messages.yml";
+	final static String messagesFileName = "messages.yml";
+	final static String messagesFilePath = pluginFolderPath + File.separator + messagesFileName;
 	final static String homesFilePath = pluginFolderPath + File.separator + "homes.yml";
-	final static String playerDataFolderPath = pluginFolderPath + File.separator + "PlayerData";
-
+	// relative to the data folder of the data store:
+	final static String playerDataFolderName = "PlayerData";
+	final static String playerDataBackupFolderName = "PlayerData-migrated";
+	final static String playerDataLogFileName = "playerdata.db";
+	final static String playerDataMappedFileName = "playerdata.map";
+	final static String teleportCostJournalFilePath = pluginFolderPath + File.separator + "teleportcosts.journal";
+	final static String metricsFilePath = pluginFolderPath + File.separator + "metrics.json";
+
+	// preloaded player data is dropped again if the player doesn't join within this time:
+	private static final long PRELOAD_EXPIRATION_MILLIS = TimeUnit.MINUTES.toMillis(1);
+	// number of locks used to serialize player data updates, power of 2:
+	private static final int PLAYER_LOCK_STRIPES = 64;
+
+	private final Plugin plugin;
 	private final Logger logger;
+	private final File dataFolder;
+	private final File messagesFile;
+	private final PlayerDataStorage storage;
 
 	// in-memory cache for player data:
-	private final Map<UUID, PlayerData> playerIdToPlayerDataMap = new HashMap<>();
+	private final PlayerDataCache playerDataCache = new PlayerDataCache();
+
+	// player data loaded asynchronously during login, picked up once the player joins:
+	private final Map<UUID, PreloadedPlayerData> preloadedPlayerData = new ConcurrentHashMap<>();
+
+	// snapshots of changed player data which still need to be written to disk:
+	// later saves for the same player replace earlier ones which haven't been written yet
+	private final Map<UUID, PlayerData> pendingSaves = new ConcurrentHashMap<>();
+	// guards all storage access, so that a load never observes half-written or outdated data while a save for the
+	// same player is being flushed:
+	private final Object ioLock = new Object();
+	// updates of the player data of the same player are serialized via striped locks:
+	private final Object[] playerLocks = new Object[PLAYER_LOCK_STRIPES];
+	private volatile BukkitTask saveTask = null;
+	private final HomeStationsMetrics metrics;
+
+	// in-memory cache for messages, replaced as a whole when the messages get reloaded:
+	private volatile Map<Message, MessageTemplate> messages;
+
+	private static class PreloadedPlayerData {
 
-	// in-memory cache for messages:
-	private final Map<Message, String> messages = new EnumMap<>(Message.class);
+		private final PlayerData playerData;
+		private final long loadTime;
 
-	DataStore(Logger logger) {
-		this.logger = logger;
+		private PreloadedPlayerData(PlayerData playerData) {
+			this.playerData = playerData;
+			this.loadTime = System.currentTimeMillis();
+		}
+	}
+
+	DataStore(Plugin plugin, StorageType storageType, HomeStationsMetrics metrics) throws IOException {
+		this(plugin, new File(pluginFolderPath), storageType, metrics);
+	}
+
+	// the data folder can be changed in order to keep the data of benchmarks separate
+	DataStore(Plugin plugin, File dataFolder, StorageType storageType, HomeStationsMetrics metrics) throws IOException {
+		this.plugin = plugin;
+		this.logger = plugin.getLogger();
+		this.dataFolder = dataFolder;
+		this.messagesFile = new File(dataFolder, messagesFileName);
+		this.metrics = metrics;
+		for (int i = 0; i < PLAYER_LOCK_STRIPES; i++) {
+			playerLocks[i] = new Object();
+		}
 
 		// load messages:
-		this.loadMessages();
+		this.messages = this.loadMessages(YamlConfiguration.loadConfiguration(messagesFile));
 
-		// ensure player data folders exist:
-		new File(playerDataFolderPath).mkdirs();
+		// setup player data storage:
+		this.storage = this.createStorage(storageType);
+		logger.info("Using '" + storage.getName() + "' player data storage.");
+	}
+
+	private PlayerDataStorage createStorage(StorageType storageType) throws IOException {
+		PlayerDataStorage storage = this.openStorage(storageType);
+
+		// one-shot import of player data from other storages:
+		if (storageType != StorageType.FILES) {
+			PlayerDataMigrator.migrateFiles(new File(dataFolder, playerDataFolderName), new File(dataFolder, playerDataBackupFolderName), storage, logger);
+		}
+		for (StorageType sourceType : StorageType.values()) {
+			if (sourceType == storageType || sourceType == StorageType.FILES) continue;
+			File sourceFile = this.getStorageFile(sourceType);
+			if (!sourceFile.exists()) continue;
+
+			PlayerDataStorage source = this.openStorage(sourceType);
+			try {
+				PlayerDataMigrator.migrateStorage(source, storage, logger);
+			} finally {
+				source.close();
+			}
+			// keep the old data around as backup, including any side files of the storage:
+			for (File migratedFile : source.getFiles()) {
+				if (!migratedFile.exists()) continue;
+				File backupFile = new File(migratedFile.getPath() + ".migrated");
+				if (!migratedFile.renameTo(backupFile)) {
+					logger.warning("Unable to rename migrated player data file \"" + migratedFile.getPath() + "\" to \"" + backupFile.getPath() + "\".");
+				}
+			}
+		}
+		return storage;
+	}
+
+	private File getStorageFile(StorageType storageType) {
+		switch (storageType) {
+		case LOG:
+			return new File(dataFolder, playerDataLogFileName);
+		case MAPPED:
+			return new File(dataFolder, playerDataMappedFileName);
+		case FILES:
+		default:
+			return new File(dataFolder, playerDataFolderName);
+		}
+	}
+
+	private PlayerDataStorage openStorage(StorageType storageType) throws IOException {
+		File storageFile = this.getStorageFile(storageType);
+		switch (storageType) {
+		case LOG:
+			return new LogPlayerDataStorage(storageFile, logger);
+		case MAPPED:
+			return new MappedPlayerDataStorage(storageFile, logger);
+		case FILES:
+		default:
+			return new FilePlayerDataStorage(storageFile);
+		}
+	}
+
+	/**
+	 * Starts the task which periodically writes changed player data to disk in the background.
+	 * 
+	 * @param saveIntervalTicks
+	 *            the interval in ticks between two successive flushes of pending saves
+	 */
+	void startSaveTask(long saveIntervalTicks) {
+		this.stopSaveTask();
+		long interval = Math.max(1L, saveIntervalTicks);
+		saveTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, new Runnable() {
+
+			@Override
+			public void run() {
+				flushPendingSaves();
+				removeExpiredPreloadedPlayerData();
+				playerDataCache.removeExpired();
+			}
+		}, interval, interval);
+	}
+
+	private void stopSaveTask() {
+		if (saveTask != null) {
+			saveTask.cancel();
+			saveTask = null;
+		}
 	}
 
 	/**
-	 * Removes cached {@link PlayerData} from memory.
+	 * Stops the background save task and synchronously writes all still pending player data to disk.
+	 * 
+	 * <p>
+	 * Has to be called when the plugin gets disabled.
+	 * </p>
+	 */
+	void shutdown() {
+		this.stopSaveTask();
+		// the async save task might still be running, in which case this blocks on the io lock until it is done:
+		this.flushPendingSaves();
+		preloadedPlayerData.clear();
+		playerDataCache.clear();
+
+		synchronized (ioLock) {
+			try {
+				storage.close();
+			} catch (IOException e) {
+				logger.severe("Unable to close the player data storage: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Sets the limits of the cache for the {@link PlayerData} of offline players.
+	 * 
+	 * @param maxOfflineEntries
+	 *            the maximum number of cached offline players
+	 * @param expirationSeconds
+	 *            the time in seconds after which cached offline players expire if they are not accessed
+	 */
+	void setCacheLimits(int maxOfflineEntries, long expirationSeconds) {
+		playerDataCache.setLimits(maxOfflineEntries, expirationSeconds);
+	}
+
+	int getPendingSaveCount() {
+		return pendingSaves.size();
+	}
+
+	PlayerDataCache getPlayerDataCache() {
+		return playerDataCache;
+	}
+
+	/**
+	 * Unpins the cached {@link PlayerData} of a player who left, moving it into the cache for offline players.
 	 * 
 	 * @param playerId
 	 *            the player's unique id
 	 */
 	void clearCachedPlayerData(UUID playerId) {
-		playerIdToPlayerDataMap.remove(playerId);
+		playerDataCache.setOffline(playerId);
+		preloadedPlayerData.remove(playerId);
+	}
+
+	/**
+	 * Loads the {@link PlayerData} for the given player so that it is readily available once the player joins.
+	 * 
+	 * <p>
+	 * This is meant to be called asynchronously during the player's login.
+	 * </p>
+	 * 
+	 * @param playerId
+	 *            the player's unique id
+	 * @param playerName
+	 *            the player's name, used to import old player data
+	 */
+	void preloadPlayerData(UUID playerId, String playerName) {
+		// still cached from the player's last visit:
+		if (playerDataCache.containsOffline(playerId)) return;
+		PlayerData playerData = this.loadPlayerData(playerId, playerName);
+		preloadedPlayerData.put(playerId, new PreloadedPlayerData(playerData));
+	}
+
+	// drops preloaded player data of players which never finished joining:
+	private void removeExpiredPreloadedPlayerData() {
+		if (preloadedPlayerData.isEmpty()) return;
+		long expiredBefore = System.currentTimeMillis() - PRELOAD_EXPIRATION_MILLIS;
+		Iterator<PreloadedPlayerData> preloaded = preloadedPlayerData.values().iterator();
+		while (preloaded.hasNext()) {
+			if (preloaded.next().loadTime < expiredBefore) {
+				preloaded.remove();
+			}
+		}
 	}
 
 	/**
@@ -75,16 +298,32 @@ class DataStore {
 	public PlayerData getPlayerData(Player player) {
 		UUID playerId = player.getUniqueId();
 		// look in memory:
-		PlayerData playerData = playerIdToPlayerDataMap.get(playerId);
-
-		// if not there, look on disk and create default if it doesn't exist there either:
-		if (playerData == null) {
-			playerData = this.loadPlayerData(player);
+		PlayerData playerData = playerDataCache.getOnline(playerId);
+		if (playerData != null) return playerData;
+
+		synchronized (this.getPlayerLock(playerId)) {
+			// check again, in case another thread has loaded the player data in the meantime:
+			playerData = playerDataCache.getOnline(playerId);
+			if (playerData != null) return playerData;
+
+			// check the offline cache, then for preloaded data, or else look on disk and create default if it doesn't
+			// exist there either:
+			playerData = playerDataCache.get(playerId);
+			if (playerData == null) {
+				PreloadedPlayerData preloaded = preloadedPlayerData.remove(playerId);
+				if (preloaded != null) {
+					playerData = preloaded.playerData;
+				} else {
+					playerData = this.loadPlayerData(playerId, player.getName());
+				}
+			} else {
+				preloadedPlayerData.remove(playerId);
+			}
 
-			// store the new player data in the cache:
-			playerIdToPlayerDataMap.put(playerId, playerData);
+			// pin the player data while the player is online:
+			playerDataCache.putOnline(playerId, playerData);
+			return playerData;
 		}
-		return playerData;
 	}
 
 	/**
@@ -96,27 +335,32 @@ class DataStore {
 	 * values.
 	 * </p>
 	 * 
-	 * @param player
-	 *            the player
+	 * @param playerId
+	 *            the player's unique id
+	 * @param playerName
+	 *            the player's name
 	 * @return the player data
 	 */
-	private PlayerData loadPlayerData(Player player) {
-		UUID playerId = player.getUniqueId();
+	private PlayerData loadPlayerData(UUID playerId, String playerName) {
 		// load player data from disk:
 		PlayerData playerData = this.loadPlayerDataIfExist(playerId);
 
 		if (playerData == null) {
 			// import old player data if found:
-			String playerName = player.getName();
-			playerData = this.loadOldPlayerData(playerName);
-
-			if (playerData != null) {
-				// save imported player data:
-				this.savePlayerData(playerId, playerData);
+			synchronized (ioLock) {
+				playerData = this.loadOldPlayerData(playerName);
+				if (playerData != null) {
+					// save imported player data, before the old player data file gets deleted:
+					this.writePlayerData(playerId, playerData);
+					playerDataCache.removeMissing(playerId);
+					this.flushStorage();
+
+					// delete old player data file:
+					this.getOldPlayerDataFile(playerName).delete();
+				}
+			}
 
-				// delete old player data file:
-				this.getOldPlayerDataFile(playerName).delete();
-			} else {
+			if (playerData == null) {
 				// create fresh default player data:
 				playerData = new PlayerData();
 			}
@@ -129,7 +373,8 @@ class DataStore {
 	 * 
 	 * <p>
 	 * Returns <code>null</code> if no {@link PlayerData} was found for the given player id.<br>
-	 * The loaded {@link PlayerData} will not be saved in memory and is meant for one-time lookup purposes.
+	 * The {@link PlayerData} of offline players is kept in memory for a limited time, as well as the information that
+	 * there is no {@link PlayerData} for a player id.
 	 * 
 	 * @param playerId
 	 *            the player id
@@ -137,14 +382,26 @@ class DataStore {
 	 */
 	public PlayerData getPlayerDataIfExist(UUID playerId) {
 		// look in memory:
-		PlayerData playerData = playerIdToPlayerDataMap.get(playerId);
-
-		// if not there, look on disk:
-		if (playerData == null) {
+		PlayerData playerData = playerDataCache.get(playerId);
+		if (playerData != null) return playerData;
+		if (playerDataCache.isMissing(playerId)) return null;
+
+		// concurrent updates are not allowed to get replaced by the data loaded here:
+		synchronized (this.getPlayerLock(playerId)) {
+			// check again, in case another thread has cached the player data in the meantime:
+			playerData = playerDataCache.get(playerId);
+			if (playerData != null) return playerData;
+			if (playerDataCache.isMissing(playerId)) return null;
+
+			// if not there, look on disk:
 			playerData = this.loadPlayerDataIfExist(playerId);
+			if (playerData != null) {
+				playerDataCache.putOffline(playerId, playerData);
+			} else {
+				playerDataCache.putMissing(playerId);
+			}
+			return playerData;
 		}
-
-		return playerData;
 	}
 
 	/**
@@ -159,53 +416,137 @@ class DataStore {
 	 * @return the player data, possibly <code>null</code>
 	 */
 	PlayerData loadPlayerDataIfExist(UUID playerId) {
-		File playerFile = new File(playerDataFolderPath, playerId.toString());
-		return this.loadPlayerDataIfExist(playerFile);
-	}
+		synchronized (ioLock) {
+			// data that is still waiting to be written is more recent than the data on disk:
+			PlayerData pendingPlayerData = pendingSaves.get(playerId);
+			if (pendingPlayerData != null) {
+				return pendingPlayerData;
+			}
 
-	// loads the player data from the given file:
-	private PlayerData loadPlayerDataIfExist(File playerFile) {
-		// check if player data file exists:
-		if (!playerFile.exists()) {
-			return null;
+			long startNanos = System.nanoTime();
+			try {
+				return storage.load(playerId);
+			} catch (IOException e) {
+				// log if a problem occurs:
+				logger.severe("Unable to load data for player \"" + playerId + "\": " + e.getMessage());
+				return new PlayerData();
+			} finally {
+				metrics.playerDataLoad.recordSince(startNanos);
+			}
 		}
+	}
 
-		PlayerData playerData = new PlayerData();
+	private Object getPlayerLock(UUID playerId) {
+		int hash = playerId.hashCode();
+		return playerLocks[(hash ^ (hash >>> 16)) & (PLAYER_LOCK_STRIPES - 1)];
+	}
 
-		// read the file:
-		BufferedReader inStream = null;
-		try {
-			inStream = new BufferedReader(new FileReader(playerFile));
+	/**
+	 * Updates the {@link PlayerData} of the given player and saves it.
+	 * 
+	 * <p>
+	 * Updates for the same player are applied one after the other, so the given function always receives the most
+	 * recent player data. If the player data is not cached, it gets loaded. The updated player data replaces the cached
+	 * player data, and is written to disk asynchronously during the next flush of pending saves.
+	 * </p>
+	 * 
+	 * @param playerId
+	 *            the player id
+	 * @param update
+	 *            creates the updated player data from the current player data
+	 * @return the updated player data
+	 */
+	public PlayerData updatePlayerData(UUID playerId, UnaryOperator<PlayerData> update) {
+		return this.updatePlayerData(playerId, update, true);
+	}
 
-			// first line is the home location as string:
-			String homeLocationString = inStream.readLine();
-			// second line is the spawn location as string:
-			String spawnLocationString = inStream.readLine();
+	/**
+	 * Replaces the cached {@link PlayerData} of the given player, without saving it.
+	 * 
+	 * @param playerId
+	 *            the player id
+	 * @param playerData
+	 *            the player data
+	 */
+	void setCachedPlayerData(UUID playerId, PlayerData playerData) {
+		this.updatePlayerData(playerId, current -> playerData, false);
+	}
 
-			// convert those to SoftBlockLocations and store them:
-			if (homeLocationString != null) {
-				playerData.homeLocation = SoftBlockLocation.getFromString(homeLocationString);
+	private PlayerData updatePlayerData(UUID playerId, UnaryOperator<PlayerData> update, boolean save) {
+		synchronized (this.getPlayerLock(playerId)) {
+			PlayerData playerData = playerDataCache.get(playerId);
+			if (playerData == null) {
+				playerData = this.loadPlayerDataIfExist(playerId);
+				if (playerData == null) {
+					playerData = new PlayerData();
+				}
 			}
-			if (spawnLocationString != null) {
-				playerData.spawnLocation = SoftBlockLocation.getFromString(spawnLocationString);
+			PlayerData updated = update.apply(playerData);
+			playerDataCache.put(playerId, updated);
+			if (save) {
+				this.savePlayerData(playerId, updated);
 			}
-		} catch (Exception e) {
-			// log if a problem occurs:
-			logger.severe("Unable to load player data from \"" + playerFile.getPath() + "\": " + e.getMessage());
-		} finally {
-			if (inStream != null) {
+			return updated;
+		}
+	}
+
+	/**
+	 * Gets the {@link PlayerData} for a player with the given id, loading it asynchronously if it is not cached.
+	 * 
+	 * @param playerId
+	 *            the player id
+	 * @return a future which completes with the player data, or with <code>null</code> if no {@link PlayerData} was
+	 *         found for the given player id
+	 * @see #getPlayerDataIfExist(UUID)
+	 */
+	public CompletableFuture<PlayerData> getPlayerDataAsync(UUID playerId) {
+		PlayerData playerData = playerDataCache.getOnline(playerId);
+		if (playerData != null) return CompletableFuture.completedFuture(playerData);
+		return this.supplyAsync(() -> this.getPlayerDataIfExist(playerId));
+	}
+
+	/**
+	 * Updates the {@link PlayerData} of the given player asynchronously, like
+	 * {@link #updatePlayerData(UUID, UnaryOperator)}, and writes it to disk right away.
+	 * 
+	 * @param playerId
+	 *            the player id
+	 * @param update
+	 *            creates the updated player data from the current player data, gets called asynchronously
+	 * @return a future which completes with the updated player data once it has been written to disk
+	 */
+	public CompletableFuture<PlayerData> updatePlayerDataAsync(UUID playerId, UnaryOperator<PlayerData> update) {
+		return this.supplyAsync(() -> {
+			PlayerData updated = this.updatePlayerData(playerId, update);
+			this.flushPendingSave(playerId);
+			return updated;
+		});
+	}
+
+	private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
 				try {
-					inStream.close();
-				} catch (IOException e) {
-					e.printStackTrace();
+					future.complete(supplier.get());
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
 				}
-			}
+			});
+		} catch (IllegalPluginAccessException e) {
+			// the plugin got disabled:
+			future.completeExceptionally(e);
 		}
-		return playerData;
+		return future;
 	}
 
 	/**
-	 * Saves the {@link PlayerData}. MUST be called after making changes, otherwise a reload will lose them.
+	 * Saves the {@link PlayerData}.
+	 * 
+	 * <p>
+	 * This only remembers the given player data. The actual writing to disk happens asynchronously during the next
+	 * flush of pending saves.
+	 * </p>
 	 * 
 	 * @param playerId
 	 *            the player's unique id
@@ -213,31 +554,65 @@ class DataStore {
 	 *            the player data
 	 */
 	void savePlayerData(UUID playerId, PlayerData playerData) {
-		BufferedWriter outStream = null;
+		pendingSaves.put(playerId, playerData);
+		playerDataCache.removeMissing(playerId);
+		if (saveTask == null) {
+			// not running the background save task (eg. during startup or shutdown), write immediately:
+			this.flushPendingSaves();
+		}
+	}
+
+	/**
+	 * Writes all pending player data saves to disk.
+	 */
+	void flushPendingSaves() {
+		if (pendingSaves.isEmpty()) return;
+		for (UUID playerId : pendingSaves.keySet()) {
+			synchronized (ioLock) {
+				PlayerData playerData = pendingSaves.remove(playerId);
+				if (playerData != null) {
+					this.writePlayerData(playerId, playerData);
+				}
+			}
+		}
+		synchronized (ioLock) {
+			this.flushStorage();
+		}
+	}
+
+	// writes the pending save of the given player to disk:
+	private void flushPendingSave(UUID playerId) {
+		synchronized (ioLock) {
+			PlayerData playerData = pendingSaves.remove(playerId);
+			if (playerData != null) {
+				this.writePlayerData(playerId, playerData);
+				this.flushStorage();
+			}
+		}
+	}
+
+	// has to be called while holding the io lock:
+	private void flushStorage() {
+		long startNanos = System.nanoTime();
 		try {
-			// open the player's file
-			File playerDataFile = new File(playerDataFolderPath, playerId.toString());
-			playerDataFile.createNewFile();
-			outStream = new BufferedWriter(new FileWriter(playerDataFile));
-
-			// first line is the home location:
-			outStream.write(playerData.homeLocation != null ? playerData.homeLocation.toString() : "not set");
-			outStream.newLine();
-			// second line is the spawn location:
-			outStream.write(playerData.spawnLocation != null ? playerData.spawnLocation.toString() : "not set");
-			outStream.newLine();
-		} catch (Exception e) {
+			storage.flush();
+		} catch (IOException e) {
+			logger.severe("Unable to flush player data storage: " + e.getMessage());
+		} finally {
+			metrics.playerDataFlush.recordSince(startNanos);
+		}
+	}
+
+	// writes the player data to the storage, has to be called while holding the io lock:
+	private void writePlayerData(UUID playerId, PlayerData playerData) {
+		long startNanos = System.nanoTime();
+		try {
+			storage.save(playerId, playerData);
+		} catch (IOException e) {
 			// log if a problem occurs:
 			logger.severe("Unexpected exception saving data for player \"" + playerId + "\": " + e.getMessage());
 		} finally {
-			// close the file:
-			if (outStream != null) {
-				try {
-					outStream.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
+			metrics.playerDataSave.recordSince(startNanos);
 		}
 	}
 
@@ -249,9 +624,10 @@ class DataStore {
 	 * @return <code>true</code> if there is data stored, <code>false</code> otherwise
 	 */
 	boolean existsPlayerData(UUID playerId) {
-		File playerFile = new File(playerDataFolderPath, playerId.toString());
-		// whether or not the file exists:
-		return playerFile.exists();
+		if (pendingSaves.containsKey(playerId)) return true;
+		synchronized (ioLock) {
+			return storage.exists(playerId);
+		}
 	}
 
 	// HANDLING OF OLD PLAYER DATA
@@ -259,17 +635,36 @@ class DataStore {
 	private PlayerData loadOldPlayerData(String playerName) {
 		// look for old player data:
 		File oldPlayerDataFile = this.getOldPlayerDataFile(playerName);
-		return this.loadPlayerDataIfExist(oldPlayerDataFile);
+		try {
+			return FilePlayerDataStorage.readPlayerDataFile(oldPlayerDataFile);
+		} catch (IOException e) {
+			// log if a problem occurs:
+			logger.severe("Unable to load player data from \"" + oldPlayerDataFile.getPath() + "\": " + e.getMessage());
+			return null;
+		}
 	}
 
 	private File getOldPlayerDataFile(String playerName) {
-		return new File(playerDataFolderPath, playerName);
+		return new File(new File(dataFolder, playerDataFolderName), playerName);
+	}
+
+	// loads the given configuration file, unlike YamlConfiguration#loadConfiguration(File) this fails instead of
+	// returning an empty configuration if the file is invalid, missing files result in an empty configuration
+	static YamlConfiguration loadConfiguration(File file) throws IOException, InvalidConfigurationException {
+		YamlConfiguration config = new YamlConfiguration();
+		if (file.exists()) {
+			config.load(file);
+		}
+		return config;
 	}
 
 	// MESSAGES
 
-	// loads user-facing messages from the messages.yml configuration file into memory
-	private void loadMessages() {
+	// loads user-facing messages from the given messages.yml configuration and writes back defaults, can be called
+	// asynchronously
+	Map<Message, MessageTemplate> loadMessages(FileConfiguration config) {
+		Map<Message, MessageTemplate> messages = new EnumMap<>(Message.class);
+
 		// initialize defaults:
 		Map<Message, String> defaults = new EnumMap<>(Message.class);
 		defaults.put(Message.SpawnStationAdded, "&aA &espawn station &awas added!");
@@ -279,11 +674,22 @@ class DataStore {
 		defaults.put(Message.HomeStationSet, "&aYou have set your &ehome station&a!\\n&aYou will teleport here every time you trigger the top button of a &espawn station&a.");
 		defaults.put(Message.NoHomeStationSet, "&cYou don't have a &ehome station &cset yet!");
 		defaults.put(Message.HomeStationNotFound, "&cYour &ehome station &cdoes no longer exist!");
+		defaults.put(Message.HomeSelected, "&aSelected your home station &e{name}&a.");
+		defaults.put(Message.HomeListHeader, "&6Your home stations (&e{count}&6/&e{max}&6):");
+		defaults.put(Message.HomeListEntry, "&7- &e{name} &7({location})");
+		defaults.put(Message.HomeListEntrySelected, "&7- &a{name} &7({location}) &6(selected)");
+		defaults.put(Message.HomeRenamed, "&aRenamed your home station &e{name} &ato &e{newName}&a.");
+		defaults.put(Message.HomeRemoved, "&aRemoved your home station &e{name}&a.");
+		defaults.put(Message.UnknownHome, "&cYou don't have a home station named &e{name}&c!");
+		defaults.put(Message.HomeNameTaken, "&cYou already have a home station named &e{name}&c!");
+		defaults.put(Message.InvalidHomeName, "&cInvalid home station name &e{name}&c! Use up to 16 letters, digits, '_' or '-'.");
 		defaults.put(Message.SpawnStationSetConfirm, "&cYou are about to &eset your spawn station&c! &6Click again to confirm.");
 		defaults.put(Message.SpawnStationSet, "&aYou have set your &espawn station&a!\\n&aYou will teleport here every time you trigger the top button of a &ehome station&a.");
 		defaults.put(Message.NoSpawnStationSet, "&cYou don't have a &espawn station &cset yet! &6Selecting the &emain spawn station &6for you.");
 		defaults.put(Message.SpawnStationNotFound, "&cYour &espawn station &cdoes no longer exist!");
 		defaults.put(Message.ThisIsNoStation, "&cThis is not a valid station!");
+		defaults.put(Message.StationDestroyed, "&cYou have destroyed a &estation&c!");
+		defaults.put(Message.SpawnStationDestroyed, "&cYou have destroyed a &espawn station&c! It got removed.");
 		defaults.put(Message.TeleportToHome, "&aTeleporting home...");
 		defaults.put(Message.TeleportToSpawn, "&aTeleporting to spawn...");
 		defaults.put(Message.NotEnoughMoney, "&cYou don't have enough money! Teleporting costs &e{costs}$&c, but you only have &e{balance}$&c.");
@@ -291,9 +697,11 @@ class DataStore {
 		defaults.put(Message.TeleportCostsConfirm, "&cTeleporting costs &e{costs}$&c, you have &e{balance}$&c! &6Click again to confirm.");
 		defaults.put(Message.TeleportCostsApplied, "&aWithdrawn teleport costs of &e{costs}$&a. You have &e{balance}$ &aleft.");
 		defaults.put(Message.NoPermission, "&cYou don't have the permission to do that!");
-
-		// load the message config file:
-		FileConfiguration config = YamlConfiguration.loadConfiguration(new File(messagesFilePath));
+		defaults.put(Message.TeleportCooldown, "&cPlease wait &e{remaining} &cseconds before teleporting again.");
+		defaults.put(Message.StationCooldown, "&cThis station is still recharging. Please wait &e{remaining} &cseconds.");
+		defaults.put(Message.TeleportsBusy, "&cThe stations are busy right now. Please try again in a moment.");
+		defaults.put(Message.Reloaded, "&aReloaded the configuration: &e{changes}");
+		defaults.put(Message.ReloadFailed, "&cUnable to reload the configuration: &e{error}");
 
 		// load messages:
 		for (Message messageID : Message.values()) {
@@ -318,8 +726,8 @@ class DataStore {
 			// write value back to config (creates defaults):
 			config.set(messageID.name(), message);
 
-			// colorize and store message:
-			messages.put(messageID, ChatColor.translateAlternateColorCodes('&', message));
+			// colorize, compile and store message:
+			messages.put(messageID, MessageTemplate.compile(ChatColor.translateAlternateColorCodes('&', message)));
 		}
 
 		// remove legacy values from config:
@@ -327,20 +735,43 @@ class DataStore {
 
 		// save any changes:
 		try {
-			config.save(DataStore.messagesFilePath);
+			config.save(messagesFile);
 		} catch (IOException exception) {
-			logger.severe("Unable to write to the configuration file at \"" + DataStore.messagesFilePath + "\"");
+			logger.severe("Unable to write to the configuration file at \"" + messagesFile.getPath() + "\"");
 		}
+		return messages;
 	}
 
-	// gets a message from memory
-	public String getMessage(Message messageID, String... placeholders) {
-		String message = messages.get(messageID);
-		if (message == null) message = "ERROR:Missing message for '" + messageID + "'";
-
-		// replace placeholders:
-		message = Utils.replacePlaceholders(message, placeholders);
+	// replaces the messages in memory, returns the number of changed messages
+	int setMessages(Map<Message, MessageTemplate> newMessages) {
+		int changed = 0;
+		for (Message messageID : Message.values()) {
+			MessageTemplate oldMessage = messages.get(messageID);
+			MessageTemplate newMessage = newMessages.get(messageID);
+			String oldText = (oldMessage != null) ? oldMessage.toString() : null;
+			String newText = (newMessage != null) ? newMessage.toString() : null;
+			if (oldText == null ? newText != null : !oldText.equals(newText)) {
+				changed++;
+			}
+		}
+		messages = newMessages;
+		return changed;
+	}
 
+	// gets a message template from memory
+	public MessageTemplate getMessageTemplate(Message messageID) {
+		MessageTemplate message = messages.get(messageID);
+		if (message == null) message = MessageTemplate.compile("ERROR:Missing message for '" + messageID + "'");
 		return message;
 	}
+
+	// gets a message from memory, with the given placeholders replaced
+	public String getMessage(Message messageID, String... placeholders) {
+		return this.getMessageTemplate(messageID).render(placeholders);
+	}
+
+	// sends a message, with the given placeholders replaced
+	public void sendMessage(CommandSender recipient, Message messageID, String... placeholders) {
+		this.getMessageTemplate(messageID).send(recipient, placeholders);
+	}
 }
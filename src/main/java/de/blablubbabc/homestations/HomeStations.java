@@ -7,42 +7,47 @@ package de.blablubbabc.homestations;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
 import org.bukkit.Bukkit;
-import org.bukkit.Color;
-import org.bukkit.FireworkEffect;
-import org.bukkit.FireworkEffect.Builder;
 import org.bukkit.Location;
-import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
-import org.bukkit.configuration.ConfigurationSection;
-import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
-import org.bukkit.material.Button;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.util.Vector;
 
+import de.blablubbabc.homestations.effects.EffectEngine;
 import de.blablubbabc.homestations.external.EconomyController;
+import de.blablubbabc.homestations.external.EconomyController.BalanceCallback;
+import de.blablubbabc.homestations.external.EconomyController.TransactionCallback;
+import de.blablubbabc.homestations.metrics.MetricsHttpServer;
+import de.blablubbabc.homestations.metrics.MetricsRegistry;
+import de.blablubbabc.homestations.utils.MessageTemplate;
 import de.blablubbabc.homestations.utils.SoftBlockLocation;
 import de.blablubbabc.homestations.utils.Utils;
+import de.blablubbabc.homestations.utils.WorldRegistry;
 
 public class HomeStations extends JavaPlugin implements Listener {
 
@@ -55,76 +60,78 @@ public class HomeStations extends JavaPlugin implements Listener {
 	public static final String PERMISSION_ADMIN = "homestation.admin";
 	public static final String PERMISSION_USE = "homestation.use";
 
+	// the maximum distance a player may move away from the station while his destination is being loaded:
+	private static final double MAX_PENDING_TELEPORT_DISTANCE_SQUARED = 3.0D * 3.0D;
+
 	private final Vector toBlockMid = new Vector(0.5, 0, 0.5);
 
 	private DataStore dataStore;
 	private YamlConfiguration homesConfig;
 	private Set<SoftBlockLocation> spawnStations;
 	private SoftBlockLocation mainSpawnStation;
+	private final HomeStationsMetrics metrics = new HomeStationsMetrics();
+	private final StationIndex stationIndex = new StationIndex(metrics);
+	private final StationListener stationListener = new StationListener(this, stationIndex);
+	private final ChunkLoader chunkLoader = new ChunkLoader(this);
+	private final WarmChunkManager warmChunkManager = new WarmChunkManager(this, chunkLoader);
+	// players waiting for the chunk of their destination station to load:
+	private final Set<UUID> pendingTeleports = new HashSet<>();
 
-	private FireworkEffect fe1;
-	private FireworkEffect fe2;
-
-	private Vector upVelocity;
-	private long teleportDelay;
-
-	private double maxUpEffectRange;
-	private double upEffectDistance;
-
-	private double downEffectOffset;
-	private double teleportYOffset;
+	private final EffectEngine effectEngine = new EffectEngine(this);
+	private final TeleportLimiter teleportLimiter = new TeleportLimiter();
 
-	private double teleportCosts;
+	private Settings settings;
+	// whether a reload is currently being prepared asynchronously:
+	private boolean reloading = false;
 
 	private final EconomyController economyController = new EconomyController();
-	// playerUUID -> request
-	private final Map<UUID, ConfirmationRequest> confirmationRequests = new HashMap<>();
+	private final TeleportCostLedger teleportCostLedger = new TeleportCostLedger(this, economyController, new File(DataStore.teleportCostJournalFilePath));
+	private final ConfirmationRegistry confirmationRequests = new ConfirmationRegistry();
 
 	@Override
 	public void onEnable() {
 		instance = this;
 
+		// register loaded worlds:
+		WorldRegistry.init();
+
 		// load config:
-		this.loadConfig();
+		Settings settings = Settings.load(this.getConfig(), this.getLogger());
 
 		// save config (writing defaults):
 		this.saveConfig();
 
+		// apply config:
+		this.applySettings(settings, null);
+
 		// initialize DataStore:
-		dataStore = new DataStore(this.getLogger());
+		try {
+			dataStore = new DataStore(this, settings.playerDataStorageType, metrics);
+		} catch (IOException e) {
+			this.getLogger().severe("Unable to setup the player data storage: " + e.getMessage());
+			this.getLogger().severe("Disabling the plugin now.");
+			Bukkit.getPluginManager().disablePlugin(this);
+			return;
+		}
+		dataStore.startSaveTask(settings.playerDataSaveInterval);
+		dataStore.setCacheLimits(settings.maxCachedOfflinePlayers, settings.cachedOfflinePlayerExpiration);
+
+		// expose the statistics of all components:
+		this.registerMetricSources();
 
 		// load spawn stations locations:
 		homesConfig = YamlConfiguration.loadConfiguration(new File(DataStore.homesFilePath));
 		spawnStations = new HashSet<>(SoftBlockLocation.getFromStringList(homesConfig.getStringList("Homes.Spawn Stations")));
 		mainSpawnStation = SoftBlockLocation.getFromString(homesConfig.getString("Homes.Main Spawn Station"));
+		stationIndex.setSpawnStations(spawnStations);
 
 		Bukkit.getServer().getScheduler().runTaskLater(this, new Runnable() {
 
 			@Override
 			public void run() {
 				// validate all spawn stations:
-				Iterator<SoftBlockLocation> spawnLocs = spawnStations.iterator();
-				while (spawnLocs.hasNext()) {
-					SoftBlockLocation softLocation = spawnLocs.next();
-					Location location = softLocation.getBukkitLocation();
-					if (location == null || !isLowerStationButton(location.getBlock())) {
-						getLogger().warning("Invalid spawn station found (" + softLocation.toString() + "). Removing it now.");
-						spawnLocs.remove();
-					}
-				}
-
-				// load and validate spawn station:
-				if (mainSpawnStation != null) {
-					Location mainLocation = mainSpawnStation.getBukkitLocation();
-					if (mainLocation == null || !isLowerStationButton(mainLocation.getBlock())) {
-						getLogger().warning("Invalid main spawn station (" + mainSpawnStation.toString() + "). Removing it now.");
-						mainSpawnStation = null;
-					} else if (!spawnStations.contains(mainSpawnStation)) {
-						// add to spawn stations list:
-						spawnStations.add(mainSpawnStation);
-					}
-
-				}
+				validateSpawnStations(new ArrayList<>(spawnStations), true);
+				updateSpawnStations();
 
 				// save:
 				saveSpawnStations();
@@ -133,6 +140,8 @@ public class HomeStations extends JavaPlugin implements Listener {
 
 		// register listeners:
 		Bukkit.getServer().getPluginManager().registerEvents(this, this);
+		Bukkit.getServer().getPluginManager().registerEvents(stationListener, this);
+		Bukkit.getServer().getPluginManager().registerEvents(warmChunkManager, this);
 
 		// economy controller:
 		economyController.enable(this);
@@ -143,140 +152,232 @@ public class HomeStations extends JavaPlugin implements Listener {
 			dataStore.getPlayerData(player);
 		}
 
-		// reset confirmation requests, just in case:
-		confirmationRequests.clear();
+		// reset confirmation requests, just in case, and start expiring them:
+		confirmationRequests.start(this);
 	}
 
-	// loads the config and writes back loaded (defaults and corrected) values
-	private void loadConfig() {
-		// read config:
-		FileConfiguration config = this.getConfig();
+	// applies the given settings, only updating the components whose settings have changed compared to the previous
+	// settings (if any), returns the names of the changed settings
+	private List<String> applySettings(Settings settings, Settings previous) {
+		List<String> changes = new ArrayList<>();
 
 		// effects:
-		ConfigurationSection effect1Section = config.getConfigurationSection("Firework Effect 1");
-		fe1 = getEffect(effect1Section);
-		if (fe1 == null) {
-			fe1 = FireworkEffect.builder().withColor(Color.ORANGE).withTrail().withFade(Color.RED).build();
-			writeEffectSection(effect1Section != null ? effect1Section : config.createSection("Firework Effect 1"), fe1);
+		if (previous == null || !settings.hasSameEffects(previous)) {
+			effectEngine.setEffects(settings.effect1, settings.effect2);
+			effectEngine.setLimits(settings.maxEffectAnimations, settings.maxEffectsPerWorldPerTick);
+			effectEngine.setViewDistance(settings.effectViewDistance);
+			effectEngine.setDegradation(settings.degradeAnimationThreshold, settings.degradeMinimumTps, settings.degradeSpacingMultiplier);
+			effectEngine.setRenderer(settings.createEffectRenderer());
+			changes.add("effects");
 		}
-		ConfigurationSection effect2Section = config.getConfigurationSection("Firework Effect 2");
-		fe2 = getEffect(effect2Section);
-		if (fe2 == null) {
-			fe2 = FireworkEffect.builder().withColor(Color.YELLOW).build();
-			writeEffectSection(effect2Section != null ? effect2Section : config.createSection("Firework Effect 2"), fe2);
+
+		// teleport settings are read on use:
+		if (previous != null && !settings.hasSameTeleport(previous)) {
+			changes.add("teleport");
+		}
+
+		// teleport limits:
+		if (previous == null || !settings.hasSameTeleportLimits(previous)) {
+			teleportLimiter.setup(settings.playerCooldownMillis, settings.stationCooldownMillis, settings.maxTeleportsInFlight,
+					settings.teleportsPerSecond, settings.teleportBurst);
+			changes.add("teleport limits");
+		}
+
+		// economy:
+		if (previous == null || !settings.hasSameEconomy(previous)) {
+			economyController.setBalanceCacheDuration(settings.balanceCacheMillis);
+			economyController.setAsyncTransactions(settings.asyncTransactions, settings.transactionTimeoutTicks);
+			this.setupTeleportCostLedger(settings);
+			changes.add("economy");
+		}
+
+		// warm chunks:
+		if (previous == null || !settings.hasSameWarmChunks(previous)) {
+			warmChunkManager.setup(settings.warmChunks, settings.maxWarmHomeChunks);
+			if (spawnStations != null) {
+				warmChunkManager.setSpawnStations(spawnStations);
+			}
+			changes.add("warm chunks");
 		}
 
-		// yVelocity:
-		double yVelocity = config.getDouble("Upward.Teleport.Y Velocity", 2.0D);
-		upVelocity = new Vector(0, yVelocity, 0);
-		config.set("Upward.Teleport.Y Velocity", yVelocity);
+		// metrics:
+		if (previous == null || settings.metricsDumpInterval != previous.metricsDumpInterval) {
+			metrics.startDumpTask(this, new File(DataStore.metricsFilePath), settings.metricsDumpInterval);
+			changes.add("metrics");
+		}
+		if (previous == null || !settings.hasSameMetricsHttpEndpoint(previous)) {
+			metrics.stopHttpServer();
+			if (settings.metricsHttpEnabled) {
+				try {
+					metrics.startHttpServer(this, settings.metricsHttpHost, settings.metricsHttpPort);
+					this.getLogger().info("Serving metrics at http://" + settings.metricsHttpHost + ":" + settings.metricsHttpPort + MetricsHttpServer.PATH);
+				} catch (IOException | RuntimeException e) {
+					this.getLogger().warning("Unable to start the metrics HTTP endpoint: " + e.getMessage());
+				}
+			}
+			changes.add("metrics endpoint");
+		}
 
-		// teleport delay:
-		teleportDelay = config.getLong("Upward.Teleport.Delay in Ticks", 15L);
-		config.set("Upward.Teleport.Delay in Ticks", teleportDelay);
+		// homes limit is read on use:
+		if (previous != null && settings.maxHomes != previous.maxHomes) {
+			changes.add("homes");
+		}
 
-		// max teleport effect range:
-		maxUpEffectRange = config.getDouble("Upward.Effect.Maximum Range", 80.0D);
-		config.set("Upward.Effect.Maximum Range", maxUpEffectRange);
+		// player data:
+		if (previous != null) {
+			if (settings.playerDataStorageType != previous.playerDataStorageType) {
+				this.getLogger().warning("Changing the player data storage requires a restart.");
+				changes.add("player data storage (requires a restart)");
+			}
+			if (settings.playerDataSaveInterval != previous.playerDataSaveInterval) {
+				dataStore.startSaveTask(settings.playerDataSaveInterval);
+				changes.add("player data save interval");
+			}
+			if (!settings.hasSamePlayerDataCache(previous)) {
+				dataStore.setCacheLimits(settings.maxCachedOfflinePlayers, settings.cachedOfflinePlayerExpiration);
+				changes.add("player data cache");
+			}
+		}
 
-		// max teleport effect range:
-		upEffectDistance = config.getDouble("Upward.Effect.Distance between Fireworks", 2.5D);
-		config.set("Upward.Effect.Distance between Fireworks", upEffectDistance);
+		this.settings = settings;
+		return changes;
+	}
 
-		// down effect offset:
-		downEffectOffset = config.getDouble("Downward.Effect.Offset", 3.0D);
-		config.set("Downward.Effect.Offset", downEffectOffset);
+	private void registerMetricSources() {
+		MetricsRegistry registry = metrics.getRegistry();
+		effectEngine.setTickLatencyRecorder(metrics.effectTick);
+
+		// teleports:
+		registry.gauge("pending_teleports", "Players waiting for a balance lookup, transaction or chunk load", pendingTeleports::size);
+		registry.gauge("teleports_in_flight", "Started teleports which haven't finished yet", teleportLimiter::getInFlight);
+		registry.counter("teleports_allowed", "Teleport requests which passed the limits", teleportLimiter::getAllowed);
+		registry.counter("teleports_denied_player_cooldown", "Teleport requests denied due to the player cooldown", teleportLimiter::getDeniedPlayerCooldown);
+		registry.counter("teleports_denied_station_cooldown", "Teleport requests denied due to the station cooldown", teleportLimiter::getDeniedStationCooldown);
+		registry.counter("teleports_denied_in_flight", "Teleport requests denied due to too many teleports in flight", teleportLimiter::getDeniedInFlight);
+		registry.counter("teleports_denied_rate_limit", "Teleport requests denied due to the global rate limit", teleportLimiter::getDeniedRateLimit);
+		registry.gauge("confirmation_requests", "Pending confirmation requests", confirmationRequests::size);
+		registry.counter("confirmation_requests_expired", "Expired confirmation requests", confirmationRequests::getExpiredRequests);
+
+		// economy:
+		registry.counter("ledger_reservations", "Teleport costs reserved in the ledger", teleportCostLedger::getReservations);
+		registry.counter("ledger_settlements", "Successful settlements of reserved teleport costs", teleportCostLedger::getSettlements);
+		registry.counter("ledger_failed_settlements", "Failed settlements of reserved teleport costs", teleportCostLedger::getFailedSettlements);
+		registry.gauge("ledger_outstanding_players", "Players with unsettled teleport costs", teleportCostLedger::getOutstandingCount);
+
+		// player data:
+		PlayerDataCache playerDataCache = dataStore.getPlayerDataCache();
+		registry.gauge("player_data_pending_saves", "Player data waiting to be written", dataStore::getPendingSaveCount);
+		registry.gauge("player_data_cached_online", "Cached player data of online players", playerDataCache::getOnlineCount);
+		registry.gauge("player_data_cached_offline", "Cached player data of offline players", playerDataCache::getOfflineCount);
+		registry.gauge("player_data_cached_missing", "Remembered players without player data", playerDataCache::getMissingCount);
+		registry.counter("player_data_cache_offline_hits", "Lookups served by the offline player cache", playerDataCache::getOfflineHits);
+		registry.counter("player_data_cache_offline_misses", "Lookups not served by the offline player cache", playerDataCache::getOfflineMisses);
+		registry.counter("player_data_cache_missing_hits", "Lookups of players known to have no player data", playerDataCache::getMissingHits);
+		registry.counter("player_data_cache_evictions", "Cache entries dropped due to the size limit", playerDataCache::getEvictions);
+		registry.counter("player_data_cache_expirations", "Cache entries dropped due to the expiration time", playerDataCache::getExpirations);
+
+		// chunks:
+		registry.gauge("warm_chunks", "Chunks kept loaded around stations", warmChunkManager::getHeldChunkCount);
+		registry.counter("warm_chunk_home_hits", "Teleports to home stations whose chunk was kept loaded", warmChunkManager::getHomeChunkHits);
+		registry.counter("warm_chunk_home_misses", "Teleports to home stations whose chunk was not kept loaded", warmChunkManager::getHomeChunkMisses);
+		registry.counter("warm_chunk_home_evictions", "Home station chunks released due to the limit", warmChunkManager::getHomeChunkEvictions);
+		registry.counter("warm_chunk_cancelled_unloads", "Prevented unloads of kept chunks", warmChunkManager::getCancelledUnloads);
 
-		// teleport y offset:
-		teleportYOffset = config.getDouble("Downward.Teleport.Y Offset", 3.0D);
-		config.set("Downward.Teleport.Y Offset", teleportYOffset);
+		// effects:
+		registry.gauge("effect_animations", "Running effect animations", effectEngine::getAnimationCount);
+		registry.gauge("effect_estimated_tps", "Server tick rate as estimated by the effect engine", effectEngine::getEstimatedTps);
+		registry.counter("effects_played", "Played effects", effectEngine::getPlayedEffects);
+		registry.counter("effects_culled", "Effects skipped due to no nearby players", effectEngine::getCulledEffects);
+		registry.counter("effect_animations_skipped", "Animations skipped due to the animation limit", effectEngine::getSkippedAnimations);
+		registry.counter("effect_animations_degraded", "Animations started with increased spacing", effectEngine::getDegradedAnimations);
+	}
 
-		// teleport costs:
-		teleportCosts = config.getDouble("Teleport Costs", 0.0D);
-		config.set("Teleport Costs", teleportCosts);
+	// opens the teleport cost journal if the ledger is enabled, or if there are outstanding amounts to settle:
+	private void setupTeleportCostLedger(Settings settings) {
+		if (!teleportCostLedger.isOpen() && (settings.teleportCostLedger || new File(DataStore.teleportCostJournalFilePath).exists())) {
+			try {
+				teleportCostLedger.open();
+			} catch (IOException e) {
+				this.getLogger().severe("Unable to open the teleport cost journal: " + e.getMessage());
+				this.getLogger().severe("Teleport costs are withdrawn directly instead.");
+			}
+		}
+		teleportCostLedger.start(settings.teleportCostLedger, settings.ledgerSettlementIntervalTicks);
 	}
 
 	@Override
 	public void onDisable() {
+		// write the final metrics:
+		metrics.stopHttpServer();
+		metrics.stopDumpTask();
+		if (settings != null && settings.metricsDumpInterval > 0L) {
+			metrics.dump(new File(DataStore.metricsFilePath), this.getLogger());
+		}
+
 		// reset confirmation requests:
-		confirmationRequests.clear();
+		confirmationRequests.stop();
+		pendingTeleports.clear();
 
-		// economy controller:
-		economyController.disable();
+		// reset cached station states:
+		stationListener.onDisable();
+		stationIndex.invalidateAll();
 
-		instance = null;
-	}
+		// stop running effects:
+		effectEngine.stop();
+		teleportLimiter.clear();
 
-	private static FireworkEffect getEffect(ConfigurationSection section) {
-		if (section == null) return null;
-		List<Color> colors = getColorList(section.getStringList("Colors"));
-		if (colors.isEmpty()) return null;
-		List<Color> fadeColors = getColorList(section.getStringList("Fade Colors"));
-		boolean flicker = section.getBoolean("Flicker", false);
-		boolean trail = section.getBoolean("Trail", false);
+		// release warm chunks:
+		warmChunkManager.disable();
 
-		Builder builder = FireworkEffect.builder().withColor(colors);
-		if (!fadeColors.isEmpty()) builder.withFade(fadeColors);
-		if (flicker) builder.withFlicker();
-		if (trail) builder.withTrail();
+		// settle or persist outstanding teleport costs:
+		teleportCostLedger.close();
 
-		return builder.build();
-	}
+		// economy controller:
+		economyController.disable();
 
-	private static void writeEffectSection(ConfigurationSection section, FireworkEffect effect) {
-		if (section == null || effect == null) return;
-		section.set("Colors", getStringList(effect.getColors()));
-		section.set("Fade Colors", getStringList(effect.getFadeColors()));
-		section.set("Flicker", effect.hasFlicker());
-		section.set("Trail", effect.hasTrail());
-	}
+		// write pending player data:
+		if (dataStore != null) {
+			dataStore.shutdown();
+		}
 
-	private static List<Color> getColorList(List<String> stringList) {
-		List<Color> colors = new ArrayList<>();
-		if (stringList != null) {
-			for (String string : stringList) {
-				if (string == null) continue;
-				String[] split = string.split(";");
-				if (split.length != 3) continue;
-				Integer red = Utils.parseInteger(split[0]);
-				Integer green = Utils.parseInteger(split[1]);
-				Integer blue = Utils.parseInteger(split[2]);
+		// drop world references:
+		WorldRegistry.clearWorlds();
 
-				if (red == null || blue == null || green == null) continue;
+		instance = null;
+	}
 
-				Color color = Color.fromRGB(getColorInt(red), getColorInt(green), getColorInt(blue));
-				colors.add(color);
+	@Override
+	public boolean onCommand(CommandSender sender, Command cmd, String label, String[] args) {
+		if (args.length == 1 && args[0].equalsIgnoreCase("reload")) {
+			if (!sender.hasPermission(PERMISSION_ADMIN)) {
+				dataStore.sendMessage(sender, Message.NoPermission);
+				return true;
 			}
+			this.reload(sender);
+			return true;
 		}
-		return colors;
-	}
 
-	private static int getColorInt(int colorInt) {
-		return Math.max(0, Math.min(255, colorInt));
-	}
-
-	private static List<String> getStringList(List<Color> colorList) {
-		List<String> strings = new ArrayList<>();
-		if (colorList != null) {
-			for (Color color : colorList) {
-				if (color == null) continue;
-				String string = color.getRed() + ";" + color.getGreen() + ";" + color.getBlue();
-				strings.add(string);
+		if (args.length == 1 && args[0].equalsIgnoreCase("stats")) {
+			if (!sender.hasPermission(PERMISSION_ADMIN)) {
+				dataStore.sendMessage(sender, Message.NoPermission);
+				return true;
+			}
+			for (String line : metrics.getStatsLines()) {
+				sender.sendMessage(line);
 			}
+			return true;
 		}
-		return strings;
-	}
 
-	@Override
-	public boolean onCommand(CommandSender sender, Command cmd, String label, String[] args) {
 		if (!(sender instanceof Player)) {
 			sender.sendMessage("This command can only be run as player.");
 			return true;
 		}
 
 		Player player = (Player) sender;
+		if (this.handleHomeCommand(player, args)) return true;
+
 		if (!player.hasPermission(PERMISSION_ADMIN)) {
-			Utils.sendMessage(player, dataStore.getMessage(Message.NoPermission));
+			dataStore.sendMessage(player, Message.NoPermission);
 			return true;
 		}
 
@@ -284,37 +385,39 @@ public class HomeStations extends JavaPlugin implements Listener {
 			Location location = player.getLocation();
 			if (args[0].equalsIgnoreCase("setMainSpawn")) {
 				if (!this.isLowerStationButton(location.getBlock())) {
-					Utils.sendMessage(player, dataStore.getMessage(Message.ThisIsNoStation));
+					dataStore.sendMessage(player, Message.ThisIsNoStation);
 					return true;
 				}
 				mainSpawnStation = new SoftBlockLocation(location);
 				// just in cases this wasn't already a spawn station before; set will make sure that it is only kept
 				// once:
 				spawnStations.add(mainSpawnStation);
+				this.updateSpawnStations();
 
 				// cleanup affected confirmation requests:
 				this.removeAffectedConfirmationRequests(mainSpawnStation);
 
 				// message:
-				Utils.sendMessage(player, dataStore.getMessage(Message.MainSpawnStationSet));
+				dataStore.sendMessage(player, Message.MainSpawnStationSet);
 
 				// save:
 				this.saveSpawnStations();
 				return true;
 			} else if (args[0].equalsIgnoreCase("addSpawn")) {
 				if (!this.isLowerStationButton(location.getBlock())) {
-					Utils.sendMessage(player, dataStore.getMessage(Message.ThisIsNoStation));
+					dataStore.sendMessage(player, Message.ThisIsNoStation);
 					return true;
 				}
 				SoftBlockLocation spawnStationLocation = new SoftBlockLocation(location);
 				// set will make sure that it is only kept once:
 				spawnStations.add(spawnStationLocation);
+				this.updateSpawnStations();
 
 				// cleanup affected confirmation requests:
 				this.removeAffectedConfirmationRequests(spawnStationLocation);
 
 				// message:
-				Utils.sendMessage(player, dataStore.getMessage(Message.SpawnStationAdded));
+				dataStore.sendMessage(player, Message.SpawnStationAdded);
 
 				// save:
 				this.saveSpawnStations();
@@ -333,45 +436,55 @@ public class HomeStations extends JavaPlugin implements Listener {
 	}
 
 	// checks for the location above the emerald block, the lower button. Returns the stations direction, or null if not
-	// a valid station:
+	// a valid station. Uses the cached validation result if available:
 	public BlockFace getStationFaceForLowerStationButton(Block buttonB) {
 		if (buttonB == null) return null;
-		if (buttonB.getType() != Material.STONE_BUTTON) {
-			return null;
-		}
-		Block emerald = buttonB.getRelative(BlockFace.DOWN);
-		if (emerald.getType() != Material.EMERALD_BLOCK) {
-			return null;
-		}
-		Block buttonT = buttonB.getRelative(BlockFace.UP);
-		if (buttonT.getType() != Material.STONE_BUTTON) {
-			return null;
-		}
-		Button buttonBA = (Button) buttonB.getState().getData();
+		return stationIndex.getStationFace(buttonB);
+	}
 
-		BlockFace stationDirection = buttonBA.getAttachedFace();
+	// checks for the upper station button. Returns the stations direction, or null if not a valid station:
+	public BlockFace getStationFaceHigherStationButton(Block buttonT) {
+		if (buttonT == null) return null;
+		return stationIndex.getStationFace(buttonT.getWorld(), buttonT.getX(), buttonT.getY() - 1, buttonT.getZ());
+	}
 
-		Block lapisB = buttonB.getRelative(stationDirection);
-		if (lapisB.getType() != Material.LAPIS_BLOCK) {
-			return null;
-		}
-		Button buttonTA = (Button) buttonT.getState().getData();
-		Block lapisT = buttonT.getRelative(buttonTA.getAttachedFace());
-		if (lapisT.getType() != Material.LAPIS_BLOCK || !lapisT.equals(lapisB.getRelative(BlockFace.UP))) {
-			return null;
+	// called for known stations which got destroyed by block changes:
+	void onStationsDestroyed(List<SoftBlockLocation> destroyedStations, List<Player> breakers) {
+		boolean spawnStationsChanged = false;
+		boolean spawnStationDestroyed = false;
+		for (SoftBlockLocation destroyedStation : destroyedStations) {
+			// cleanup affected confirmation requests:
+			this.removeAffectedConfirmationRequests(destroyedStation);
+
+			if (spawnStations.remove(destroyedStation)) {
+				spawnStationsChanged = true;
+				spawnStationDestroyed = true;
+				this.getLogger().info("Spawn station at (" + destroyedStation.toString() + ") got destroyed. Removing it now.");
+				if (destroyedStation.equals(mainSpawnStation)) {
+					this.getLogger().warning("The main spawn station got destroyed!");
+					mainSpawnStation = null;
+				}
+			}
 		}
-		Block redstone = lapisT.getRelative(BlockFace.UP);
-		if (redstone.getType() != Material.REDSTONE_BLOCK) {
-			return null;
+
+		// feedback:
+		Message message = spawnStationDestroyed ? Message.SpawnStationDestroyed : Message.StationDestroyed;
+		for (Player breaker : breakers) {
+			if (breaker.isOnline()) {
+				dataStore.sendMessage(breaker, message);
+			}
 		}
 
-		return stationDirection;
+		if (spawnStationsChanged) {
+			this.updateSpawnStations();
+			this.saveSpawnStations();
+		}
 	}
 
-	// checks for the upper station button. Returns the stations direction, or null if not a valid station:
-	public BlockFace getStationFaceHigherStationButton(Block buttonT) {
-		if (buttonT == null) return null;
-		return this.getStationFaceForLowerStationButton(buttonT.getRelative(BlockFace.DOWN));
+	// updates the spawn stations of the station index and the warm chunks:
+	private void updateSpawnStations() {
+		stationIndex.setSpawnStations(spawnStations);
+		warmChunkManager.setSpawnStations(spawnStations);
 	}
 
 	public void saveSpawnStations() {
@@ -384,6 +497,235 @@ public class HomeStations extends JavaPlugin implements Listener {
 		}
 	}
 
+	// removes the given spawn stations if they are invalid, and the main spawn station if requested and invalid,
+	// returns true if any station got removed:
+	private boolean validateSpawnStations(Collection<SoftBlockLocation> stations, boolean validateMainSpawnStation) {
+		boolean removed = false;
+		for (SoftBlockLocation softLocation : stations) {
+			Location location = softLocation.getBukkitLocation();
+			if (location == null || !this.isLowerStationButton(location.getBlock())) {
+				this.getLogger().warning("Invalid spawn station found (" + softLocation.toString() + "). Removing it now.");
+				spawnStations.remove(softLocation);
+				removed = true;
+			}
+		}
+
+		// validate main spawn station:
+		if (validateMainSpawnStation && mainSpawnStation != null) {
+			Location mainLocation = mainSpawnStation.getBukkitLocation();
+			if (mainLocation == null || !this.isLowerStationButton(mainLocation.getBlock())) {
+				this.getLogger().warning("Invalid main spawn station (" + mainSpawnStation.toString() + "). Removing it now.");
+				mainSpawnStation = null;
+				removed = true;
+			}
+		}
+		if (mainSpawnStation != null && !spawnStations.contains(mainSpawnStation)) {
+			// add to spawn stations list:
+			spawnStations.add(mainSpawnStation);
+		}
+		return removed;
+	}
+
+	// RELOAD
+
+	// reloads config.yml, messages.yml and homes.yml: the files are read asynchronously, and only the changes get applied
+	// on the main thread afterwards. The cached player data is kept.
+	private void reload(CommandSender sender) {
+		if (reloading) {
+			dataStore.sendMessage(sender, Message.ReloadFailed, "error", "A reload is already in progress.");
+			return;
+		}
+		reloading = true;
+
+		File configFile = new File(this.getDataFolder(), "config.yml");
+		Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+			Settings newSettings;
+			Map<Message, MessageTemplate> newMessages;
+			YamlConfiguration newHomesConfig;
+			Set<SoftBlockLocation> newSpawnStations;
+			SoftBlockLocation newMainSpawnStation;
+			try {
+				// config:
+				YamlConfiguration config = DataStore.loadConfiguration(configFile);
+				newSettings = Settings.load(config, this.getLogger());
+				config.save(configFile);
+
+				// messages:
+				newMessages = dataStore.loadMessages(DataStore.loadConfiguration(new File(DataStore.messagesFilePath)));
+
+				// stations:
+				newHomesConfig = DataStore.loadConfiguration(new File(DataStore.homesFilePath));
+				newSpawnStations = new HashSet<>(SoftBlockLocation.getFromStringList(newHomesConfig.getStringList("Homes.Spawn Stations")));
+				newMainSpawnStation = SoftBlockLocation.getFromString(newHomesConfig.getString("Homes.Main Spawn Station"));
+			} catch (IOException | InvalidConfigurationException e) {
+				String error = e.getMessage();
+				this.getLogger().warning("Unable to reload the configuration: " + error);
+				Bukkit.getScheduler().runTask(this, () -> {
+					reloading = false;
+					this.sendReloadFeedback(sender, Message.ReloadFailed, "error", error);
+				});
+				return;
+			}
+
+			Bukkit.getScheduler().runTask(this, () -> {
+				reloading = false;
+				List<String> changes = this.applySettings(newSettings, settings);
+
+				int changedMessages = dataStore.setMessages(newMessages);
+				if (changedMessages > 0) {
+					changes.add(changedMessages + " messages");
+				}
+
+				this.applySpawnStations(newHomesConfig, newSpawnStations, newMainSpawnStation, changes);
+
+				String changesText = changes.isEmpty() ? "nothing changed" : String.join(", ", changes);
+				this.getLogger().info("Reloaded the configuration: " + changesText);
+				this.sendReloadFeedback(sender, Message.Reloaded, "changes", changesText);
+			});
+		});
+	}
+
+	private void sendReloadFeedback(CommandSender sender, Message message, String... placeholders) {
+		// the player might have left in the meantime:
+		if (sender instanceof Player && !((Player) sender).isOnline()) return;
+		dataStore.sendMessage(sender, message, placeholders);
+	}
+
+	// replaces the spawn stations with the reloaded ones, only validating added stations:
+	private void applySpawnStations(YamlConfiguration newHomesConfig, Set<SoftBlockLocation> newSpawnStations,
+			SoftBlockLocation newMainSpawnStation, List<String> changes) {
+		homesConfig = newHomesConfig;
+
+		List<SoftBlockLocation> added = new ArrayList<>();
+		for (SoftBlockLocation spawnStation : newSpawnStations) {
+			if (!spawnStations.contains(spawnStation)) {
+				added.add(spawnStation);
+			}
+		}
+		List<SoftBlockLocation> removed = new ArrayList<>();
+		for (SoftBlockLocation spawnStation : spawnStations) {
+			if (!newSpawnStations.contains(spawnStation)) {
+				removed.add(spawnStation);
+			}
+		}
+		boolean mainSpawnStationChanged = (mainSpawnStation == null) ? newMainSpawnStation != null : !mainSpawnStation.equals(newMainSpawnStation);
+
+		spawnStations = newSpawnStations;
+		mainSpawnStation = newMainSpawnStation;
+		boolean invalidRemoved = this.validateSpawnStations(added, mainSpawnStationChanged);
+
+		// cleanup affected confirmation requests:
+		for (SoftBlockLocation spawnStation : added) {
+			this.removeAffectedConfirmationRequests(spawnStation);
+		}
+		for (SoftBlockLocation spawnStation : removed) {
+			this.removeAffectedConfirmationRequests(spawnStation);
+		}
+
+		this.updateSpawnStations();
+		if (!added.isEmpty() || !removed.isEmpty()) {
+			changes.add("spawn stations (+" + added.size() + "/-" + removed.size() + ")");
+		}
+		if (mainSpawnStationChanged) {
+			changes.add("main spawn station");
+		}
+
+		if (invalidRemoved) {
+			this.saveSpawnStations();
+		}
+	}
+
+	// keeps the cached world references of the world registry up-to-date:
+	@EventHandler(priority = EventPriority.LOWEST)
+	void onWorldLoad(WorldLoadEvent event) {
+		WorldRegistry.onWorldLoad(event.getWorld());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	void onWorldUnload(WorldUnloadEvent event) {
+		WorldRegistry.onWorldUnload(event.getWorld());
+	}
+
+	// handles the commands for managing the own home stations, returns false if the command is no such command:
+	private boolean handleHomeCommand(Player player, String[] args) {
+		if (args.length == 0) return false;
+		String subCommand = args[0];
+		boolean list = (args.length == 1 && subCommand.equalsIgnoreCase("homes"));
+		boolean select = (args.length == 2 && subCommand.equalsIgnoreCase("select"));
+		boolean rename = (args.length == 3 && subCommand.equalsIgnoreCase("rename"));
+		boolean remove = (args.length == 2 && subCommand.equalsIgnoreCase("delhome"));
+		if (!list && !select && !rename && !remove) return false;
+
+		if (!player.hasPermission(PERMISSION_USE)) {
+			dataStore.sendMessage(player, Message.NoPermission);
+			return true;
+		}
+
+		UUID playerId = player.getUniqueId();
+		PlayerData playerData = dataStore.getPlayerData(player);
+		if (list) {
+			int homeCount = playerData.getHomeCount();
+			if (homeCount == 0) {
+				dataStore.sendMessage(player, Message.NoHomeStationSet);
+				return true;
+			}
+			dataStore.sendMessage(player, Message.HomeListHeader, "count", String.valueOf(homeCount), "max", String.valueOf(settings.maxHomes));
+			for (int index = 0; index < homeCount; index++) {
+				Message entryMessage = (index == playerData.getSelectedHome()) ? Message.HomeListEntrySelected : Message.HomeListEntry;
+				dataStore.sendMessage(player, entryMessage, "name", playerData.getHomeName(index), "location", playerData.getHomeLocation(index).toString());
+			}
+			return true;
+		}
+
+		int index = playerData.findHome(args[1]);
+		if (index < 0) {
+			dataStore.sendMessage(player, Message.UnknownHome, "name", args[1]);
+			return true;
+		}
+		String name = playerData.getHomeName(index);
+
+		// the updates look the home up again, in case the player data changed in the meantime:
+		if (select) {
+			dataStore.updatePlayerData(playerId, data -> {
+				int homeIndex = data.findHome(name);
+				return (homeIndex < 0) ? data : data.withSelectedHome(homeIndex);
+			});
+			dataStore.sendMessage(player, Message.HomeSelected, "name", name);
+		} else if (rename) {
+			String newName = args[2];
+			if (!PlayerData.isValidHomeName(newName)) {
+				dataStore.sendMessage(player, Message.InvalidHomeName, "name", newName);
+				return true;
+			}
+			int existingIndex = playerData.findHome(newName);
+			if (existingIndex >= 0 && existingIndex != index) {
+				dataStore.sendMessage(player, Message.HomeNameTaken, "name", playerData.getHomeName(existingIndex));
+				return true;
+			}
+			dataStore.updatePlayerData(playerId, data -> {
+				int homeIndex = data.findHome(name);
+				int otherIndex = data.findHome(newName);
+				if (homeIndex < 0 || (otherIndex >= 0 && otherIndex != homeIndex)) return data;
+				return data.withRenamedHome(homeIndex, newName);
+			});
+			dataStore.sendMessage(player, Message.HomeRenamed, "name", name, "newName", newName);
+		} else {
+			dataStore.updatePlayerData(playerId, data -> {
+				int homeIndex = data.findHome(name);
+				return (homeIndex < 0) ? data : data.withoutHome(homeIndex);
+			});
+			dataStore.sendMessage(player, Message.HomeRemoved, "name", name);
+		}
+		return true;
+	}
+
+	// when a player is about to join the server, load his player data in advance (asynchronously)...
+	@EventHandler(priority = EventPriority.MONITOR)
+	void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+		if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+		dataStore.preloadPlayerData(event.getUniqueId(), event.getName());
+	}
+
 	// when a player successfully joins the server...
 	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
 	void onPlayerJoin(PlayerJoinEvent event) {
@@ -397,9 +739,12 @@ public class HomeStations extends JavaPlugin implements Listener {
 		Player player = event.getPlayer();
 		UUID playerId = player.getUniqueId();
 
-		// drop player data from memory
+		// move player data into the offline cache:
 		dataStore.clearCachedPlayerData(playerId);
 		confirmationRequests.remove(playerId);
+
+		// settle his outstanding teleport costs:
+		teleportCostLedger.settle(playerId);
 	}
 
 	// when a player presses a button...
@@ -407,217 +752,374 @@ public class HomeStations extends JavaPlugin implements Listener {
 	void onPlayerInteract(PlayerInteractEvent event) {
 		if (event.getAction() == Action.RIGHT_CLICK_BLOCK) {
 			Block clicked = event.getClickedBlock();
-			if (clicked.getType() != Material.STONE_BUTTON) return;
+			if (!Utils.isButton(clicked.getType())) return;
+
+			long startNanos = System.nanoTime();
+			try {
+				this.onButtonClick(event.getPlayer(), clicked);
+			} finally {
+				metrics.interact.recordSince(startNanos);
+			}
+		}
+	}
 
-			Player player = event.getPlayer();
+	// handles a click on a button, which might belong to a station:
+	private void onButtonClick(Player player, Block clicked) {
+		if (player.isInsideVehicle()) return;
+
+		World world = clicked.getWorld();
+		int x = clicked.getX();
+		int y = clicked.getY();
+		int z = clicked.getZ();
+		if (stationIndex.getStationFace(world, x, y - 1, z) != null) { // higher station button
+			if (!player.hasPermission(PERMISSION_USE)) {
+				dataStore.sendMessage(player, Message.NoPermission);
+				return;
+			}
+			// sneaking at a spawn station cycles through the home stations instead of teleporting:
+			if (player.isSneaking() && stationIndex.isSpawnStation(world, x, y - 1, z)) {
+				this.selectNextHome(player);
+				return;
+			}
+			SoftBlockLocation currentStationLocation = new SoftBlockLocation(world, x, y - 1, z);
 
-			if (player.isInsideVehicle()) return;
+			// limit teleport requests, the limits are only applied once the teleport is certain to happen:
+			if (!this.checkTeleportLimits(player, currentStationLocation)) return;
 
-			if (this.isHigherStationButton(clicked)) {
-				if (!player.hasPermission(PERMISSION_USE)) {
-					Utils.sendMessage(player, dataStore.getMessage(Message.NoPermission));
+			// is spawn station?
+			if (stationIndex.isSpawnStation(world, x, y - 1, z)) {
+				// teleport to home:
+				PlayerData playerData = dataStore.getPlayerData(player);
+				SoftBlockLocation homeLoc = playerData.getHomeLocation();
+				if (homeLoc == null) {
+					dataStore.sendMessage(player, Message.NoHomeStationSet);
 					return;
 				}
-				SoftBlockLocation currentStationLocation = new SoftBlockLocation(clicked.getLocation().subtract(0, 1, 0));
-
-				// is spawn station?
-				if (spawnStations.contains(currentStationLocation)) {
-					// teleport to home:
-					PlayerData playerData = dataStore.getPlayerData(player);
-					SoftBlockLocation homeLoc = playerData.homeLocation;
-					if (homeLoc == null) {
-						Utils.sendMessage(player, dataStore.getMessage(Message.NoHomeStationSet));
-						return;
-					}
-					Location location = homeLoc.getBukkitLocation();
-					BlockFace stationFacing = location != null ? this.getStationFaceForLowerStationButton(location.getBlock()) : null;
-
-					if (stationFacing == null) {
-						Utils.sendMessage(player, dataStore.getMessage(Message.HomeStationNotFound));
-						return;
-					}
-
-					// handle teleport costs:
-					if (!this.handleTeleportCost(player, currentStationLocation)) {
-						// failure
-						return;
-					}
-
-					// teleport:
-					Utils.sendMessage(player, dataStore.getMessage(Message.TeleportToHome));
-					this.teleport(player, player.getLocation(), location, stationFacing);
-				} else {
-					// teleport to spawn station:
-					PlayerData playerData = dataStore.getPlayerData(player);
-					SoftBlockLocation spawnLoc = playerData.spawnLocation;
+				this.teleportToStation(player, currentStationLocation, homeLoc, Message.HomeStationNotFound, Message.TeleportToHome);
+			} else {
+				// teleport to spawn station:
+				PlayerData playerData = dataStore.getPlayerData(player);
+				SoftBlockLocation spawnLoc = playerData.getSpawnLocation();
+				if (spawnLoc == null) {
+					dataStore.sendMessage(player, Message.NoSpawnStationSet);
+					spawnLoc = mainSpawnStation;
+					// only print this message once, then automatically set the players spawn station:
+					dataStore.setCachedPlayerData(player.getUniqueId(), playerData.withSpawnLocation(spawnLoc));
 					if (spawnLoc == null) {
-						Utils.sendMessage(player, dataStore.getMessage(Message.NoSpawnStationSet));
-						spawnLoc = mainSpawnStation;
-						// only print this message once, then automatically set the players spawn station:
-						playerData.spawnLocation = mainSpawnStation;
-						if (spawnLoc == null) {
-							Utils.sendMessage(player, dataStore.getMessage(Message.NoMainSpawnStationSet));
-							return;
-						}
-					}
-					Location location = spawnLoc.getBukkitLocation();
-					BlockFace stationFacing = location != null ? this.getStationFaceForLowerStationButton(location.getBlock()) : null;
-
-					if (stationFacing == null) {
-						Utils.sendMessage(player, dataStore.getMessage(Message.SpawnStationNotFound));
+						dataStore.sendMessage(player, Message.NoMainSpawnStationSet);
 						return;
 					}
+				}
+				this.teleportToStation(player, currentStationLocation, spawnLoc, Message.SpawnStationNotFound, Message.TeleportToSpawn);
+			}
+		} else if (stationIndex.getStationFace(world, x, y, z) != null) { // lower station button
+			if (!player.hasPermission(PERMISSION_USE)) {
+				dataStore.sendMessage(player, Message.NoPermission);
+				return;
+			}
+			SoftBlockLocation currentStationLocation = new SoftBlockLocation(world, x, y, z);
+			// get and remove last confirmation request:
+			UUID playerId = player.getUniqueId();
+			ConfirmationRequest confirmation = confirmationRequests.remove(playerId);
+
+			// is spawn station?
+			if (stationIndex.isSpawnStation(world, x, y, z)) {
+				// no confirmation required if message is empty:
+				MessageTemplate confirmationMessage = dataStore.getMessageTemplate(Message.SpawnStationSetConfirm);
+				if (!confirmationMessage.isEmpty() && (confirmation == null || !confirmation.matches(ConfirmationRequest.Type.SetStation, currentStationLocation))) {
+					// request new confirmation:
+					confirmationRequests.put(playerId, new ConfirmationRequest(ConfirmationRequest.Type.SetStation, currentStationLocation));
+					confirmationMessage.send(player);
+					return;
+				}
 
-					// handle teleport costs:
-					if (!this.handleTeleportCost(player, currentStationLocation)) {
-						// failure
+				// set spawn station:
+				dataStore.updatePlayerData(playerId, playerData -> playerData.withSpawnLocation(currentStationLocation));
+				dataStore.sendMessage(player, Message.SpawnStationSet);
+			} else { // home station:
+				// selecting another one of the player's home stations requires no confirmation:
+				PlayerData currentPlayerData = dataStore.getPlayerData(player);
+				if (currentPlayerData.getHomeCount() > 1) {
+					int homeIndex = currentPlayerData.findHome(currentStationLocation);
+					if (homeIndex >= 0) {
+						dataStore.updatePlayerData(playerId, playerData -> {
+							int index = playerData.findHome(currentStationLocation);
+							return (index < 0) ? playerData : playerData.withSelectedHome(index);
+						});
+						dataStore.sendMessage(player, Message.HomeSelected, "name", currentPlayerData.getHomeName(homeIndex));
 						return;
 					}
-
-					// teleport:
-					Utils.sendMessage(player, dataStore.getMessage(Message.TeleportToSpawn));
-					this.teleport(player, player.getLocation(), location, stationFacing);
 				}
-			} else if (this.isLowerStationButton(clicked)) {
-				if (!player.hasPermission(PERMISSION_USE)) {
-					Utils.sendMessage(player, dataStore.getMessage(Message.NoPermission));
+
+				// no confirmation required if message is empty:
+				MessageTemplate confirmationMessage = dataStore.getMessageTemplate(Message.HomeStationSetConfirm);
+				if (!confirmationMessage.isEmpty() && (confirmation == null || !confirmation.matches(ConfirmationRequest.Type.SetStation, currentStationLocation))) {
+					// request new confirmation:
+					confirmationRequests.put(playerId, new ConfirmationRequest(ConfirmationRequest.Type.SetStation, currentStationLocation));
+					confirmationMessage.send(player);
 					return;
 				}
-				SoftBlockLocation currentStationLocation = new SoftBlockLocation(clicked.getLocation());
-				PlayerData playerData = dataStore.getPlayerData(player);
-				// get and remove last confirmation request:
-				UUID playerId = player.getUniqueId();
-				ConfirmationRequest confirmation = confirmationRequests.remove(playerId);
-
-				// is spawn station?
-				if (spawnStations.contains(currentStationLocation)) {
-					// no confirmation required if message is empty:
-					String confirmationMessage = dataStore.getMessage(Message.SpawnStationSetConfirm);
-					if (!confirmationMessage.isEmpty() && (confirmation == null || !confirmation.applies(ConfirmationRequest.Type.SetStation, currentStationLocation))) {
-						// request new confirmation:
-						confirmationRequests.put(playerId, new ConfirmationRequest(ConfirmationRequest.Type.SetStation, currentStationLocation));
-						Utils.sendMessage(player, confirmationMessage);
-						return;
-					}
 
-					// set spawn station:
-					playerData.spawnLocation = currentStationLocation;
-					Utils.sendMessage(player, dataStore.getMessage(Message.SpawnStationSet));
-				} else { // home station:
-					// no confirmation required if message is empty:
-					String confirmationMessage = dataStore.getMessage(Message.HomeStationSetConfirm);
-					if (!confirmationMessage.isEmpty() && (confirmation == null || !confirmation.applies(ConfirmationRequest.Type.SetStation, currentStationLocation))) {
-						// request new confirmation:
-						confirmationRequests.put(playerId, new ConfirmationRequest(ConfirmationRequest.Type.SetStation, currentStationLocation));
-						Utils.sendMessage(player, confirmationMessage);
-						return;
+				// set home station: adds a new home station while below the limit, otherwise moves the selected one
+				int maxHomes = settings.maxHomes;
+				PlayerData updatedPlayerData = dataStore.updatePlayerData(playerId, playerData -> {
+					int index = playerData.findHome(currentStationLocation);
+					if (index >= 0) return playerData.withSelectedHome(index);
+					if (playerData.getHomeCount() < maxHomes) {
+						return playerData.withHome(playerData.getUnusedHomeName(), currentStationLocation);
 					}
+					return playerData.withHomeLocation(currentStationLocation);
+				});
+				dataStore.sendMessage(player, Message.HomeStationSet, "name", updatedPlayerData.getHomeName(updatedPlayerData.getSelectedHome()));
+			}
+		}
+	}
 
-					// set home station:
-					playerData.homeLocation = currentStationLocation;
-					Utils.sendMessage(player, dataStore.getMessage(Message.HomeStationSet));
-				}
+	// selects the player's next home station, starting over after the last one:
+	private void selectNextHome(Player player) {
+		PlayerData playerData = dataStore.getPlayerData(player);
+		if (playerData.getHomeCount() > 1) {
+			playerData = dataStore.updatePlayerData(player.getUniqueId(), data -> {
+				int homeCount = data.getHomeCount();
+				return (homeCount == 0) ? data : data.withSelectedHome((data.getSelectedHome() + 1) % homeCount);
+			});
+		}
+		if (playerData.getHomeCount() == 0) {
+			dataStore.sendMessage(player, Message.NoHomeStationSet);
+			return;
+		}
+		dataStore.sendMessage(player, Message.HomeSelected, "name", playerData.getHomeName(playerData.getSelectedHome()));
+	}
+
+	// validates the destination station, loading its chunk asynchronously if required, and then starts the teleport:
+	private void teleportToStation(Player player, SoftBlockLocation currentStationLocation, SoftBlockLocation destination,
+			Message stationNotFoundMessage, Message teleportMessage) {
+		UUID playerId = player.getUniqueId();
+		if (pendingTeleports.contains(playerId)) {
+			// still waiting for the destination of a previous click:
+			return;
+		}
 
-				dataStore.savePlayerData(player.getUniqueId(), playerData);
+		Location location = destination.getBukkitLocation();
+		if (location == null) {
+			dataStore.sendMessage(player, stationNotFoundMessage);
+			return;
+		}
+		World world = location.getWorld();
+		int x = destination.getX();
+		int y = destination.getY();
+		int z = destination.getZ();
+		int chunkX = x >> 4;
+		int chunkZ = z >> 4;
+
+		boolean chunkLoaded = world.isChunkLoaded(chunkX, chunkZ);
+		if (chunkLoaded || stationIndex.isStationStateCached(world, x, y, z)) {
+			BlockFace stationFacing = chunkLoaded ? this.revalidateDestination(world, destination) : stationIndex.getStationFace(world, x, y, z);
+			if (stationFacing != null) {
+				// load the destination chunk during the launch delay:
+				chunkLoader.loadChunk(world, chunkX, chunkZ, null);
 			}
+			this.teleportToStation(player, currentStationLocation, destination, location, stationFacing, stationNotFoundMessage, teleportMessage);
+		} else {
+			// validate the destination station once its chunk is loaded:
+			pendingTeleports.add(playerId);
+			chunkLoader.loadChunk(world, chunkX, chunkZ, () -> {
+				pendingTeleports.remove(playerId);
+				if (!player.isOnline() || !isNearStation(player, currentStationLocation)) return;
+				BlockFace stationFacing = this.revalidateDestination(world, destination);
+				this.teleportToStation(player, currentStationLocation, destination, location, stationFacing, stationNotFoundMessage, teleportMessage);
+			});
 		}
 	}
 
-	private boolean handleTeleportCost(Player player, SoftBlockLocation currentStationLocation) {
-		// handle teleport costs:
-		if (teleportCosts != 0.0D && economyController.hasEconomy()) {
-			UUID playerId = player.getUniqueId();
+	// validates the destination station inside a loaded chunk again, since not all block changes trigger events and cached
+	// validation results might therefore be outdated. Spawn stations which turn out to be invalid get removed:
+	private BlockFace revalidateDestination(World world, SoftBlockLocation destination) {
+		int x = destination.getX();
+		int y = destination.getY();
+		int z = destination.getZ();
+		BlockFace stationFacing = stationIndex.revalidateStationFace(world, x, y, z);
+		if (stationFacing == null && stationIndex.isSpawnStation(world, x, y, z)) {
+			this.onStationsDestroyed(Collections.singletonList(destination), Collections.emptyList());
+		}
+		return stationFacing;
+	}
 
-			// get and remove last confirmation request:
-			ConfirmationRequest confirmation = confirmationRequests.remove(playerId);
+	private void teleportToStation(Player player, SoftBlockLocation currentStationLocation, SoftBlockLocation destination, Location location,
+			BlockFace stationFacing, Message stationNotFoundMessage, Message teleportMessage) {
+		if (stationFacing == null) {
+			dataStore.sendMessage(player, stationNotFoundMessage);
+			return;
+		}
 
-			// check balance:
-			double balance = economyController.getBalance(player);
-			if (teleportCosts > 0.0D && balance < teleportCosts) {
-				// not enough money:
-				Utils.sendMessage(player, dataStore.getMessage(Message.NotEnoughMoney,
-						"costs", economyController.formatBalance(Math.abs(teleportCosts)),
-						"balance", economyController.formatBalance(balance)));
-				return false;
-			}
-
-			// no confirmation required if message is empty:
-			String confirmationMessage = dataStore.getMessage(Message.TeleportCostsConfirm,
-					"costs", economyController.formatBalance(Math.abs(teleportCosts)),
-					"balance", economyController.formatBalance(balance));
-			if (!confirmationMessage.isEmpty() && (confirmation == null || !confirmation.applies(ConfirmationRequest.Type.TeleportCost, currentStationLocation))) {
-				// request new confirmation:
-				confirmationRequests.put(playerId, new ConfirmationRequest(ConfirmationRequest.Type.TeleportCost, currentStationLocation));
-				Utils.sendMessage(player, confirmationMessage);
-				return false;
+		// handle teleport costs, then teleport:
+		this.handleTeleportCost(player, currentStationLocation, () -> {
+			if (teleportMessage == Message.TeleportToHome) {
+				metrics.teleportsToHome.increment();
 			} else {
-				// update balance:
-				String error = economyController.applyChange(player, -teleportCosts, false);
-				if (error != null) {
-					// transaction failure:
-					Utils.sendMessage(player, dataStore.getMessage(Message.TransactionFailure,
-							"error", error));
-					return false;
-				} else {
-					// transaction successful:
-					balance = economyController.getBalance(player); // new balance
-					Utils.sendMessage(player, dataStore.getMessage(Message.TeleportCostsApplied,
-							"costs", economyController.formatBalance(Math.abs(teleportCosts)),
-							"balance", economyController.formatBalance(balance)));
-				}
+				metrics.teleportsToSpawn.increment();
 			}
+			warmChunkManager.onTeleport(destination);
+			dataStore.sendMessage(player, teleportMessage);
+			this.teleport(player, player.getLocation(), location, stationFacing);
+		});
+	}
+
+	// checks the cooldowns and rate limits without applying them, and informs the player if the teleport is denied:
+	private boolean checkTeleportLimits(Player player, SoftBlockLocation currentStationLocation) {
+		return this.handleTeleportLimitResult(player, currentStationLocation, teleportLimiter.check(player.getUniqueId(), currentStationLocation));
+	}
+
+	// starts the cooldowns and takes a token right before the teleport proceeds, and informs the player if the limits
+	// got exceeded in the meantime:
+	private boolean acquireTeleportLimits(Player player, SoftBlockLocation currentStationLocation) {
+		return this.handleTeleportLimitResult(player, currentStationLocation, teleportLimiter.tryAcquire(player.getUniqueId(), currentStationLocation));
+	}
+
+	private boolean handleTeleportLimitResult(Player player, SoftBlockLocation currentStationLocation, TeleportLimiter.Result result) {
+		switch (result) {
+		case ALLOWED:
+			return true;
+		case PLAYER_COOLDOWN:
+			dataStore.sendMessage(player, Message.TeleportCooldown,
+					"remaining", toSeconds(teleportLimiter.getRemainingPlayerCooldown(player.getUniqueId())));
+			return false;
+		case STATION_COOLDOWN:
+			dataStore.sendMessage(player, Message.StationCooldown,
+					"remaining", toSeconds(teleportLimiter.getRemainingStationCooldown(currentStationLocation)));
+			return false;
+		default:
+			dataStore.sendMessage(player, Message.TeleportsBusy);
+			return false;
 		}
+	}
 
-		// proceed with teleport..
-		return true;
+	// rounds up to full seconds:
+	private static String toSeconds(long millis) {
+		return String.valueOf((millis + 999L) / 1000L);
 	}
 
-	public void playUpEffectAt(final Location location, final double end) {
-		playEffect1At(location);
-		getServer().getScheduler().runTaskLater(this, new Runnable() {
+	// checks if the player is still standing at the station he has used:
+	private static boolean isNearStation(Player player, SoftBlockLocation stationLocation) {
+		Location location = player.getLocation();
+		if (WorldRegistry.getWorldId(location.getWorld()) != stationLocation.getWorldId()) return false;
+		double dx = location.getX() - (stationLocation.getX() + 0.5D);
+		double dz = location.getZ() - (stationLocation.getZ() + 0.5D);
+		return (dx * dx + dz * dz) <= MAX_PENDING_TELEPORT_DISTANCE_SQUARED;
+	}
+
+	// handles the teleport costs, and runs the given task on the main thread if the teleport can proceed. Depending on
+	// the economy settings, balance lookups and transactions might complete asynchronously:
+	private void handleTeleportCost(Player player, SoftBlockLocation currentStationLocation, Runnable proceed) {
+		double teleportCosts = settings.teleportCosts;
+		if (teleportCosts == 0.0D || !economyController.hasEconomy()) {
+			if (!this.acquireTeleportLimits(player, currentStationLocation)) return;
+			// proceed with teleport..
+			proceed.run();
+			return;
+		}
+		UUID playerId = player.getUniqueId();
+
+		// get and remove last confirmation request:
+		ConfirmationRequest confirmation = confirmationRequests.remove(playerId);
+
+		// check balance:
+		pendingTeleports.add(playerId);
+		long balanceStartNanos = System.nanoTime();
+		economyController.getBalance(player, new BalanceCallback() {
 
 			@Override
-			public void run() {
-				playEffect2At(location.add(0.0D, upEffectDistance, 0.0D));
-				if (location.add(0.0D, upEffectDistance, 0.0D).getY() < end) {
-					getServer().getScheduler().runTaskLater(HomeStations.instance, new Runnable() {
+			public void onBalance(double economyBalance) {
+				metrics.economyBalance.recordSince(balanceStartNanos);
+				pendingTeleports.remove(playerId);
+				if (!player.isOnline()) return;
+				// teleport costs which haven't been settled yet:
+				double balance = economyBalance - teleportCostLedger.getUnsettled(playerId);
+				if (teleportCosts > 0.0D && balance < teleportCosts) {
+					// not enough money:
+					dataStore.sendMessage(player, Message.NotEnoughMoney,
+							"costs", economyController.formatBalance(Math.abs(teleportCosts)),
+							"balance", economyController.formatBalance(balance));
+					return;
+				}
 
-						@Override
-						public void run() {
-							playUpEffectAt(location, end);
-						}
-					}, 1L);
+				// no confirmation required if message is empty:
+				MessageTemplate confirmationMessage = dataStore.getMessageTemplate(Message.TeleportCostsConfirm);
+				if (!confirmationMessage.isEmpty() && (confirmation == null || !confirmation.matches(ConfirmationRequest.Type.TeleportCost, currentStationLocation))) {
+					// request new confirmation:
+					confirmationRequests.put(playerId, new ConfirmationRequest(ConfirmationRequest.Type.TeleportCost, currentStationLocation));
+					confirmationMessage.send(player,
+							"costs", economyController.formatBalance(Math.abs(teleportCosts)),
+							"balance", economyController.formatBalance(balance));
+					return;
 				}
-			}
-		}, 1L);
-	}
 
-	public void playDownEffectAt(final Location location, final double end) {
-		playEffect2At(location);
-		getServer().getScheduler().runTaskLater(this, new Runnable() {
+				// the teleport is confirmed, apply the limits before withdrawing anything:
+				if (!acquireTeleportLimits(player, currentStationLocation)) return;
 
-			@Override
-			public void run() {
-				playEffect1At(location.subtract(0, 1, 0));
-				if (location.subtract(0, 1, 0).getY() >= end) {
-					getServer().getScheduler().runTaskLater(HomeStations.instance, new Runnable() {
+				// reserve the costs, they get settled later:
+				if (teleportCostLedger.isEnabled() && teleportCostLedger.reserve(playerId, teleportCosts)) {
+					dataStore.sendMessage(player, Message.TeleportCostsApplied,
+							"costs", economyController.formatBalance(Math.abs(teleportCosts)),
+							"balance", economyController.formatBalance(balance - teleportCosts));
 
-						@Override
-						public void run() {
-							playDownEffectAt(location, end);
-						}
-					}, 1L);
+					// proceed with teleport..
+					proceed.run();
+					return;
 				}
-			}
-		}, 1L);
-	}
 
-	private void playEffect1At(Location location) {
-		Utils.playFireworkEffect(location, fe1);
-	}
+				// update balance:
+				pendingTeleports.add(playerId);
+				long transactionStartNanos = System.nanoTime();
+				economyController.applyChange(player, -teleportCosts, new TransactionCallback() {
+
+					@Override
+					public boolean onSuccess(double newBalance) {
+						metrics.economyTransaction.recordSince(transactionStartNanos);
+						pendingTeleports.remove(playerId);
+						// the player might have left in the meantime, roll back:
+						if (!player.isOnline()) {
+							teleportLimiter.release(playerId, currentStationLocation);
+							return false;
+						}
+
+						// transaction successful:
+						dataStore.sendMessage(player, Message.TeleportCostsApplied,
+								"costs", economyController.formatBalance(Math.abs(teleportCosts)),
+								"balance", economyController.formatBalance(newBalance));
+
+						// proceed with teleport..
+						proceed.run();
+						return true;
+					}
+
+					@Override
+					public void onFailure(String error) {
+						metrics.economyTransaction.recordSince(transactionStartNanos);
+						metrics.economyFailures.increment();
+						pendingTeleports.remove(playerId);
+						// no teleport, so no cooldowns either:
+						teleportLimiter.release(playerId, currentStationLocation);
+						// transaction failure:
+						if (player.isOnline()) {
+							dataStore.sendMessage(player, Message.TransactionFailure,
+									"error", error);
+						}
+					}
+				});
+			}
 
-	private void playEffect2At(Location location) {
-		Utils.playFireworkEffect(location, fe2);
+			@Override
+			public void onFailure(String error) {
+				metrics.economyBalance.recordSince(balanceStartNanos);
+				metrics.economyFailures.increment();
+				pendingTeleports.remove(playerId);
+				if (player.isOnline()) {
+					dataStore.sendMessage(player, Message.TransactionFailure,
+							"error", error);
+				}
+			}
+		});
 	}
 
 	private float faceToYaw(final BlockFace face) {
@@ -646,34 +1148,30 @@ public class HomeStations extends JavaPlugin implements Listener {
 		to.setYaw(invert(faceToYaw(stationFacing)));
 
 		// teleport with some nice effect:
-		playUpEffectAt(from, Math.min(from.getY() + maxUpEffectRange, from.getWorld().getMaxHeight()));
-		player.setVelocity(upVelocity);
+		Settings settings = this.settings;
+		effectEngine.playUpEffect(from, Math.min(from.getY() + settings.maxUpEffectRange, from.getWorld().getMaxHeight()), settings.upEffectDistance);
+		player.setVelocity(settings.upVelocity);
 		// downwards effect
 		final double endDownEffect = to.getY();
-		final Location effectLocation = to.clone().add(0, downEffectOffset, 0);
+		final Location effectLocation = to.clone().add(0, settings.downEffectOffset, 0);
 		// offset:
-		to.add(0, teleportYOffset, 0);
+		to.add(0, settings.teleportYOffset, 0);
 
 		getServer().getScheduler().runTaskLater(this, new Runnable() {
 
 			@Override
 			public void run() {
+				teleportLimiter.onTeleportEnd();
 				player.teleport(to);
 				// effect height:
-				playDownEffectAt(effectLocation, endDownEffect);
+				effectEngine.playDownEffect(effectLocation, endDownEffect);
 			}
-		}, teleportDelay);
+		}, settings.teleportDelay);
 	}
 
 	public void removeAffectedConfirmationRequests(SoftBlockLocation affectedStationLocation) {
 		assert affectedStationLocation != null;
-		Iterator<ConfirmationRequest> confirmations = confirmationRequests.values().iterator();
-		while (confirmations.hasNext()) {
-			ConfirmationRequest confirmation = confirmations.next();
-			if (affectedStationLocation.equals(confirmation.getAffectedStationLocation())) {
-				confirmations.remove();
-			}
-		}
+		confirmationRequests.removeAffected(affectedStationLocation);
 	}
 
 	public static class ConfirmationRequest {
@@ -687,7 +1185,7 @@ public class HomeStations extends JavaPlugin implements Listener {
 
 		private final Type type;
 		private final SoftBlockLocation affectedStationLocation;
-		private final long expiration;
+		private final int durationInSeconds;
 
 		public ConfirmationRequest(Type type, SoftBlockLocation affectedStationLocation) {
 			this(type, affectedStationLocation, DEFAULT_DURATION_SECONDS);
@@ -696,7 +1194,7 @@ public class HomeStations extends JavaPlugin implements Listener {
 		public ConfirmationRequest(Type type, SoftBlockLocation affectedStationLocation, int durationInSeconds) {
 			this.type = type;
 			this.affectedStationLocation = affectedStationLocation;
-			this.expiration = System.currentTimeMillis() + durationInSeconds * 1000L;
+			this.durationInSeconds = durationInSeconds;
 		}
 
 		public Type getType() {
@@ -707,20 +1205,12 @@ public class HomeStations extends JavaPlugin implements Listener {
 			return affectedStationLocation;
 		}
 
-		public boolean isExpired() {
-			// Note: Depending on changes to the local system time, the confirmation request might not expire in time,
-			// or expire instantly. However, the expiration state is not that important that changes to the system time
-			// would need to be handled.
-			return expiration < System.currentTimeMillis();
+		public int getDurationInSeconds() {
+			return durationInSeconds;
 		}
 
 		public boolean matches(Type type, SoftBlockLocation affectedStationLocation) {
 			return this.type.equals(type) && this.affectedStationLocation.equals(affectedStationLocation);
 		}
-
-		// matches and is not expired
-		public boolean applies(Type type, SoftBlockLocation affectedStationLocation) {
-			return this.matches(type, affectedStationLocation) && !this.isExpired();
-		}
 	}
 }
@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import de.blablubbabc.homestations.metrics.Counter;
+import de.blablubbabc.homestations.metrics.Gauge;
+import de.blablubbabc.homestations.metrics.LatencyRecorder;
+import de.blablubbabc.homestations.metrics.Metric;
+import de.blablubbabc.homestations.metrics.MetricsHttpServer;
+import de.blablubbabc.homestations.metrics.MetricsRegistry;
+import de.blablubbabc.homestations.metrics.PrometheusFormat;
+
+/**
+ * The metrics recorded by the plugin.
+ *
+ * <p>
+ * Latencies and events which aren't already counted by the components themselves are recorded here. The statistics
+ * of the components are registered as counters and gauges which read them when the metrics are exported. The metrics
+ * can be shown via command, are periodically written to a JSON file, and can be served via HTTP in the Prometheus text
+ * format.
+ * </p>
+ */
+class HomeStationsMetrics {
+
+	private static final double NANOS_PER_MILLISECOND = 1000000.0D;
+	private static final String NAMESPACE = "homestations";
+	// how long a HTTP request waits for the main thread to collect the metrics:
+	private static final long COLLECT_TIMEOUT_SECONDS = 5L;
+
+	private final MetricsRegistry registry = new MetricsRegistry();
+
+	final LatencyRecorder interact = registry.latency("interact",
+			"Handling of button clicks");
+	final LatencyRecorder stationDetection = registry.latency("station_detection",
+			"Validation of station structures which are not cached");
+	final LatencyRecorder economyBalance = registry.latency("economy_balance",
+			"Balance lookups, until the result is available on the main thread");
+	final LatencyRecorder economyTransaction = registry.latency("economy_transaction",
+			"Transactions, until the result is available on the main thread");
+	final LatencyRecorder playerDataLoad = registry.latency("player_data_load",
+			"Loading player data from the storage");
+	final LatencyRecorder playerDataSave = registry.latency("player_data_save",
+			"Writing player data to the storage");
+	final LatencyRecorder playerDataFlush = registry.latency("player_data_flush",
+			"Flushing the player data storage");
+	final LatencyRecorder effectTick = registry.latency("effect_tick",
+			"Advancing and rendering the running effect animations per tick");
+
+	final Counter teleportsToHome = registry.counter("teleports_home",
+			"Teleports from a spawn station to a home station");
+	final Counter teleportsToSpawn = registry.counter("teleports_spawn",
+			"Teleports from a home station to a spawn station");
+	final Counter invalidStations = registry.counter("station_validation_failures",
+			"Station structure validations which found no valid station");
+	final Counter economyFailures = registry.counter("economy_failures",
+			"Failed balance lookups and transactions");
+
+	private BukkitTask dumpTask = null;
+	private MetricsHttpServer httpServer = null;
+
+	HomeStationsMetrics() {
+	}
+
+	MetricsRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Starts writing the metrics to the given file periodically.
+	 *
+	 * @param plugin
+	 *            the plugin
+	 * @param file
+	 *            the file
+	 * @param intervalSeconds
+	 *            the interval in seconds, <code>0</code> to not write the metrics
+	 */
+	void startDumpTask(Plugin plugin, File file, long intervalSeconds) {
+		this.stopDumpTask();
+		if (intervalSeconds <= 0L) return;
+		long intervalTicks = intervalSeconds * 20L;
+		dumpTask = Bukkit.getScheduler().runTaskTimer(plugin, () -> {
+			// collected on the main thread, written asynchronously:
+			String json = registry.toJson(System.currentTimeMillis());
+			Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> writeDump(file, json, plugin.getLogger()));
+		}, intervalTicks, intervalTicks);
+	}
+
+	void stopDumpTask() {
+		if (dumpTask != null) {
+			dumpTask.cancel();
+			dumpTask = null;
+		}
+	}
+
+	/**
+	 * Writes the current metrics to the given file right away.
+	 *
+	 * @param file
+	 *            the file
+	 * @param logger
+	 *            the logger
+	 */
+	void dump(File file, Logger logger) {
+		writeDump(file, registry.toJson(System.currentTimeMillis()), logger);
+	}
+
+	// replaces the file, so that readers never observe a partially written file:
+	private static synchronized void writeDump(File file, String json, Logger logger) {
+		File tempFile = new File(file.getPath() + ".tmp");
+		try {
+			File parent = file.getAbsoluteFile().getParentFile();
+			if (parent != null) parent.mkdirs();
+			Files.write(tempFile.toPath(), (json + "\n").getBytes(StandardCharsets.UTF_8));
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			tempFile.delete();
+			logger.warning("Unable to write metrics file \"" + file.getPath() + "\": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Starts serving the metrics via HTTP.
+	 *
+	 * <p>
+	 * The metrics are collected on the main thread whenever they are requested.
+	 * </p>
+	 *
+	 * @param plugin
+	 *            the plugin
+	 * @param host
+	 *            the host name or address to bind to
+	 * @param port
+	 *            the port
+	 * @throws IOException
+	 *             if the server cannot be started
+	 */
+	void startHttpServer(Plugin plugin, String host, int port) throws IOException {
+		this.stopHttpServer();
+		MetricsHttpServer httpServer = new MetricsHttpServer(new InetSocketAddress(host, port), () -> {
+			return Bukkit.getScheduler().callSyncMethod(plugin, () -> PrometheusFormat.write(registry, NAMESPACE))
+					.get(COLLECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}, PrometheusFormat.CONTENT_TYPE, plugin.getLogger());
+		httpServer.start();
+		this.httpServer = httpServer;
+	}
+
+	void stopHttpServer() {
+		if (httpServer != null) {
+			httpServer.stop();
+			httpServer = null;
+		}
+	}
+
+	/**
+	 * Formats the current metrics for display in chat.
+	 *
+	 * @return the lines
+	 */
+	List<String> getStatsLines() {
+		List<String> lines = new ArrayList<>();
+		lines.add(ChatColor.GOLD + "HomeStations statistics:");
+		for (Metric metric : registry.getMetrics()) {
+			StringBuilder line = new StringBuilder();
+			line.append(ChatColor.GRAY).append(metric.getName()).append(": ").append(ChatColor.WHITE);
+			if (metric instanceof Counter) {
+				line.append(((Counter) metric).get());
+			} else if (metric instanceof Gauge) {
+				double value = ((Gauge) metric).get();
+				line.append(value == Math.rint(value) ? String.valueOf((long) value) : String.format("%.2f", value));
+			} else if (metric instanceof LatencyRecorder) {
+				LatencyRecorder latency = (LatencyRecorder) metric;
+				line.append(latency.getCount()).append(" samples");
+				if (latency.getCount() > 0L) {
+					line.append(", mean ").append(toMillis(latency.getMean()));
+					line.append(", p50 ").append(toMillis(latency.getPercentile(50.0D)));
+					line.append(", p99 ").append(toMillis(latency.getPercentile(99.0D)));
+					line.append(", max ").append(toMillis(latency.getMax())).append(" ms");
+				}
+			}
+			lines.add(line.toString());
+		}
+		return lines;
+	}
+
+	private static String toMillis(double nanos) {
+		return String.format("%.3f", nanos / NANOS_PER_MILLISECOND);
+	}
+}
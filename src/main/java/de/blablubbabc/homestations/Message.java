@@ -12,16 +12,32 @@ public enum Message {
 	HomeStationSet,
 	NoHomeStationSet,
 	HomeStationNotFound,
+	HomeSelected,
+	HomeListHeader,
+	HomeListEntry,
+	HomeListEntrySelected,
+	HomeRenamed,
+	HomeRemoved,
+	UnknownHome,
+	HomeNameTaken,
+	InvalidHomeName,
 	SpawnStationSetConfirm,
 	SpawnStationSet,
 	NoSpawnStationSet,
 	SpawnStationNotFound,
 	ThisIsNoStation,
+	StationDestroyed,
+	SpawnStationDestroyed,
 	TeleportToHome,
 	TeleportToSpawn,
 	NotEnoughMoney,
 	TransactionFailure,
 	TeleportCostsConfirm,
 	TeleportCostsApplied,
-	NoPermission;
+	NoPermission,
+	TeleportCooldown,
+	StationCooldown,
+	TeleportsBusy,
+	Reloaded,
+	ReloadFailed;
 }
@@ -4,13 +4,325 @@
  */
 package de.blablubbabc.homestations;
 
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
 import de.blablubbabc.homestations.utils.SoftBlockLocation;
 
-public class PlayerData {
+/**
+ * The stations set by a player.
+ *
+ * <p>
+ * A player can have several named home stations, one of which is selected: the selected home station is the
+ * destination of teleports from spawn stations.
+ * </p>
+ *
+ * <p>
+ * Player data is immutable and can therefore be shared between threads. Changes create an updated copy, which has to be
+ * passed to {@link DataStore#updatePlayerData(java.util.UUID, java.util.function.UnaryOperator)}. Copies which only
+ * select a different home station share the home arrays with the original.
+ * </p>
+ */
+public final class PlayerData {
+
+	public static final String DEFAULT_HOME_NAME = "home";
+	public static final int MAX_HOME_NAME_LENGTH = 16;
+	// limited by the storage encoding:
+	public static final int MAX_HOMES = 255;
 
-	// the home location set by this player
-	public SoftBlockLocation homeLocation = null;
+	private static final Pattern HOME_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1," + MAX_HOME_NAME_LENGTH + "}");
+	private static final String[] NO_HOME_NAMES = new String[0];
+	private static final SoftBlockLocation[] NO_HOME_LOCATIONS = new SoftBlockLocation[0];
+
+	// the home stations set by this player, in the order they were added:
+	private final String[] homeNames;
+	private final SoftBlockLocation[] homeLocations;
+	// index of the selected home, or -1 if there are no homes:
+	private final int selectedHome;
 
 	// the spawn location set by this player
-	public SoftBlockLocation spawnLocation = null;
+	private final SoftBlockLocation spawnLocation;
+
+	/**
+	 * Creates player data without any stations set.
+	 */
+	public PlayerData() {
+		this(null, null);
+	}
+
+	/**
+	 * Creates player data with at most one home station, which uses the {@link #DEFAULT_HOME_NAME default name}.
+	 *
+	 * @param homeLocation
+	 *            the home location, can be <code>null</code>
+	 * @param spawnLocation
+	 *            the spawn location, can be <code>null</code>
+	 */
+	public PlayerData(SoftBlockLocation homeLocation, SoftBlockLocation spawnLocation) {
+		this(homeLocation == null ? NO_HOME_NAMES : new String[] { DEFAULT_HOME_NAME },
+				homeLocation == null ? NO_HOME_LOCATIONS : new SoftBlockLocation[] { homeLocation },
+				homeLocation == null ? -1 : 0, spawnLocation, false);
+	}
+
+	/**
+	 * Creates player data with the given home stations.
+	 *
+	 * @param homeNames
+	 *            the names of the home stations, unique (ignoring case)
+	 * @param homeLocations
+	 *            the locations of the home stations, of the same length as the names
+	 * @param selectedHome
+	 *            the index of the selected home station, ignored if there are no home stations
+	 * @param spawnLocation
+	 *            the spawn location, can be <code>null</code>
+	 */
+	public PlayerData(String[] homeNames, SoftBlockLocation[] homeLocations, int selectedHome, SoftBlockLocation spawnLocation) {
+		this(homeNames.clone(), homeLocations.clone(), selectedHome, spawnLocation, true);
+	}
+
+	private PlayerData(String[] homeNames, SoftBlockLocation[] homeLocations, int selectedHome, SoftBlockLocation spawnLocation, boolean validate) {
+		if (validate) {
+			if (homeNames.length != homeLocations.length) {
+				throw new IllegalArgumentException("The number of home names and locations differ!");
+			}
+			if (homeNames.length > MAX_HOMES) {
+				throw new IllegalArgumentException("Too many homes: " + homeNames.length);
+			}
+			for (int i = 0; i < homeNames.length; i++) {
+				if (homeNames[i] == null || homeLocations[i] == null) {
+					throw new IllegalArgumentException("Home name or location is null!");
+				}
+				for (int j = 0; j < i; j++) {
+					if (homeNames[j].equalsIgnoreCase(homeNames[i])) {
+						throw new IllegalArgumentException("Duplicate home name: " + homeNames[i]);
+					}
+				}
+			}
+		}
+		this.homeNames = homeNames;
+		this.homeLocations = homeLocations;
+		this.selectedHome = (homeNames.length == 0) ? -1 : Math.max(0, Math.min(selectedHome, homeNames.length - 1));
+		this.spawnLocation = spawnLocation;
+	}
+
+	/**
+	 * Checks if the given name can be used as name of a home station.
+	 *
+	 * @param name
+	 *            the name
+	 * @return <code>true</code> if the name is valid
+	 */
+	public static boolean isValidHomeName(String name) {
+		return name != null && HOME_NAME_PATTERN.matcher(name).matches();
+	}
+
+	/**
+	 * Gets the location of the selected home station.
+	 *
+	 * @return the location, or <code>null</code> if there is no home station
+	 */
+	public SoftBlockLocation getHomeLocation() {
+		return (selectedHome < 0) ? null : homeLocations[selectedHome];
+	}
+
+	public SoftBlockLocation getSpawnLocation() {
+		return spawnLocation;
+	}
+
+	public int getHomeCount() {
+		return homeNames.length;
+	}
+
+	/**
+	 * Gets the index of the selected home station.
+	 *
+	 * @return the index, or <code>-1</code> if there is no home station
+	 */
+	public int getSelectedHome() {
+		return selectedHome;
+	}
+
+	public String getHomeName(int index) {
+		return homeNames[index];
+	}
+
+	public SoftBlockLocation getHomeLocation(int index) {
+		return homeLocations[index];
+	}
+
+	/**
+	 * Finds the home station with the given name, ignoring case.
+	 *
+	 * @param name
+	 *            the name
+	 * @return the index, or <code>-1</code> if there is no such home station
+	 */
+	public int findHome(String name) {
+		for (int i = 0; i < homeNames.length; i++) {
+			if (homeNames[i].equalsIgnoreCase(name)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the home station at the given location.
+	 *
+	 * @param location
+	 *            the location
+	 * @return the index, or <code>-1</code> if there is no home station at that location
+	 */
+	public int findHome(SoftBlockLocation location) {
+		for (int i = 0; i < homeLocations.length; i++) {
+			if (homeLocations[i].equals(location)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks if the home stations differ from the single home station with the {@link #DEFAULT_HOME_NAME default name}
+	 * that player data always had before named home stations existed.
+	 *
+	 * @return <code>true</code> if there are multiple or renamed home stations
+	 */
+	public boolean hasNamedHomes() {
+		return homeNames.length > 1 || (homeNames.length == 1 && !homeNames[0].equals(DEFAULT_HOME_NAME));
+	}
+
+	/**
+	 * Gets an unused name for a new home station.
+	 *
+	 * @return the name
+	 */
+	public String getUnusedHomeName() {
+		if (this.findHome(DEFAULT_HOME_NAME) < 0) return DEFAULT_HOME_NAME;
+		for (int number = 2;; number++) {
+			String name = DEFAULT_HOME_NAME + number;
+			if (this.findHome(name) < 0) return name;
+		}
+	}
+
+	/**
+	 * Creates a copy of this player data in which the selected home station is located at the given location.
+	 *
+	 * <p>
+	 * If there is no home station yet, a home station with an unused name gets added. If the given location is
+	 * <code>null</code>, the selected home station gets removed.
+	 * </p>
+	 *
+	 * @param homeLocation
+	 *            the new home location, can be <code>null</code>
+	 * @return the updated copy
+	 */
+	public PlayerData withHomeLocation(SoftBlockLocation homeLocation) {
+		if (homeLocation == null) {
+			return (selectedHome < 0) ? this : this.withoutHome(selectedHome);
+		}
+		if (selectedHome < 0) {
+			return this.withHome(this.getUnusedHomeName(), homeLocation);
+		}
+		SoftBlockLocation[] newLocations = homeLocations.clone();
+		newLocations[selectedHome] = homeLocation;
+		return new PlayerData(homeNames, newLocations, selectedHome, spawnLocation, false);
+	}
+
+	/**
+	 * Creates a copy of this player data in which the home station with the given name is located at the given
+	 * location and selected. The home station gets added if there is none with that name yet.
+	 *
+	 * @param name
+	 *            the name
+	 * @param location
+	 *            the location
+	 * @return the updated copy
+	 */
+	public PlayerData withHome(String name, SoftBlockLocation location) {
+		if (name == null || location == null) {
+			throw new IllegalArgumentException("Home name or location is null!");
+		}
+		int index = this.findHome(name);
+		if (index >= 0) {
+			SoftBlockLocation[] newLocations = homeLocations.clone();
+			newLocations[index] = location;
+			return new PlayerData(homeNames, newLocations, index, spawnLocation, false);
+		}
+		if (homeNames.length >= MAX_HOMES) {
+			throw new IllegalStateException("Too many homes!");
+		}
+		String[] newNames = Arrays.copyOf(homeNames, homeNames.length + 1);
+		SoftBlockLocation[] newLocations = Arrays.copyOf(homeLocations, homeLocations.length + 1);
+		newNames[homeNames.length] = name;
+		newLocations[homeLocations.length] = location;
+		return new PlayerData(newNames, newLocations, homeNames.length, spawnLocation, false);
+	}
+
+	/**
+	 * Creates a copy of this player data without the specified home station.
+	 *
+	 * <p>
+	 * If the selected home station gets removed, the first remaining home station gets selected.
+	 * </p>
+	 *
+	 * @param index
+	 *            the index of the home station
+	 * @return the updated copy
+	 */
+	public PlayerData withoutHome(int index) {
+		int count = homeNames.length;
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Invalid home index: " + index);
+		}
+		String[] newNames = new String[count - 1];
+		SoftBlockLocation[] newLocations = new SoftBlockLocation[count - 1];
+		System.arraycopy(homeNames, 0, newNames, 0, index);
+		System.arraycopy(homeNames, index + 1, newNames, index, count - index - 1);
+		System.arraycopy(homeLocations, 0, newLocations, 0, index);
+		System.arraycopy(homeLocations, index + 1, newLocations, index, count - index - 1);
+		int newSelected = (selectedHome == index) ? 0 : (selectedHome > index ? selectedHome - 1 : selectedHome);
+		return new PlayerData(newNames, newLocations, newSelected, spawnLocation, false);
+	}
+
+	/**
+	 * Creates a copy of this player data in which the specified home station has the given name.
+	 *
+	 * @param index
+	 *            the index of the home station
+	 * @param name
+	 *            the new name, not used by any other home station
+	 * @return the updated copy
+	 */
+	public PlayerData withRenamedHome(int index, String name) {
+		int existing = this.findHome(name);
+		if (existing >= 0 && existing != index) {
+			throw new IllegalArgumentException("Duplicate home name: " + name);
+		}
+		String[] newNames = homeNames.clone();
+		newNames[index] = name;
+		return new PlayerData(newNames, homeLocations, selectedHome, spawnLocation, false);
+	}
+
+	/**
+	 * Creates a copy of this player data in which the specified home station is selected.
+	 *
+	 * @param index
+	 *            the index of the home station
+	 * @return the updated copy, or this player data if the home station is already selected
+	 */
+	public PlayerData withSelectedHome(int index) {
+		if (index < 0 || index >= homeNames.length) {
+			throw new IndexOutOfBoundsException("Invalid home index: " + index);
+		}
+		if (index == selectedHome) return this;
+		return new PlayerData(homeNames, homeLocations, index, spawnLocation, false);
+	}
+
+	/**
+	 * Creates a copy of this player data with the given spawn location.
+	 *
+	 * @param spawnLocation
+	 *            the new spawn location, can be <code>null</code>
+	 * @return the updated copy
+	 */
+	public PlayerData withSpawnLocation(SoftBlockLocation spawnLocation) {
+		return new PlayerData(homeNames, homeLocations, selectedHome, spawnLocation, false);
+	}
 }
@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches {@link PlayerData} in memory.
+ *
+ * <p>
+ * The player data of online players is pinned and only removed once the player quits. The player data of offline
+ * players is kept in a size limited cache, which drops the least recently used entries first, and entries which
+ * haven't been accessed for a certain time. Additionally, the ids of players without any stored player data are
+ * remembered for the same time, so that repeated lookups of unknown players don't have to access the storage.
+ * </p>
+ *
+ * <p>
+ * Safe to be used from multiple threads: Lookups of online players don't block, all other operations are
+ * synchronized.
+ * </p>
+ */
+class PlayerDataCache {
+
+	private static final class Entry {
+
+		private final PlayerData playerData;
+		private long lastAccess;
+
+		private Entry(PlayerData playerData, long now) {
+			this.playerData = playerData;
+			this.lastAccess = now;
+		}
+	}
+
+	private int maxOfflineEntries = 500;
+	private long expirationMillis = 600000L;
+
+	// online players, only modified while holding the lock:
+	private final Map<UUID, PlayerData> online = new ConcurrentHashMap<>();
+	// offline players, access ordered, least recently used first:
+	private final LinkedHashMap<UUID, Entry> offline = new LinkedHashMap<>(16, 0.75f, true);
+	// players without stored player data -> time of the lookup, oldest first:
+	private final LinkedHashMap<UUID, Long> missing = new LinkedHashMap<>();
+
+	// statistics:
+	private long offlineHits = 0L;
+	private long offlineMisses = 0L;
+	private long missingHits = 0L;
+	private long evictions = 0L;
+	private long expirations = 0L;
+
+	/**
+	 * Sets the limits of the offline cache.
+	 *
+	 * @param maxOfflineEntries
+	 *            the maximum number of cached offline players, and of remembered players without player data
+	 * @param expirationSeconds
+	 *            the time in seconds after which offline entries expire if they are not accessed
+	 */
+	synchronized void setLimits(int maxOfflineEntries, long expirationSeconds) {
+		this.maxOfflineEntries = Math.max(0, maxOfflineEntries);
+		this.expirationMillis = Math.max(0L, expirationSeconds) * 1000L;
+		this.evict(offline);
+		this.evict(missing);
+	}
+
+	PlayerData getOnline(UUID playerId) {
+		return online.get(playerId);
+	}
+
+	/**
+	 * Looks up the cached player data of an online or offline player.
+	 *
+	 * @param playerId
+	 *            the player id
+	 * @return the player data, or <code>null</code> if it is not cached
+	 */
+	synchronized PlayerData get(UUID playerId) {
+		PlayerData playerData = online.get(playerId);
+		if (playerData != null) return playerData;
+
+		Entry entry = offline.get(playerId);
+		if (entry == null) {
+			offlineMisses++;
+			return null;
+		}
+		offlineHits++;
+		entry.lastAccess = System.currentTimeMillis();
+		return entry.playerData;
+	}
+
+	synchronized boolean containsOffline(UUID playerId) {
+		return offline.containsKey(playerId);
+	}
+
+	/**
+	 * Checks if the given player is known to not have any stored player data.
+	 *
+	 * @param playerId
+	 *            the player id
+	 * @return <code>true</code> if the player is known to not have any stored player data
+	 */
+	synchronized boolean isMissing(UUID playerId) {
+		Long lookupTime = missing.get(playerId);
+		if (lookupTime == null) return false;
+		if (lookupTime < System.currentTimeMillis() - expirationMillis) {
+			missing.remove(playerId);
+			expirations++;
+			return false;
+		}
+		missingHits++;
+		return true;
+	}
+
+	/**
+	 * Pins the player data of an online player.
+	 *
+	 * @param playerId
+	 *            the player id
+	 * @param playerData
+	 *            the player data
+	 */
+	synchronized void putOnline(UUID playerId, PlayerData playerData) {
+		online.put(playerId, playerData);
+		offline.remove(playerId);
+		missing.remove(playerId);
+	}
+
+	/**
+	 * Moves the player data of a player who left into the offline cache.
+	 *
+	 * @param playerId
+	 *            the player id
+	 */
+	synchronized void setOffline(UUID playerId) {
+		PlayerData playerData = online.remove(playerId);
+		if (playerData != null) {
+			this.putOffline(playerId, playerData);
+		}
+	}
+
+	/**
+	 * Replaces the cached player data of an online player, or else caches it as player data of an offline player.
+	 *
+	 * @param playerId
+	 *            the player id
+	 * @param playerData
+	 *            the player data
+	 */
+	synchronized void put(UUID playerId, PlayerData playerData) {
+		if (online.containsKey(playerId)) {
+			online.put(playerId, playerData);
+		} else {
+			this.putOffline(playerId, playerData);
+		}
+	}
+
+	synchronized void putOffline(UUID playerId, PlayerData playerData) {
+		if (online.containsKey(playerId)) return;
+		missing.remove(playerId);
+		offline.put(playerId, new Entry(playerData, System.currentTimeMillis()));
+		this.evict(offline);
+	}
+
+	synchronized void putMissing(UUID playerId) {
+		if (online.containsKey(playerId) || offline.containsKey(playerId)) return;
+		missing.put(playerId, System.currentTimeMillis());
+		this.evict(missing);
+	}
+
+	// called when player data gets stored for the given player:
+	synchronized void removeMissing(UUID playerId) {
+		missing.remove(playerId);
+	}
+
+	private void evict(LinkedHashMap<UUID, ?> entries) {
+		Iterator<UUID> iterator = entries.keySet().iterator();
+		while (entries.size() > maxOfflineEntries && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Removes offline entries which haven't been accessed within the expiration time.
+	 */
+	synchronized void removeExpired() {
+		long expiredBefore = System.currentTimeMillis() - expirationMillis;
+		// both maps are ordered by access or lookup time, oldest first:
+		Iterator<Entry> offlineEntries = offline.values().iterator();
+		while (offlineEntries.hasNext() && offlineEntries.next().lastAccess < expiredBefore) {
+			offlineEntries.remove();
+			expirations++;
+		}
+		Iterator<Long> missingEntries = missing.values().iterator();
+		while (missingEntries.hasNext() && missingEntries.next() < expiredBefore) {
+			missingEntries.remove();
+			expirations++;
+		}
+	}
+
+	synchronized void clear() {
+		online.clear();
+		offline.clear();
+		missing.clear();
+	}
+
+	synchronized int getOnlineCount() {
+		return online.size();
+	}
+
+	synchronized int getOfflineCount() {
+		return offline.size();
+	}
+
+	synchronized int getMissingCount() {
+		return missing.size();
+	}
+
+	synchronized long getOfflineHits() {
+		return offlineHits;
+	}
+
+	synchronized long getOfflineMisses() {
+		return offlineMisses;
+	}
+
+	synchronized long getMissingHits() {
+		return missingHits;
+	}
+
+	synchronized long getEvictions() {
+		return evictions;
+	}
+
+	synchronized long getExpirations() {
+		return expirations;
+	}
+}
@@ -0,0 +1,387 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+import org.bukkit.Color;
+import org.bukkit.FireworkEffect;
+import org.bukkit.FireworkEffect.Builder;
+import org.bukkit.Particle;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.util.Vector;
+
+import de.blablubbabc.homestations.effects.EffectRenderer;
+import de.blablubbabc.homestations.effects.EffectRendererType;
+import de.blablubbabc.homestations.effects.FireworkEffectRenderer;
+import de.blablubbabc.homestations.effects.ParticleEffectRenderer;
+import de.blablubbabc.homestations.storage.StorageType;
+import de.blablubbabc.homestations.utils.Utils;
+
+/**
+ * The settings loaded from the config.
+ *
+ * <p>
+ * Loading the settings doesn't access any server state, so it can be done asynchronously. Settings are not modified
+ * after loading.
+ * </p>
+ */
+class Settings {
+
+	// effects:
+	FireworkEffect effect1;
+	FireworkEffect effect2;
+	int maxEffectAnimations;
+	int maxEffectsPerWorldPerTick;
+	double effectViewDistance;
+	int degradeAnimationThreshold;
+	double degradeMinimumTps;
+	double degradeSpacingMultiplier;
+	EffectRendererType effectRendererType;
+	Particle particle;
+	int particleAmount;
+	double particleSpread;
+	double particleSize;
+
+	// teleport:
+	Vector upVelocity;
+	long teleportDelay;
+	double maxUpEffectRange;
+	double upEffectDistance;
+	double downEffectOffset;
+	double teleportYOffset;
+	double teleportCosts;
+
+	// economy:
+	long balanceCacheMillis;
+	boolean asyncTransactions;
+	long transactionTimeoutTicks;
+	boolean teleportCostLedger;
+	long ledgerSettlementIntervalTicks;
+
+	// teleport limits:
+	long playerCooldownMillis;
+	long stationCooldownMillis;
+	int maxTeleportsInFlight;
+	double teleportsPerSecond;
+	int teleportBurst;
+
+	// warm chunks:
+	boolean warmChunks;
+	int maxWarmHomeChunks;
+
+	// homes:
+	int maxHomes;
+
+	// player data:
+	StorageType playerDataStorageType;
+	long playerDataSaveInterval;
+	int maxCachedOfflinePlayers;
+	long cachedOfflinePlayerExpiration;
+
+	// metrics:
+	long metricsDumpInterval;
+	boolean metricsHttpEnabled;
+	String metricsHttpHost;
+	int metricsHttpPort;
+
+	private Settings() {
+	}
+
+	// loads the settings and writes back loaded (defaults and corrected) values
+	static Settings load(ConfigurationSection config, Logger logger) {
+		Settings settings = new Settings();
+
+		// effects:
+		ConfigurationSection effect1Section = config.getConfigurationSection("Firework Effect 1");
+		settings.effect1 = getEffect(effect1Section);
+		if (settings.effect1 == null) {
+			settings.effect1 = FireworkEffect.builder().withColor(Color.ORANGE).withTrail().withFade(Color.RED).build();
+			writeEffectSection(effect1Section != null ? effect1Section : config.createSection("Firework Effect 1"), settings.effect1);
+		}
+		ConfigurationSection effect2Section = config.getConfigurationSection("Firework Effect 2");
+		settings.effect2 = getEffect(effect2Section);
+		if (settings.effect2 == null) {
+			settings.effect2 = FireworkEffect.builder().withColor(Color.YELLOW).build();
+			writeEffectSection(effect2Section != null ? effect2Section : config.createSection("Firework Effect 2"), settings.effect2);
+		}
+
+		// effect limits:
+		settings.maxEffectAnimations = config.getInt("Effects.Maximum Concurrent Animations", 50);
+		config.set("Effects.Maximum Concurrent Animations", settings.maxEffectAnimations);
+		settings.maxEffectsPerWorldPerTick = config.getInt("Effects.Maximum Effects per World per Tick", 20);
+		config.set("Effects.Maximum Effects per World per Tick", settings.maxEffectsPerWorldPerTick);
+
+		// effect culling and degradation:
+		settings.effectViewDistance = config.getDouble("Effects.View Distance", 128.0D);
+		config.set("Effects.View Distance", settings.effectViewDistance);
+		settings.degradeAnimationThreshold = config.getInt("Effects.Degradation.Concurrent Animations Threshold", 20);
+		config.set("Effects.Degradation.Concurrent Animations Threshold", settings.degradeAnimationThreshold);
+		settings.degradeMinimumTps = config.getDouble("Effects.Degradation.Minimum TPS", 18.0D);
+		config.set("Effects.Degradation.Minimum TPS", settings.degradeMinimumTps);
+		settings.degradeSpacingMultiplier = config.getDouble("Effects.Degradation.Spacing Multiplier", 2.0D);
+		config.set("Effects.Degradation.Spacing Multiplier", settings.degradeSpacingMultiplier);
+
+		// effect renderer:
+		String rendererTypeName = config.getString("Effects.Renderer", EffectRendererType.FIREWORKS.name());
+		settings.effectRendererType = EffectRendererType.getByName(rendererTypeName);
+		if (settings.effectRendererType == null) {
+			logger.warning("Unknown effect renderer '" + rendererTypeName + "'. Using '" + EffectRendererType.FIREWORKS.name() + "' instead.");
+			settings.effectRendererType = EffectRendererType.FIREWORKS;
+		}
+		config.set("Effects.Renderer", settings.effectRendererType.name());
+
+		String particleName = config.getString("Effects.Particles.Particle", Particle.REDSTONE.name());
+		try {
+			settings.particle = Particle.valueOf(particleName.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			// unknown particle, handled below
+		}
+		if (!ParticleEffectRenderer.isSupported(settings.particle)) {
+			logger.warning("Unsupported particle '" + particleName + "'. Using '" + Particle.REDSTONE.name() + "' instead.");
+			settings.particle = Particle.REDSTONE;
+		}
+		config.set("Effects.Particles.Particle", settings.particle.name());
+		settings.particleAmount = config.getInt("Effects.Particles.Amount per Color", 8);
+		config.set("Effects.Particles.Amount per Color", settings.particleAmount);
+		settings.particleSpread = config.getDouble("Effects.Particles.Spread", 0.6D);
+		config.set("Effects.Particles.Spread", settings.particleSpread);
+		settings.particleSize = config.getDouble("Effects.Particles.Size", 1.5D);
+		config.set("Effects.Particles.Size", settings.particleSize);
+
+		// yVelocity:
+		double yVelocity = config.getDouble("Upward.Teleport.Y Velocity", 2.0D);
+		settings.upVelocity = new Vector(0, yVelocity, 0);
+		config.set("Upward.Teleport.Y Velocity", yVelocity);
+
+		// teleport delay:
+		settings.teleportDelay = config.getLong("Upward.Teleport.Delay in Ticks", 15L);
+		config.set("Upward.Teleport.Delay in Ticks", settings.teleportDelay);
+
+		// max teleport effect range:
+		settings.maxUpEffectRange = config.getDouble("Upward.Effect.Maximum Range", 80.0D);
+		config.set("Upward.Effect.Maximum Range", settings.maxUpEffectRange);
+
+		// max teleport effect range:
+		settings.upEffectDistance = config.getDouble("Upward.Effect.Distance between Fireworks", 2.5D);
+		config.set("Upward.Effect.Distance between Fireworks", settings.upEffectDistance);
+
+		// down effect offset:
+		settings.downEffectOffset = config.getDouble("Downward.Effect.Offset", 3.0D);
+		config.set("Downward.Effect.Offset", settings.downEffectOffset);
+
+		// teleport y offset:
+		settings.teleportYOffset = config.getDouble("Downward.Teleport.Y Offset", 3.0D);
+		config.set("Downward.Teleport.Y Offset", settings.teleportYOffset);
+
+		// teleport costs:
+		settings.teleportCosts = config.getDouble("Teleport Costs", 0.0D);
+		config.set("Teleport Costs", settings.teleportCosts);
+
+		// economy:
+		settings.balanceCacheMillis = config.getLong("Economy.Balance Cache Duration in Milliseconds", 5000L);
+		config.set("Economy.Balance Cache Duration in Milliseconds", settings.balanceCacheMillis);
+		settings.asyncTransactions = config.getBoolean("Economy.Asynchronous Transactions", false);
+		config.set("Economy.Asynchronous Transactions", settings.asyncTransactions);
+		settings.transactionTimeoutTicks = config.getLong("Economy.Transaction Timeout in Ticks", 100L);
+		config.set("Economy.Transaction Timeout in Ticks", settings.transactionTimeoutTicks);
+		settings.teleportCostLedger = config.getBoolean("Economy.Ledger.Enabled", false);
+		config.set("Economy.Ledger.Enabled", settings.teleportCostLedger);
+		settings.ledgerSettlementIntervalTicks = config.getLong("Economy.Ledger.Settlement Interval in Ticks", 1200L);
+		config.set("Economy.Ledger.Settlement Interval in Ticks", settings.ledgerSettlementIntervalTicks);
+
+		// teleport limits:
+		settings.playerCooldownMillis = config.getLong("Teleport Limits.Player Cooldown in Milliseconds", 1000L);
+		config.set("Teleport Limits.Player Cooldown in Milliseconds", settings.playerCooldownMillis);
+		settings.stationCooldownMillis = config.getLong("Teleport Limits.Station Cooldown in Milliseconds", 0L);
+		config.set("Teleport Limits.Station Cooldown in Milliseconds", settings.stationCooldownMillis);
+		settings.maxTeleportsInFlight = config.getInt("Teleport Limits.Maximum Teleports in Flight", 100);
+		config.set("Teleport Limits.Maximum Teleports in Flight", settings.maxTeleportsInFlight);
+		settings.teleportsPerSecond = config.getDouble("Teleport Limits.Teleports per Second", 20.0D);
+		config.set("Teleport Limits.Teleports per Second", settings.teleportsPerSecond);
+		settings.teleportBurst = config.getInt("Teleport Limits.Burst", 40);
+		config.set("Teleport Limits.Burst", settings.teleportBurst);
+
+		// warm chunks:
+		settings.warmChunks = config.getBoolean("Warm Chunks.Enabled", false);
+		config.set("Warm Chunks.Enabled", settings.warmChunks);
+		settings.maxWarmHomeChunks = config.getInt("Warm Chunks.Maximum Home Station Chunks", 16);
+		config.set("Warm Chunks.Maximum Home Station Chunks", settings.maxWarmHomeChunks);
+
+		// homes:
+		settings.maxHomes = config.getInt("Homes.Maximum Homes per Player", 1);
+		if (settings.maxHomes < 1 || settings.maxHomes > PlayerData.MAX_HOMES) {
+			logger.warning("Invalid maximum homes per player " + settings.maxHomes + ". Using 1 instead.");
+			settings.maxHomes = 1;
+		}
+		config.set("Homes.Maximum Homes per Player", settings.maxHomes);
+
+		// player data storage:
+		String storageTypeName = config.getString("Player Data.Storage", StorageType.LOG.name());
+		settings.playerDataStorageType = StorageType.getByName(storageTypeName);
+		if (settings.playerDataStorageType == null) {
+			logger.warning("Unknown player data storage '" + storageTypeName + "'. Using '" + StorageType.LOG.name() + "' instead.");
+			settings.playerDataStorageType = StorageType.LOG;
+		}
+		config.set("Player Data.Storage", settings.playerDataStorageType.name());
+
+		// player data save interval:
+		settings.playerDataSaveInterval = config.getLong("Player Data.Save Interval in Ticks", 40L);
+		config.set("Player Data.Save Interval in Ticks", settings.playerDataSaveInterval);
+
+		// player data cache:
+		settings.maxCachedOfflinePlayers = config.getInt("Player Data.Cache.Maximum Offline Players", 500);
+		config.set("Player Data.Cache.Maximum Offline Players", settings.maxCachedOfflinePlayers);
+		settings.cachedOfflinePlayerExpiration = config.getLong("Player Data.Cache.Expiration in Seconds", 600L);
+		config.set("Player Data.Cache.Expiration in Seconds", settings.cachedOfflinePlayerExpiration);
+
+		// metrics:
+		settings.metricsDumpInterval = config.getLong("Metrics.Dump Interval in Seconds", 300L);
+		config.set("Metrics.Dump Interval in Seconds", settings.metricsDumpInterval);
+		settings.metricsHttpEnabled = config.getBoolean("Metrics.HTTP Endpoint.Enabled", false);
+		config.set("Metrics.HTTP Endpoint.Enabled", settings.metricsHttpEnabled);
+		settings.metricsHttpHost = config.getString("Metrics.HTTP Endpoint.Host", "127.0.0.1");
+		config.set("Metrics.HTTP Endpoint.Host", settings.metricsHttpHost);
+		settings.metricsHttpPort = config.getInt("Metrics.HTTP Endpoint.Port", 9225);
+		if (settings.metricsHttpPort < 1 || settings.metricsHttpPort > 65535) {
+			logger.warning("Invalid metrics HTTP port " + settings.metricsHttpPort + ". Using 9225 instead.");
+			settings.metricsHttpPort = 9225;
+		}
+		config.set("Metrics.HTTP Endpoint.Port", settings.metricsHttpPort);
+
+		return settings;
+	}
+
+	EffectRenderer createEffectRenderer() {
+		if (effectRendererType == EffectRendererType.PARTICLES) {
+			return new ParticleEffectRenderer(particle, particleAmount, particleSpread, (float) particleSize, effectViewDistance);
+		} else {
+			return new FireworkEffectRenderer();
+		}
+	}
+
+	// COMPARISON
+
+	boolean hasSameEffects(Settings other) {
+		return effect1.equals(other.effect1)
+				&& effect2.equals(other.effect2)
+				&& maxEffectAnimations == other.maxEffectAnimations
+				&& maxEffectsPerWorldPerTick == other.maxEffectsPerWorldPerTick
+				&& effectViewDistance == other.effectViewDistance
+				&& degradeAnimationThreshold == other.degradeAnimationThreshold
+				&& degradeMinimumTps == other.degradeMinimumTps
+				&& degradeSpacingMultiplier == other.degradeSpacingMultiplier
+				&& effectRendererType == other.effectRendererType
+				&& particle == other.particle
+				&& particleAmount == other.particleAmount
+				&& particleSpread == other.particleSpread
+				&& particleSize == other.particleSize;
+	}
+
+	boolean hasSameTeleport(Settings other) {
+		return upVelocity.equals(other.upVelocity)
+				&& teleportDelay == other.teleportDelay
+				&& maxUpEffectRange == other.maxUpEffectRange
+				&& upEffectDistance == other.upEffectDistance
+				&& downEffectOffset == other.downEffectOffset
+				&& teleportYOffset == other.teleportYOffset
+				&& teleportCosts == other.teleportCosts;
+	}
+
+	boolean hasSameEconomy(Settings other) {
+		return balanceCacheMillis == other.balanceCacheMillis
+				&& asyncTransactions == other.asyncTransactions
+				&& transactionTimeoutTicks == other.transactionTimeoutTicks
+				&& teleportCostLedger == other.teleportCostLedger
+				&& ledgerSettlementIntervalTicks == other.ledgerSettlementIntervalTicks;
+	}
+
+	boolean hasSameTeleportLimits(Settings other) {
+		return playerCooldownMillis == other.playerCooldownMillis
+				&& stationCooldownMillis == other.stationCooldownMillis
+				&& maxTeleportsInFlight == other.maxTeleportsInFlight
+				&& teleportsPerSecond == other.teleportsPerSecond
+				&& teleportBurst == other.teleportBurst;
+	}
+
+	boolean hasSameWarmChunks(Settings other) {
+		return warmChunks == other.warmChunks && maxWarmHomeChunks == other.maxWarmHomeChunks;
+	}
+
+	boolean hasSameMetricsHttpEndpoint(Settings other) {
+		return metricsHttpEnabled == other.metricsHttpEnabled
+				&& metricsHttpHost.equals(other.metricsHttpHost)
+				&& metricsHttpPort == other.metricsHttpPort;
+	}
+
+	boolean hasSamePlayerDataCache(Settings other) {
+		return maxCachedOfflinePlayers == other.maxCachedOfflinePlayers && cachedOfflinePlayerExpiration == other.cachedOfflinePlayerExpiration;
+	}
+
+	// EFFECTS
+
+	private static FireworkEffect getEffect(ConfigurationSection section) {
+		if (section == null) return null;
+		List<Color> colors = getColorList(section.getStringList("Colors"));
+		if (colors.isEmpty()) return null;
+		List<Color> fadeColors = getColorList(section.getStringList("Fade Colors"));
+		boolean flicker = section.getBoolean("Flicker", false);
+		boolean trail = section.getBoolean("Trail", false);
+
+		Builder builder = FireworkEffect.builder().withColor(colors);
+		if (!fadeColors.isEmpty()) builder.withFade(fadeColors);
+		if (flicker) builder.withFlicker();
+		if (trail) builder.withTrail();
+
+		return builder.build();
+	}
+
+	private static void writeEffectSection(ConfigurationSection section, FireworkEffect effect) {
+		if (section == null || effect == null) return;
+		section.set("Colors", getStringList(effect.getColors()));
+		section.set("Fade Colors", getStringList(effect.getFadeColors()));
+		section.set("Flicker", effect.hasFlicker());
+		section.set("Trail", effect.hasTrail());
+	}
+
+	private static List<Color> getColorList(List<String> stringList) {
+		List<Color> colors = new ArrayList<>();
+		if (stringList != null) {
+			for (String string : stringList) {
+				if (string == null) continue;
+				String[] split = string.split(";");
+				if (split.length != 3) continue;
+				Integer red = Utils.parseInteger(split[0]);
+				Integer green = Utils.parseInteger(split[1]);
+				Integer blue = Utils.parseInteger(split[2]);
+
+				if (red == null || blue == null || green == null) continue;
+
+				Color color = Color.fromRGB(getColorInt(red), getColorInt(green), getColorInt(blue));
+				colors.add(color);
+			}
+		}
+		return colors;
+	}
+
+	private static int getColorInt(int colorInt) {
+		return Math.max(0, Math.min(255, colorInt));
+	}
+
+	private static List<String> getStringList(List<Color> colorList) {
+		List<String> strings = new ArrayList<>();
+		if (colorList != null) {
+			for (Color color : colorList) {
+				if (color == null) continue;
+				String string = color.getRed() + ";" + color.getGreen() + ";" + color.getBlue();
+				strings.add(string);
+			}
+		}
+		return strings;
+	}
+}
@@ -0,0 +1,316 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+
+import de.blablubbabc.homestations.utils.BlockPositions;
+import de.blablubbabc.homestations.utils.LongByteHashMap;
+import de.blablubbabc.homestations.utils.SoftBlockLocation;
+import de.blablubbabc.homestations.utils.WorldRegistry;
+
+/**
+ * Caches the station structure validation results for lower station button positions, and keeps track of the spawn
+ * stations, per world and keyed by packed block coordinates.
+ * 
+ * <p>
+ * Cached results stay valid until a block change within the footprint of the station invalidates them. Since not all
+ * block changes trigger events (for example changes by commands or world editing plugins), stations get validated again
+ * via {@link #revalidateStationFace(World, int, int, int)} before they are used as teleport destinations.
+ * </p>
+ */
+class StationIndex {
+
+	// cached validation states (0 is reserved for 'unknown'):
+	private static final byte NO_STATION = 1;
+	private static final byte[] FACE_STATES = new byte[BlockFace.values().length];
+	private static final BlockFace[] STATE_FACES = { null, null, BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST };
+	static {
+		for (byte state = 2; state < STATE_FACES.length; state++) {
+			FACE_STATES[STATE_FACES[state].ordinal()] = state;
+		}
+	}
+
+	private static final BlockFace[] HORIZONTAL_FACES = { BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST };
+
+	// limits the number of cached validation results per world, in order to keep memory bounded on servers with lots of
+	// buttons; the cache gets cleared once this limit is reached
+	private static final int MAX_CACHED_STATES_PER_WORLD = 1 << 16;
+
+	private static class WorldIndex {
+
+		// lower station button position -> validation state
+		private final LongByteHashMap stationStates = new LongByteHashMap();
+		// lower station button positions of spawn stations, mapped to 1
+		private final LongByteHashMap spawnStations = new LongByteHashMap();
+		// lower station button positions of known stations which got affected by block changes and need to be
+		// validated again, mapped to 1
+		private final LongByteHashMap pendingValidations = new LongByteHashMap();
+
+		private boolean isEmpty() {
+			return stationStates.isEmpty() && spawnStations.isEmpty() && pendingValidations.isEmpty();
+		}
+	}
+
+	// world id -> index, or null
+	private WorldIndex[] worlds = new WorldIndex[0];
+
+	private final HomeStationsMetrics metrics;
+
+	StationIndex(HomeStationsMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	private WorldIndex getWorldIndex(World world) {
+		int worldId = WorldRegistry.getWorldId(world);
+		return (worldId < worlds.length) ? worlds[worldId] : null;
+	}
+
+	private WorldIndex getOrCreateWorldIndex(int worldId) {
+		if (worldId >= worlds.length) {
+			worlds = Arrays.copyOf(worlds, WorldRegistry.getWorldCount());
+		}
+		WorldIndex worldIndex = worlds[worldId];
+		if (worldIndex == null) {
+			worldIndex = new WorldIndex();
+			worlds[worldId] = worldIndex;
+		}
+		return worldIndex;
+	}
+
+	// STATION VALIDATION
+
+	/**
+	 * Checks if the validation result for the station at the given coordinates is cached, so that
+	 * {@link #getStationFace(World, int, int, int)} doesn't need to access the blocks.
+	 * 
+	 * @param world
+	 *            the world
+	 * @param x
+	 *            the x coordinate of the lower station button
+	 * @param y
+	 *            the y coordinate of the lower station button
+	 * @param z
+	 *            the z coordinate of the lower station button
+	 * @return <code>true</code> if the validation result is cached
+	 */
+	boolean isStationStateCached(World world, int x, int y, int z) {
+		WorldIndex worldIndex = this.getWorldIndex(world);
+		if (worldIndex == null) return false;
+		return worldIndex.stationStates.containsKey(BlockPositions.pack(x, y, z));
+	}
+
+	/**
+	 * Gets the direction of the station whose lower station button is located at the given coordinates.
+	 * 
+	 * <p>
+	 * Uses the cached validation result if available, and otherwise validates the station structure and caches the
+	 * result.
+	 * </p>
+	 * 
+	 * @param world
+	 *            the world
+	 * @param x
+	 *            the x coordinate of the lower station button
+	 * @param y
+	 *            the y coordinate of the lower station button
+	 * @param z
+	 *            the z coordinate of the lower station button
+	 * @return the station's direction, or <code>null</code> if there is no valid station
+	 */
+	BlockFace getStationFace(World world, int x, int y, int z) {
+		long position = BlockPositions.pack(x, y, z);
+		WorldIndex worldIndex = this.getWorldIndex(world);
+		if (worldIndex != null) {
+			byte state = worldIndex.stationStates.get(position);
+			if (state != 0) {
+				return STATE_FACES[state];
+			}
+		} else {
+			worldIndex = this.getOrCreateWorldIndex(WorldRegistry.getWorldId(world));
+		}
+
+		// validate and cache:
+		long startNanos = System.nanoTime();
+		BlockFace stationFace = StationStructure.detectStationFace(world.getBlockAt(x, y, z));
+		metrics.stationDetection.recordSince(startNanos);
+		if (stationFace == null) {
+			metrics.invalidStations.increment();
+		}
+		if (worldIndex.stationStates.size() >= MAX_CACHED_STATES_PER_WORLD) {
+			worldIndex.stationStates.clear();
+		}
+		worldIndex.stationStates.put(position, stationFace != null ? FACE_STATES[stationFace.ordinal()] : NO_STATION);
+		return stationFace;
+	}
+
+	BlockFace getStationFace(Block lowerButton) {
+		return this.getStationFace(lowerButton.getWorld(), lowerButton.getX(), lowerButton.getY(), lowerButton.getZ());
+	}
+
+	/**
+	 * Validates the station structure for the lower station button at the given coordinates again, ignoring any cached
+	 * validation result, and caches the new result.
+	 * 
+	 * <p>
+	 * This accesses the blocks, and is therefore only meant for stations inside loaded chunks.
+	 * </p>
+	 * 
+	 * @param world
+	 *            the world
+	 * @param x
+	 *            the x coordinate of the lower station button
+	 * @param y
+	 *            the y coordinate of the lower station button
+	 * @param z
+	 *            the z coordinate of the lower station button
+	 * @return the station's direction, or <code>null</code> if there is no valid station
+	 */
+	BlockFace revalidateStationFace(World world, int x, int y, int z) {
+		WorldIndex worldIndex = this.getWorldIndex(world);
+		if (worldIndex != null) {
+			worldIndex.stationStates.remove(BlockPositions.pack(x, y, z));
+		}
+		return this.getStationFace(world, x, y, z);
+	}
+
+	/**
+	 * Drops all cached validation results which might be affected by a change of the given block.
+	 * 
+	 * <p>
+	 * Known valid stations and spawn stations whose footprint contains the given block are remembered for
+	 * {@link #validatePending()}.
+	 * </p>
+	 * 
+	 * @param block
+	 *            the changed block
+	 * @return <code>true</code> if a known valid station or spawn station is affected
+	 */
+	boolean invalidate(Block block) {
+		WorldIndex worldIndex = this.getWorldIndex(block.getWorld());
+		if (worldIndex == null) return false;
+		int x = block.getX();
+		int y = block.getY();
+		int z = block.getZ();
+
+		boolean affected = false;
+		// the changed block might be the lower button, the emerald block below it or the upper button above it:
+		affected |= this.invalidate(worldIndex, x, y, z);
+		affected |= this.invalidate(worldIndex, x, y + 1, z);
+		affected |= this.invalidate(worldIndex, x, y - 1, z);
+		// or one of the lapis blocks or the redstone block next to the buttons:
+		for (BlockFace face : HORIZONTAL_FACES) {
+			int buttonX = x - face.getModX();
+			int buttonZ = z - face.getModZ();
+			affected |= this.invalidate(worldIndex, buttonX, y, buttonZ);
+			affected |= this.invalidate(worldIndex, buttonX, y - 1, buttonZ);
+			affected |= this.invalidate(worldIndex, buttonX, y - 2, buttonZ);
+		}
+		return affected;
+	}
+
+	private boolean invalidate(WorldIndex worldIndex, int x, int y, int z) {
+		long position = BlockPositions.pack(x, y, z);
+		byte state = worldIndex.stationStates.remove(position);
+		if ((state != 0 && state != NO_STATION) || worldIndex.spawnStations.containsKey(position)) {
+			worldIndex.pendingValidations.put(position, (byte) 1);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Validates all known stations which got affected by block changes since the last call.
+	 * 
+	 * <p>
+	 * This is meant to be called after the block changes have been applied to the world. Stations inside unloaded
+	 * chunks are skipped; they get validated again once they are used.
+	 * </p>
+	 * 
+	 * @return the lower station button locations of the affected stations which are no longer valid
+	 */
+	List<SoftBlockLocation> validatePending() {
+		List<SoftBlockLocation> invalidStations = new ArrayList<>();
+		for (int worldId = 0; worldId < worlds.length; worldId++) {
+			WorldIndex worldIndex = worlds[worldId];
+			if (worldIndex == null || worldIndex.pendingValidations.isEmpty()) continue;
+			World world = WorldRegistry.getWorld(worldId);
+			if (world != null) {
+				worldIndex.pendingValidations.forEachKey(position -> {
+					int x = BlockPositions.getX(position);
+					int y = BlockPositions.getY(position);
+					int z = BlockPositions.getZ(position);
+					if (!world.isChunkLoaded(x >> 4, z >> 4)) return;
+					if (this.getStationFace(world, x, y, z) == null) {
+						invalidStations.add(new SoftBlockLocation(world, x, y, z));
+					}
+				});
+			}
+			worldIndex.pendingValidations.clear();
+		}
+		return invalidStations;
+	}
+
+	/**
+	 * Drops all cached validation results.
+	 */
+	void invalidateAll() {
+		for (WorldIndex worldIndex : worlds) {
+			if (worldIndex == null) continue;
+			worldIndex.stationStates.clear();
+		}
+	}
+
+	// SPAWN STATIONS
+
+	/**
+	 * Replaces the indexed spawn stations.
+	 * 
+	 * @param spawnStations
+	 *            the lower station button locations of the spawn stations
+	 */
+	void setSpawnStations(Collection<SoftBlockLocation> spawnStations) {
+		for (WorldIndex worldIndex : worlds) {
+			if (worldIndex == null) continue;
+			worldIndex.spawnStations.clear();
+		}
+		for (SoftBlockLocation spawnStation : spawnStations) {
+			WorldIndex worldIndex = this.getOrCreateWorldIndex(spawnStation.getWorldId());
+			worldIndex.spawnStations.put(spawnStation.getPosition(), (byte) 1);
+		}
+		// cleanup empty world indices:
+		for (int worldId = 0; worldId < worlds.length; worldId++) {
+			WorldIndex worldIndex = worlds[worldId];
+			if (worldIndex != null && worldIndex.isEmpty()) {
+				worlds[worldId] = null;
+			}
+		}
+	}
+
+	/**
+	 * Checks if the lower station button at the given coordinates belongs to a spawn station.
+	 * 
+	 * @param world
+	 *            the world
+	 * @param x
+	 *            the x coordinate of the lower station button
+	 * @param y
+	 *            the y coordinate of the lower station button
+	 * @param z
+	 *            the z coordinate of the lower station button
+	 * @return <code>true</code> if this is a spawn station
+	 */
+	boolean isSpawnStation(World world, int x, int y, int z) {
+		WorldIndex worldIndex = this.getWorldIndex(world);
+		return worldIndex != null && worldIndex.spawnStations.containsKey(BlockPositions.pack(x, y, z));
+	}
+}
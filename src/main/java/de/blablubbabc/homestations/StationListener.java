@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.Bukkit;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+
+import de.blablubbabc.homestations.utils.SoftBlockLocation;
+
+/**
+ * Keeps the cached station states up-to-date by reacting to block changes.
+ * 
+ * <p>
+ * Block change events get called before the change is applied to the world. Affected known stations are therefore
+ * validated again one tick later.
+ * </p>
+ */
+class StationListener implements Listener {
+
+	private final HomeStations plugin;
+	private final StationIndex stationIndex;
+
+	private boolean validationPending = false;
+	// players who broke blocks of known stations since the last validation:
+	private final List<Player> breakers = new ArrayList<>();
+
+	StationListener(HomeStations plugin, StationIndex stationIndex) {
+		this.plugin = plugin;
+		this.stationIndex = stationIndex;
+	}
+
+	void onDisable() {
+		validationPending = false;
+		breakers.clear();
+	}
+
+	private boolean onBlockChange(Block block) {
+		if (stationIndex.invalidate(block)) {
+			this.scheduleValidation();
+			return true;
+		}
+		return false;
+	}
+
+	private void onBlockChanges(List<Block> blocks) {
+		for (Block block : blocks) {
+			this.onBlockChange(block);
+		}
+	}
+
+	private void scheduleValidation() {
+		if (validationPending) return;
+		validationPending = true;
+		Bukkit.getScheduler().runTask(plugin, new Runnable() {
+
+			@Override
+			public void run() {
+				validatePending();
+			}
+		});
+	}
+
+	private void validatePending() {
+		if (!validationPending) return; // disabled in the meantime
+		validationPending = false;
+		List<SoftBlockLocation> invalidStations = stationIndex.validatePending();
+		if (!invalidStations.isEmpty()) {
+			plugin.onStationsDestroyed(invalidStations, breakers);
+		}
+		breakers.clear();
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	void onBlockBreak(BlockBreakEvent event) {
+		if (this.onBlockChange(event.getBlock())) {
+			Player player = event.getPlayer();
+			if (!breakers.contains(player)) {
+				breakers.add(player);
+			}
+		}
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	void onBlockPlace(BlockPlaceEvent event) {
+		this.onBlockChange(event.getBlock());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	void onBlockBurn(BlockBurnEvent event) {
+		this.onBlockChange(event.getBlock());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	void onBlockFromTo(BlockFromToEvent event) {
+		// flowing liquids wash away buttons:
+		this.onBlockChange(event.getToBlock());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	void onEntityChangeBlock(EntityChangeBlockEvent event) {
+		this.onBlockChange(event.getBlock());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	void onEntityExplode(EntityExplodeEvent event) {
+		this.onBlockChanges(event.blockList());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	void onBlockExplode(BlockExplodeEvent event) {
+		this.onBlockChanges(event.blockList());
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	void onPistonExtend(BlockPistonExtendEvent event) {
+		BlockFace direction = event.getDirection();
+		// the piston head:
+		this.onBlockChange(event.getBlock().getRelative(direction));
+		// moved blocks and their destinations:
+		for (Block block : event.getBlocks()) {
+			this.onBlockChange(block);
+			this.onBlockChange(block.getRelative(direction));
+		}
+	}
+
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	void onPistonRetract(BlockPistonRetractEvent event) {
+		BlockFace direction = event.getDirection();
+		// the piston head:
+		this.onBlockChange(event.getBlock().getRelative(direction));
+		this.onBlockChange(event.getBlock().getRelative(direction.getOppositeFace()));
+		// moved blocks and their destinations (the reported direction differs between server versions):
+		for (Block block : event.getBlocks()) {
+			this.onBlockChange(block);
+			this.onBlockChange(block.getRelative(direction));
+			this.onBlockChange(block.getRelative(direction.getOppositeFace()));
+		}
+	}
+}
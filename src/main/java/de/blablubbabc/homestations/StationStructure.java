@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations;
+
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+
+import de.blablubbabc.homestations.utils.Utils;
+
+/**
+ * Validates the block structure of stations.
+ * 
+ * <p>
+ * A station consists of an emerald block with two buttons on top of each other above it. Both buttons are attached to
+ * two lapis blocks, with a redstone block on top of those.
+ * </p>
+ */
+class StationStructure {
+
+	private StationStructure() {
+	}
+
+	/**
+	 * Validates the station structure for the given lower station button, without using any cache.
+	 * 
+	 * @param buttonB
+	 *            the lower station button
+	 * @return the station's direction, or <code>null</code> if there is no valid station
+	 */
+	static BlockFace detectStationFace(Block buttonB) {
+		if (!Utils.isButton(buttonB.getType())) {
+			return null;
+		}
+		Block emerald = buttonB.getRelative(BlockFace.DOWN);
+		if (emerald.getType() != Material.EMERALD_BLOCK) {
+			return null;
+		}
+		Block buttonT = buttonB.getRelative(BlockFace.UP);
+		if (!Utils.isButton(buttonT.getType())) {
+			return null;
+		}
+		// both buttons have to be attached to the lapis blocks, which are located on top of each other:
+		BlockFace stationDirection = Utils.getAttachedFace(buttonB.getBlockData());
+		if (stationDirection == null || stationDirection == BlockFace.UP || stationDirection == BlockFace.DOWN) {
+			return null;
+		}
+		if (Utils.getAttachedFace(buttonT.getBlockData()) != stationDirection) {
+			return null;
+		}
+
+		Block lapisB = buttonB.getRelative(stationDirection);
+		if (lapisB.getType() != Material.LAPIS_BLOCK) {
+			return null;
+		}
+		Block lapisT = lapisB.getRelative(BlockFace.UP);
+		if (lapisT.getType() != Material.LAPIS_BLOCK) {
+			return null;
+		}
+		Block redstone = lapisT.getRelative(BlockFace.UP);
+		if (redstone.getType() != Material.REDSTONE_BLOCK) {
+			return null;
+		}
+
+		return stationDirection;
+	}
+}
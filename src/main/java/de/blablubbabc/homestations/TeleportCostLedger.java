@@ -0,0 +1,441 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import de.blablubbabc.homestations.external.EconomyController;
+import de.blablubbabc.homestations.external.EconomyController.TransactionCallback;
+
+/**
+ * Collects teleport costs in a local journal and settles them with the economy in batches.
+ *
+ * <p>
+ * Reserving costs appends a record to an append-only journal file and adds the amount to the player's outstanding
+ * amount. Outstanding amounts are periodically settled with a single transaction per player, as well as once a player
+ * quits. On startup the journal is replayed, so amounts which weren't settled before a crash or shutdown are settled
+ * afterwards.
+ * </p>
+ *
+ * <p>
+ * A settlement is recorded in the journal before the transaction is started, and reverted if the transaction fails. If
+ * the server crashes while a transaction is in progress, its amount is therefore lost rather than charged twice. Every
+ * record is protected by a checksum, and an incomplete or corrupted tail is discarded on startup.
+ * </p>
+ *
+ * <p>
+ * Has to be used from the main thread.
+ * </p>
+ */
+class TeleportCostLedger {
+
+	private static final int MAGIC = 0x4853544C; // "HSTL"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+
+	private static final byte RECORD_RESERVE = 1;
+	private static final byte RECORD_SETTLE = 2;
+
+	// type, uuid, amount, checksum:
+	private static final int RECORD_SIZE = 1 + 16 + 8 + 4;
+
+	// the journal is rewritten once it contains more than this many records ..
+	private static final int COMPACTION_MIN_RECORDS = 1024;
+	// .. and the records outnumber the players with outstanding amounts by this factor:
+	private static final int COMPACTION_RECORDS_PER_PLAYER = 4;
+
+	private final Plugin plugin;
+	private final Logger logger;
+	private final EconomyController economyController;
+	private final File file;
+
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+	private long endOffset = HEADER_SIZE;
+	private long recordCount = 0L;
+
+	// player id -> outstanding amount, positive if the player owes money:
+	private final Map<UUID, Double> outstanding = new HashMap<>();
+	// player id -> amount which is currently being settled:
+	private final Map<UUID, Double> settling = new HashMap<>();
+
+	private boolean enabled = false;
+	private BukkitTask settlementTask = null;
+
+	private final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_SIZE);
+	private final CRC32 crc = new CRC32();
+
+	// statistics:
+	private long reservations = 0L;
+	private long settlements = 0L;
+	private long failedSettlements = 0L;
+
+	TeleportCostLedger(Plugin plugin, EconomyController economyController, File file) {
+		this.plugin = plugin;
+		this.logger = plugin.getLogger();
+		this.economyController = economyController;
+		this.file = file;
+	}
+
+	/**
+	 * Opens the journal and replays the outstanding amounts of a previous run.
+	 *
+	 * @throws IOException
+	 *             if the journal cannot be read or created
+	 */
+	void open() throws IOException {
+		if (channel != null) return;
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) parent.mkdirs();
+
+		boolean newFile = !file.exists() || file.length() == 0L;
+		if (!newFile) {
+			this.replay();
+		}
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		channel = randomAccessFile.getChannel();
+		if (newFile) {
+			this.writeHeader(channel);
+			endOffset = HEADER_SIZE;
+		} else if (channel.size() > endOffset) {
+			logger.warning("Teleport cost journal \"" + file.getPath() + "\" ends with " + (channel.size() - endOffset)
+					+ " bytes of incomplete or corrupted data. Discarding them now.");
+			channel.truncate(endOffset);
+		}
+		if (!outstanding.isEmpty()) {
+			logger.info("Found outstanding teleport costs of " + outstanding.size() + " players. Settling them shortly.");
+		}
+	}
+
+	// reads the whole journal and sums up the outstanding amounts:
+	private void replay() throws IOException {
+		outstanding.clear();
+		recordCount = 0L;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (file.length() < HEADER_SIZE || in.readInt() != MAGIC) {
+				throw new IOException("Not a teleport cost journal: " + file.getPath());
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported teleport cost journal version: " + version);
+			}
+			endOffset = HEADER_SIZE;
+
+			byte[] record = new byte[RECORD_SIZE];
+			ByteBuffer buffer = ByteBuffer.wrap(record);
+			try {
+				while (true) {
+					in.readFully(record);
+					crc.reset();
+					crc.update(record, 0, RECORD_SIZE - 4);
+					if ((int) crc.getValue() != buffer.getInt(RECORD_SIZE - 4)) break; // corrupted
+
+					byte type = record[0];
+					double amount = buffer.getDouble(17);
+					if (type == RECORD_SETTLE) {
+						amount = -amount;
+					} else if (type != RECORD_RESERVE) {
+						break; // corrupted
+					}
+					this.addOutstanding(new UUID(buffer.getLong(1), buffer.getLong(9)), amount);
+					recordCount++;
+					endOffset += RECORD_SIZE;
+				}
+			} catch (EOFException e) {
+				// incomplete last record: endOffset still points to the end of the last complete record
+			}
+		}
+	}
+
+	private void writeHeader(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).flip();
+		writeFully(channel, header, 0L);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private void fillRecord(byte type, UUID playerId, double amount) {
+		recordBuffer.clear();
+		recordBuffer.put(type).putLong(playerId.getMostSignificantBits()).putLong(playerId.getLeastSignificantBits()).putDouble(amount);
+		crc.reset();
+		crc.update(recordBuffer.array(), 0, RECORD_SIZE - 4);
+		recordBuffer.putInt((int) crc.getValue());
+		recordBuffer.flip();
+	}
+
+	private void append(byte type, UUID playerId, double amount) throws IOException {
+		if (channel == null) {
+			throw new IOException("Teleport cost journal is closed!");
+		}
+		this.fillRecord(type, playerId, amount);
+		writeFully(channel, recordBuffer, endOffset);
+		endOffset += RECORD_SIZE;
+		recordCount++;
+	}
+
+	private void addOutstanding(UUID playerId, double amount) {
+		double newAmount = outstanding.getOrDefault(playerId, 0.0D) + amount;
+		if (newAmount == 0.0D) {
+			outstanding.remove(playerId);
+		} else {
+			outstanding.put(playerId, newAmount);
+		}
+	}
+
+	/**
+	 * Sets whether teleport costs get reserved in the ledger, and starts settling outstanding amounts periodically.
+	 *
+	 * <p>
+	 * Outstanding amounts are settled even if the ledger is disabled.
+	 * </p>
+	 *
+	 * @param enabled
+	 *            <code>true</code> to reserve teleport costs in the ledger
+	 * @param intervalTicks
+	 *            the time in ticks between two settlements
+	 */
+	void start(boolean enabled, long intervalTicks) {
+		this.enabled = enabled;
+		if (settlementTask != null) {
+			settlementTask.cancel();
+			settlementTask = null;
+		}
+		if (channel == null) return;
+		intervalTicks = Math.max(1L, intervalTicks);
+		// the first run settles the amounts of the previous run:
+		settlementTask = Bukkit.getScheduler().runTaskTimer(plugin, this::settleAll, 1L, intervalTicks);
+	}
+
+	boolean isOpen() {
+		return channel != null;
+	}
+
+	/**
+	 * Checks if teleport costs should currently be reserved in the ledger.
+	 *
+	 * @return <code>true</code> if the ledger is enabled
+	 */
+	boolean isEnabled() {
+		return enabled && channel != null;
+	}
+
+	/**
+	 * Gets the amount the given player owes which hasn't been settled yet, including amounts which are currently
+	 * being settled.
+	 *
+	 * @param playerId
+	 *            the player id
+	 * @return the unsettled amount
+	 */
+	double getUnsettled(UUID playerId) {
+		return outstanding.getOrDefault(playerId, 0.0D) + settling.getOrDefault(playerId, 0.0D);
+	}
+
+	/**
+	 * Reserves the given amount for the given player.
+	 *
+	 * <p>
+	 * This doesn't check whether the player can afford the amount.
+	 * </p>
+	 *
+	 * @param playerId
+	 *            the player id
+	 * @param amount
+	 *            the amount the player owes, negative if the player receives money
+	 * @return <code>true</code> if the amount was recorded
+	 */
+	boolean reserve(UUID playerId, double amount) {
+		if (amount == 0.0D) return true;
+		try {
+			this.append(RECORD_RESERVE, playerId, amount);
+		} catch (IOException e) {
+			logger.severe("Unable to write to the teleport cost journal: " + e.getMessage());
+			return false;
+		}
+		this.addOutstanding(playerId, amount);
+		reservations++;
+		return true;
+	}
+
+	/**
+	 * Settles the outstanding amount of the given player, unless a settlement is already in progress.
+	 *
+	 * @param playerId
+	 *            the player id
+	 */
+	void settle(UUID playerId) {
+		if (settling.containsKey(playerId)) return;
+		Double amount = outstanding.get(playerId);
+		if (amount == null || !economyController.hasEconomy()) return;
+
+		// record the settlement before starting the transaction:
+		try {
+			this.append(RECORD_SETTLE, playerId, amount);
+			channel.force(false);
+		} catch (IOException e) {
+			logger.severe("Unable to write to the teleport cost journal: " + e.getMessage());
+			return;
+		}
+		outstanding.remove(playerId);
+		settling.put(playerId, amount);
+
+		economyController.applyChange(Bukkit.getOfflinePlayer(playerId), -amount, new TransactionCallback() {
+
+			@Override
+			public boolean onSuccess(double balance) {
+				settling.remove(playerId);
+				settlements++;
+				return true;
+			}
+
+			@Override
+			public void onFailure(String error) {
+				settling.remove(playerId);
+				failedSettlements++;
+				logger.warning("Unable to settle teleport costs of " + amount + " for player " + playerId + ": " + error);
+				// revert the settlement, so that it gets retried later:
+				if (channel == null || !reserve(playerId, amount)) {
+					logger.severe("Teleport costs of " + amount + " for player " + playerId + " are lost.");
+				}
+			}
+		});
+	}
+
+	/**
+	 * Settles the outstanding amounts of all players.
+	 */
+	void settleAll() {
+		if (channel == null) return;
+		this.compactIfNeeded();
+		if (outstanding.isEmpty()) return;
+		for (UUID playerId : new ArrayList<>(outstanding.keySet())) {
+			this.settle(playerId);
+		}
+	}
+
+	private void compactIfNeeded() {
+		if (recordCount == 0L || !settling.isEmpty()) return;
+		try {
+			if (outstanding.isEmpty()) {
+				// everything is settled, start over:
+				channel.truncate(HEADER_SIZE);
+				channel.force(false);
+				endOffset = HEADER_SIZE;
+				recordCount = 0L;
+			} else if (recordCount > COMPACTION_MIN_RECORDS && recordCount > (long) outstanding.size() * COMPACTION_RECORDS_PER_PLAYER) {
+				this.compact();
+			}
+		} catch (IOException e) {
+			logger.warning("Unable to compact the teleport cost journal: " + e.getMessage());
+		}
+	}
+
+	// rewrites the journal with a single record per player with an outstanding amount:
+	private void compact() throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+		long offset = HEADER_SIZE;
+		try (RandomAccessFile tempRandomAccessFile = new RandomAccessFile(tempFile, "rw")) {
+			tempRandomAccessFile.setLength(0L);
+			FileChannel tempChannel = tempRandomAccessFile.getChannel();
+			this.writeHeader(tempChannel);
+			for (Map.Entry<UUID, Double> entry : outstanding.entrySet()) {
+				this.fillRecord(RECORD_RESERVE, entry.getKey(), entry.getValue());
+				writeFully(tempChannel, recordBuffer, offset);
+				offset += RECORD_SIZE;
+			}
+			tempChannel.force(true);
+		} catch (IOException e) {
+			tempFile.delete();
+			throw e;
+		}
+
+		// swap files:
+		randomAccessFile.close();
+		randomAccessFile = null;
+		channel = null;
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			randomAccessFile = new RandomAccessFile(file, "rw");
+			channel = randomAccessFile.getChannel();
+			endOffset = channel.size();
+		}
+		recordCount = outstanding.size();
+	}
+
+	/**
+	 * Stops the periodic settlements and closes the journal.
+	 *
+	 * <p>
+	 * If the economy can be used synchronously, outstanding amounts are settled right away. Otherwise they remain in
+	 * the journal and get settled after the next startup.
+	 * </p>
+	 */
+	void close() {
+		if (settlementTask != null) {
+			settlementTask.cancel();
+			settlementTask = null;
+		}
+		if (channel != null && economyController.isEnabled() && !economyController.isAsyncTransactions()) {
+			this.settleAll();
+			this.compactIfNeeded();
+		}
+		if (randomAccessFile != null) {
+			try {
+				channel.force(false);
+				randomAccessFile.close();
+			} catch (IOException e) {
+				logger.warning("Unable to close the teleport cost journal: " + e.getMessage());
+			}
+			randomAccessFile = null;
+			channel = null;
+		}
+		enabled = false;
+		outstanding.clear();
+		settling.clear();
+	}
+
+	int getOutstandingCount() {
+		return outstanding.size();
+	}
+
+	long getReservations() {
+		return reservations;
+	}
+
+	long getSettlements() {
+		return settlements;
+	}
+
+	long getFailedSettlements() {
+		return failedSettlements;
+	}
+}
@@ -0,0 +1,297 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import de.blablubbabc.homestations.utils.LongLongHashMap;
+import de.blablubbabc.homestations.utils.SoftBlockLocation;
+
+/**
+ * Limits how often teleports can be requested.
+ *
+ * <p>
+ * A teleport request is denied if the player or the used station is still on cooldown, if too many teleports are
+ * currently in flight, or if the global token bucket is empty. Cooldowns are stored as their end times in primitive
+ * hash maps: players are keyed by their folded unique id, and stations by their packed position, per world.
+ * </p>
+ *
+ * <p>
+ * Requests are first {@link #check(UUID, SoftBlockLocation) checked} without any side effects. The cooldowns only
+ * start, and a token and an in-flight slot are only taken, once the teleport is certain to happen, so that confirmation
+ * prompts and failed requests don't count as teleports. The in-flight slot is taken before any teleport costs get
+ * withdrawn, so that teleports which are waiting for slow economy transactions count as in flight as well.
+ * </p>
+ *
+ * <p>
+ * Has to be used from the main thread.
+ * </p>
+ */
+class TeleportLimiter {
+
+	enum Result {
+		ALLOWED,
+		PLAYER_COOLDOWN,
+		STATION_COOLDOWN,
+		IN_FLIGHT_LIMIT,
+		RATE_LIMIT;
+	}
+
+	// expired cooldowns get removed at most once within this time:
+	private static final long CLEANUP_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+	private long playerCooldownMillis = 0L;
+	private long stationCooldownMillis = 0L;
+	private int maxInFlight = 0;
+	private double tokensPerSecond = 0.0D;
+	private double maxTokens = 1.0D;
+
+	// folded player id -> end of cooldown
+	private final LongLongHashMap playerCooldowns = new LongLongHashMap();
+	// world id -> packed station position -> end of cooldown
+	private LongLongHashMap[] stationCooldowns = new LongLongHashMap[0];
+	private long lastCleanup = 0L;
+
+	private int inFlight = 0;
+	private double tokens = 0.0D;
+	private long lastRefillNanos = System.nanoTime();
+
+	// statistics:
+	private long allowed = 0L;
+	private long deniedPlayerCooldown = 0L;
+	private long deniedStationCooldown = 0L;
+	private long deniedInFlight = 0L;
+	private long deniedRateLimit = 0L;
+
+	/**
+	 * Sets up the limits, <code>0</code> disables the respective limit.
+	 *
+	 * @param playerCooldownMillis
+	 *            the cooldown in milliseconds between two teleports of the same player
+	 * @param stationCooldownMillis
+	 *            the cooldown in milliseconds between two teleports from the same station
+	 * @param maxInFlight
+	 *            the maximum number of teleports in flight
+	 * @param tokensPerSecond
+	 *            the number of teleports per second
+	 * @param burst
+	 *            the number of teleports that can be started at once
+	 */
+	void setup(long playerCooldownMillis, long stationCooldownMillis, int maxInFlight, double tokensPerSecond, int burst) {
+		this.playerCooldownMillis = Math.max(0L, playerCooldownMillis);
+		this.stationCooldownMillis = Math.max(0L, stationCooldownMillis);
+		this.maxInFlight = Math.max(0, maxInFlight);
+		this.tokensPerSecond = Math.max(0.0D, tokensPerSecond);
+		this.maxTokens = Math.max(1, burst);
+		this.tokens = maxTokens;
+		this.lastRefillNanos = System.nanoTime();
+		if (this.playerCooldownMillis == 0L) playerCooldowns.clear();
+		if (this.stationCooldownMillis == 0L) stationCooldowns = new LongLongHashMap[0];
+	}
+
+	/**
+	 * Checks if the given player may teleport from the given station, without starting any cooldowns or taking a token.
+	 *
+	 * @param playerId
+	 *            the player id
+	 * @param station
+	 *            the used station
+	 * @return the result
+	 */
+	Result check(UUID playerId, SoftBlockLocation station) {
+		long now = System.currentTimeMillis();
+		this.cleanup(now);
+		return this.evaluate(getPlayerKey(playerId), station, now);
+	}
+
+	/**
+	 * Checks if the given player may teleport from the given station, and if so, starts the cooldowns and takes a
+	 * token and an in-flight slot.
+	 *
+	 * <p>
+	 * The in-flight slot is freed again by either {@link #release(UUID, SoftBlockLocation)} or {@link #onTeleportEnd()}.
+	 * </p>
+	 *
+	 * @param playerId
+	 *            the player id
+	 * @param station
+	 *            the used station
+	 * @return the result
+	 */
+	Result tryAcquire(UUID playerId, SoftBlockLocation station) {
+		long now = System.currentTimeMillis();
+		this.cleanup(now);
+		long playerKey = getPlayerKey(playerId);
+		Result result = this.evaluate(playerKey, station, now);
+		if (result != Result.ALLOWED) return result;
+
+		if (tokensPerSecond > 0.0D) {
+			tokens -= 1.0D;
+		}
+		if (playerCooldownMillis > 0L) {
+			playerCooldowns.put(playerKey, now + playerCooldownMillis);
+		}
+		if (stationCooldownMillis > 0L) {
+			this.getOrCreateStationCooldowns(station.getWorldId()).put(station.getPosition(), now + stationCooldownMillis);
+		}
+		inFlight++;
+		allowed++;
+		return Result.ALLOWED;
+	}
+
+	/**
+	 * Reverts a successful {@link #tryAcquire(UUID, SoftBlockLocation)}, if the teleport could not be started after
+	 * all: ends the cooldowns, returns the token and frees the in-flight slot.
+	 *
+	 * @param playerId
+	 *            the player id
+	 * @param station
+	 *            the used station
+	 */
+	void release(UUID playerId, SoftBlockLocation station) {
+		if (tokensPerSecond > 0.0D) {
+			tokens = Math.min(maxTokens, tokens + 1.0D);
+		}
+		if (playerCooldownMillis > 0L) {
+			playerCooldowns.remove(getPlayerKey(playerId));
+		}
+		int worldId = station.getWorldId();
+		if (worldId < stationCooldowns.length && stationCooldowns[worldId] != null) {
+			stationCooldowns[worldId].remove(station.getPosition());
+		}
+		if (inFlight > 0) inFlight--;
+		if (allowed > 0L) allowed--;
+	}
+
+	// checks the limits and counts denied requests, but doesn't start any cooldowns or take a token:
+	private Result evaluate(long playerKey, SoftBlockLocation station, long now) {
+		if (playerCooldownMillis > 0L && playerCooldowns.get(playerKey) > now) {
+			deniedPlayerCooldown++;
+			return Result.PLAYER_COOLDOWN;
+		}
+
+		if (stationCooldownMillis > 0L) {
+			int worldId = station.getWorldId();
+			if (worldId < stationCooldowns.length && stationCooldowns[worldId] != null
+					&& stationCooldowns[worldId].get(station.getPosition()) > now) {
+				deniedStationCooldown++;
+				return Result.STATION_COOLDOWN;
+			}
+		}
+
+		if (maxInFlight > 0 && inFlight >= maxInFlight) {
+			deniedInFlight++;
+			return Result.IN_FLIGHT_LIMIT;
+		}
+
+		if (tokensPerSecond > 0.0D) {
+			this.refill();
+			if (tokens < 1.0D) {
+				deniedRateLimit++;
+				return Result.RATE_LIMIT;
+			}
+		}
+		return Result.ALLOWED;
+	}
+
+	private static long getPlayerKey(UUID playerId) {
+		return playerId.getMostSignificantBits() ^ playerId.getLeastSignificantBits();
+	}
+
+	/**
+	 * Gets the remaining cooldown of the given player.
+	 *
+	 * @param playerId
+	 *            the player id
+	 * @return the remaining cooldown in milliseconds
+	 */
+	long getRemainingPlayerCooldown(UUID playerId) {
+		long end = playerCooldowns.get(getPlayerKey(playerId));
+		return Math.max(0L, end - System.currentTimeMillis());
+	}
+
+	/**
+	 * Gets the remaining cooldown of the given station.
+	 *
+	 * @param station
+	 *            the station
+	 * @return the remaining cooldown in milliseconds
+	 */
+	long getRemainingStationCooldown(SoftBlockLocation station) {
+		int worldId = station.getWorldId();
+		if (worldId >= stationCooldowns.length || stationCooldowns[worldId] == null) return 0L;
+		long end = stationCooldowns[worldId].get(station.getPosition());
+		return Math.max(0L, end - System.currentTimeMillis());
+	}
+
+	// called when a teleport has finished, frees the in-flight slot taken by tryAcquire:
+	void onTeleportEnd() {
+		if (inFlight > 0) inFlight--;
+	}
+
+	private void refill() {
+		long nowNanos = System.nanoTime();
+		double elapsedSeconds = (nowNanos - lastRefillNanos) / 1.0E9D;
+		lastRefillNanos = nowNanos;
+		tokens = Math.min(maxTokens, tokens + elapsedSeconds * tokensPerSecond);
+	}
+
+	private LongLongHashMap getOrCreateStationCooldowns(int worldId) {
+		if (worldId >= stationCooldowns.length) {
+			stationCooldowns = Arrays.copyOf(stationCooldowns, worldId + 1);
+		}
+		LongLongHashMap worldStationCooldowns = stationCooldowns[worldId];
+		if (worldStationCooldowns == null) {
+			worldStationCooldowns = new LongLongHashMap();
+			stationCooldowns[worldId] = worldStationCooldowns;
+		}
+		return worldStationCooldowns;
+	}
+
+	// removes expired cooldowns:
+	private void cleanup(long now) {
+		if (now - lastCleanup < CLEANUP_INTERVAL_MILLIS) return;
+		lastCleanup = now;
+		playerCooldowns.removeIfValue(end -> end <= now);
+		for (LongLongHashMap worldStationCooldowns : stationCooldowns) {
+			if (worldStationCooldowns != null) {
+				worldStationCooldowns.removeIfValue(end -> end <= now);
+			}
+		}
+	}
+
+	void clear() {
+		playerCooldowns.clear();
+		stationCooldowns = new LongLongHashMap[0];
+		inFlight = 0;
+		tokens = maxTokens;
+	}
+
+	int getInFlight() {
+		return inFlight;
+	}
+
+	long getAllowed() {
+		return allowed;
+	}
+
+	long getDeniedPlayerCooldown() {
+		return deniedPlayerCooldown;
+	}
+
+	long getDeniedStationCooldown() {
+		return deniedStationCooldown;
+	}
+
+	long getDeniedInFlight() {
+		return deniedInFlight;
+	}
+
+	long getDeniedRateLimit() {
+		return deniedRateLimit;
+	}
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.plugin.Plugin;
+
+import de.blablubbabc.homestations.utils.SoftBlockLocation;
+import de.blablubbabc.homestations.utils.WorldRegistry;
+
+/**
+ * Keeps the chunks of spawn stations and of the most recently used home stations loaded.
+ *
+ * <p>
+ * Depending on the server, chunks are kept loaded via plugin chunk tickets, by marking them as force loaded, or by
+ * cancelling their unloading. Only a limited number of home station chunks is kept loaded: once the limit is reached,
+ * the least recently used home station chunk is released.
+ * </p>
+ */
+class WarmChunkManager implements Listener {
+
+	private enum Mode {
+		// Chunk#addPluginChunkTicket(Plugin)
+		TICKETS,
+		// World#setChunkForceLoaded(int, int, boolean)
+		FORCE_LOADED,
+		// cancels ChunkUnloadEvent
+		CANCEL_UNLOAD;
+	}
+
+	private static final Mode MODE;
+	private static final Method ADD_PLUGIN_CHUNK_TICKET;
+	private static final Method REMOVE_PLUGIN_CHUNK_TICKET;
+	private static final Method IS_CHUNK_FORCE_LOADED;
+	private static final Method SET_CHUNK_FORCE_LOADED;
+	static {
+		Method addTicket = getMethod(Chunk.class, "addPluginChunkTicket", Plugin.class);
+		Method removeTicket = getMethod(Chunk.class, "removePluginChunkTicket", Plugin.class);
+		Method isForceLoaded = getMethod(World.class, "isChunkForceLoaded", int.class, int.class);
+		Method setForceLoaded = getMethod(World.class, "setChunkForceLoaded", int.class, int.class, boolean.class);
+		if (addTicket != null && removeTicket != null) {
+			MODE = Mode.TICKETS;
+		} else if (isForceLoaded != null && setForceLoaded != null) {
+			MODE = Mode.FORCE_LOADED;
+		} else {
+			MODE = Mode.CANCEL_UNLOAD;
+		}
+		ADD_PLUGIN_CHUNK_TICKET = addTicket;
+		REMOVE_PLUGIN_CHUNK_TICKET = removeTicket;
+		IS_CHUNK_FORCE_LOADED = isForceLoaded;
+		SET_CHUNK_FORCE_LOADED = setForceLoaded;
+	}
+
+	private static Method getMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+		try {
+			return type.getMethod(name, parameterTypes);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static final class ChunkKey {
+
+		private final int worldId;
+		private final int x;
+		private final int z;
+
+		ChunkKey(int worldId, int x, int z) {
+			this.worldId = worldId;
+			this.x = x;
+			this.z = z;
+		}
+
+		static ChunkKey of(SoftBlockLocation location) {
+			return new ChunkKey(location.getWorldId(), location.getX() >> 4, location.getZ() >> 4);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = 31 + worldId;
+			result = 31 * result + x;
+			result = 31 * result + z;
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof ChunkKey)) return false;
+			ChunkKey other = (ChunkKey) obj;
+			return worldId == other.worldId && x == other.x && z == other.z;
+		}
+
+		@Override
+		public String toString() {
+			return WorldRegistry.getWorldName(worldId) + ";" + x + ";" + z;
+		}
+	}
+
+	private final Plugin plugin;
+	private final ChunkLoader chunkLoader;
+
+	private boolean enabled = false;
+	private int maxHomeChunks = 16;
+
+	private final Set<ChunkKey> spawnChunks = new HashSet<>();
+	// access ordered, least recently used first:
+	private final LinkedHashMap<ChunkKey, Boolean> homeChunks = new LinkedHashMap<>(16, 0.75f, true);
+	// chunks which are currently kept loaded:
+	private final Set<ChunkKey> heldChunks = new HashSet<>();
+	// chunks which got force loaded by us:
+	private final Set<ChunkKey> forceLoadedChunks = new HashSet<>();
+
+	// statistics:
+	private long homeChunkHits = 0L;
+	private long homeChunkMisses = 0L;
+	private long homeChunkEvictions = 0L;
+	private long cancelledUnloads = 0L;
+
+	WarmChunkManager(Plugin plugin, ChunkLoader chunkLoader) {
+		this.plugin = plugin;
+		this.chunkLoader = chunkLoader;
+	}
+
+	/**
+	 * Enables or disables this manager.
+	 *
+	 * @param enabled
+	 *            <code>true</code> to keep chunks loaded
+	 * @param maxHomeChunks
+	 *            the maximum number of home station chunks to keep loaded
+	 */
+	void setup(boolean enabled, int maxHomeChunks) {
+		this.maxHomeChunks = Math.max(0, maxHomeChunks);
+		if (!enabled) {
+			this.disable();
+			return;
+		}
+		this.enabled = true;
+		this.evictHomeChunks();
+	}
+
+	/**
+	 * Releases all chunks.
+	 */
+	void disable() {
+		for (ChunkKey chunkKey : new ArrayList<>(heldChunks)) {
+			this.release(chunkKey);
+		}
+		spawnChunks.clear();
+		homeChunks.clear();
+		enabled = false;
+	}
+
+	String getModeName() {
+		return MODE.name();
+	}
+
+	int getHeldChunkCount() {
+		return heldChunks.size();
+	}
+
+	long getHomeChunkHits() {
+		return homeChunkHits;
+	}
+
+	long getHomeChunkMisses() {
+		return homeChunkMisses;
+	}
+
+	long getHomeChunkEvictions() {
+		return homeChunkEvictions;
+	}
+
+	long getCancelledUnloads() {
+		return cancelledUnloads;
+	}
+
+	/**
+	 * Updates the spawn stations whose chunks are kept loaded.
+	 *
+	 * @param spawnStations
+	 *            the spawn stations
+	 */
+	void setSpawnStations(Collection<SoftBlockLocation> spawnStations) {
+		if (!enabled) return;
+		Set<ChunkKey> newSpawnChunks = new HashSet<>();
+		for (SoftBlockLocation spawnStation : spawnStations) {
+			newSpawnChunks.add(ChunkKey.of(spawnStation));
+		}
+
+		for (ChunkKey chunkKey : spawnChunks) {
+			if (!newSpawnChunks.contains(chunkKey) && !homeChunks.containsKey(chunkKey)) {
+				this.release(chunkKey);
+			}
+		}
+		spawnChunks.clear();
+		spawnChunks.addAll(newSpawnChunks);
+		for (ChunkKey chunkKey : spawnChunks) {
+			this.hold(chunkKey);
+		}
+	}
+
+	/**
+	 * Records the use of the given station as teleport destination.
+	 *
+	 * @param destination
+	 *            the destination station
+	 */
+	void onTeleport(SoftBlockLocation destination) {
+		if (!enabled) return;
+		ChunkKey chunkKey = ChunkKey.of(destination);
+		if (spawnChunks.contains(chunkKey)) return;
+		if (maxHomeChunks == 0) return;
+
+		if (homeChunks.get(chunkKey) != null) {
+			// moved to the end of the access order:
+			homeChunkHits++;
+			return;
+		}
+		homeChunkMisses++;
+		homeChunks.put(chunkKey, Boolean.TRUE);
+		this.hold(chunkKey);
+		this.evictHomeChunks();
+	}
+
+	private void evictHomeChunks() {
+		Iterator<ChunkKey> iterator = homeChunks.keySet().iterator();
+		while (homeChunks.size() > maxHomeChunks && iterator.hasNext()) {
+			ChunkKey chunkKey = iterator.next();
+			iterator.remove();
+			homeChunkEvictions++;
+			if (!spawnChunks.contains(chunkKey)) {
+				this.release(chunkKey);
+			}
+		}
+	}
+
+	private void hold(ChunkKey chunkKey) {
+		if (!heldChunks.add(chunkKey)) return; // already held
+		this.apply(chunkKey);
+	}
+
+	// starts keeping the chunk loaded, if its world is loaded:
+	private void apply(ChunkKey chunkKey) {
+		if (MODE == Mode.CANCEL_UNLOAD) return; // handled by the unload listener
+		World world = WorldRegistry.getWorld(chunkKey.worldId);
+		if (world == null) return; // applied once the world gets loaded
+
+		chunkLoader.loadChunk(world, chunkKey.x, chunkKey.z, () -> {
+			// check if the chunk got released in the meantime:
+			if (!heldChunks.contains(chunkKey)) return;
+			try {
+				if (MODE == Mode.TICKETS) {
+					ADD_PLUGIN_CHUNK_TICKET.invoke(world.getChunkAt(chunkKey.x, chunkKey.z), plugin);
+				} else if (!forceLoadedChunks.contains(chunkKey) && !((Boolean) IS_CHUNK_FORCE_LOADED.invoke(world, chunkKey.x, chunkKey.z))) {
+					SET_CHUNK_FORCE_LOADED.invoke(world, chunkKey.x, chunkKey.z, true);
+					forceLoadedChunks.add(chunkKey);
+				}
+			} catch (ReflectiveOperationException e) {
+				plugin.getLogger().warning("Unable to keep chunk " + chunkKey + " loaded: " + e.getMessage());
+			}
+		});
+	}
+
+	private void release(ChunkKey chunkKey) {
+		if (!heldChunks.remove(chunkKey)) return; // not held
+		if (MODE == Mode.CANCEL_UNLOAD) return;
+		World world = WorldRegistry.getWorld(chunkKey.worldId);
+		if (world == null) {
+			forceLoadedChunks.remove(chunkKey);
+			return;
+		}
+		try {
+			if (MODE == Mode.TICKETS) {
+				// tickets are only held for loaded chunks:
+				if (world.isChunkLoaded(chunkKey.x, chunkKey.z)) {
+					REMOVE_PLUGIN_CHUNK_TICKET.invoke(world.getChunkAt(chunkKey.x, chunkKey.z), plugin);
+				}
+			} else if (forceLoadedChunks.remove(chunkKey)) {
+				SET_CHUNK_FORCE_LOADED.invoke(world, chunkKey.x, chunkKey.z, false);
+			}
+		} catch (ReflectiveOperationException e) {
+			plugin.getLogger().warning("Unable to release chunk " + chunkKey + ": " + e.getMessage());
+		}
+	}
+
+	@EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
+	void onChunkUnload(ChunkUnloadEvent event) {
+		if (MODE != Mode.CANCEL_UNLOAD || heldChunks.isEmpty()) return;
+		Chunk chunk = event.getChunk();
+		if (heldChunks.contains(new ChunkKey(WorldRegistry.getWorldId(event.getWorld()), chunk.getX(), chunk.getZ()))) {
+			event.setCancelled(true);
+			cancelledUnloads++;
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	void onWorldLoad(WorldLoadEvent event) {
+		if (heldChunks.isEmpty()) return;
+		int worldId = WorldRegistry.getWorldId(event.getWorld());
+		for (ChunkKey chunkKey : heldChunks) {
+			if (chunkKey.worldId == worldId) {
+				this.apply(chunkKey);
+			}
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	void onWorldUnload(WorldUnloadEvent event) {
+		// chunk tickets and force loaded states don't persist across world unloads:
+		int worldId = WorldRegistry.getWorldId(event.getWorld());
+		List<ChunkKey> unloaded = new ArrayList<>();
+		for (ChunkKey chunkKey : forceLoadedChunks) {
+			if (chunkKey.worldId == worldId) {
+				unloaded.add(chunkKey);
+			}
+		}
+		forceLoadedChunks.removeAll(unloaded);
+	}
+}
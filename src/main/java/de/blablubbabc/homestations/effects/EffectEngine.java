@@ -0,0 +1,480 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.effects;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.bukkit.Bukkit;
+import org.bukkit.FireworkEffect;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import de.blablubbabc.homestations.metrics.LatencyRecorder;
+
+/**
+ * Plays the teleport effect animations.
+ * 
+ * <p>
+ * All running animations are advanced by a single repeating task, which only runs while there are animations. The
+ * animation states are kept in parallel arrays. The number of concurrent animations and the number of effects played
+ * per world and tick are limited.
+ * </p>
+ * 
+ * <p>
+ * Effects without any player within view distance of the animation's column are skipped. The spacing between the
+ * effects of new animations is increased while many animations are running or while the server is running behind. The
+ * server's tick rate is estimated from the intervals between the engine's own runs, so it is only updated while
+ * animations are running.
+ * </p>
+ */
+public class EffectEngine implements Runnable {
+
+	// animation directions:
+	private static final byte UP = 0;
+	private static final byte DOWN = 1;
+
+	private static final double DOWN_EFFECT_STEP = 1.0D;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final double NANOS_PER_SECOND = 1000000000.0D;
+	private static final double TICKS_PER_SECOND = 20.0D;
+	// weight of new samples in the average tick duration:
+	private static final double TICK_DURATION_SMOOTHING = 0.1D;
+
+	private final Plugin plugin;
+	private BukkitTask task = null;
+	private LatencyRecorder tickLatency = null;
+
+	// settings:
+	private EffectRenderer renderer = new FireworkEffectRenderer();
+	private FireworkEffect effect1;
+	private FireworkEffect effect2;
+	private int maxAnimations = 50;
+	private int maxEffectsPerWorldPerTick = 20;
+	private double viewDistanceSquared = 128.0D * 128.0D;
+	private int degradeAnimationThreshold = 20;
+	private double degradeMinimumTps = 18.0D;
+	private double degradeSpacingMultiplier = 2.0D;
+
+	// animation states:
+	private int count = 0;
+	private World[] worlds = new World[INITIAL_CAPACITY];
+	private double[] xs = new double[INITIAL_CAPACITY];
+	private double[] ys = new double[INITIAL_CAPACITY];
+	private double[] zs = new double[INITIAL_CAPACITY];
+	private double[] ends = new double[INITIAL_CAPACITY];
+	private double[] steps = new double[INITIAL_CAPACITY];
+	private byte[] directions = new byte[INITIAL_CAPACITY];
+	// whether the animation plays the second half of its current step next:
+	private boolean[] secondHalves = new boolean[INITIAL_CAPACITY];
+	private boolean[] finished = new boolean[INITIAL_CAPACITY];
+
+	// per tick effect budgets and viewers, for the few worlds with running animations:
+	private TickWorld[] tickWorlds = new TickWorld[0];
+	private int tickWorldCount = 0;
+
+	// animations are advanced starting at a rotating index, so that no animation is favored by the world budgets:
+	private int startIndex = 0;
+
+	// server tick rate estimation:
+	private long lastRunNanos = 0L;
+	private double averageTickNanos = NANOS_PER_SECOND / TICKS_PER_SECOND;
+
+	// statistics:
+	private long playedEffects = 0L;
+	private long culledEffects = 0L;
+	private long skippedAnimations = 0L;
+	private long degradedAnimations = 0L;
+
+	public EffectEngine(Plugin plugin) {
+		this.plugin = plugin;
+	}
+
+	/**
+	 * Sets the firework effects to play.
+	 * 
+	 * @param effect1
+	 *            the first effect
+	 * @param effect2
+	 *            the second effect
+	 */
+	public void setEffects(FireworkEffect effect1, FireworkEffect effect2) {
+		this.effect1 = effect1;
+		this.effect2 = effect2;
+	}
+
+	/**
+	 * Sets the renderer which plays the effects.
+	 * 
+	 * @param renderer
+	 *            the renderer
+	 */
+	public void setRenderer(EffectRenderer renderer) {
+		assert renderer != null;
+		this.renderer = renderer;
+	}
+
+	/**
+	 * Sets the recorder which records how long the engine's runs take.
+	 * 
+	 * @param tickLatency
+	 *            the recorder, or <code>null</code> to not record the durations
+	 */
+	public void setTickLatencyRecorder(LatencyRecorder tickLatency) {
+		this.tickLatency = tickLatency;
+	}
+
+	/**
+	 * Sets the limits of the engine.
+	 * 
+	 * @param maxAnimations
+	 *            the maximum number of concurrently running animations; further animations are skipped
+	 * @param maxEffectsPerWorldPerTick
+	 *            the maximum number of effects played per world and tick; further animations in that world are delayed
+	 */
+	public void setLimits(int maxAnimations, int maxEffectsPerWorldPerTick) {
+		this.maxAnimations = Math.max(0, maxAnimations);
+		this.maxEffectsPerWorldPerTick = Math.max(1, maxEffectsPerWorldPerTick);
+	}
+
+	/**
+	 * Sets the distance within which players have to be to an animation's column for its effects to be played.
+	 * 
+	 * @param viewDistance
+	 *            the horizontal view distance
+	 */
+	public void setViewDistance(double viewDistance) {
+		this.viewDistanceSquared = viewDistance * viewDistance;
+	}
+
+	/**
+	 * Sets when the spacing between effects of new animations gets increased.
+	 * 
+	 * @param animationThreshold
+	 *            the number of running animations from which on the spacing is increased
+	 * @param minimumTps
+	 *            the estimated server tick rate below which the spacing is increased
+	 * @param spacingMultiplier
+	 *            the factor by which the spacing is increased, applied once for each of the above conditions
+	 */
+	public void setDegradation(int animationThreshold, double minimumTps, double spacingMultiplier) {
+		this.degradeAnimationThreshold = Math.max(0, animationThreshold);
+		this.degradeMinimumTps = minimumTps;
+		this.degradeSpacingMultiplier = Math.max(1.0D, spacingMultiplier);
+	}
+
+	/**
+	 * Gets the number of currently running animations.
+	 * 
+	 * @return the number of running animations
+	 */
+	public int getAnimationCount() {
+		return count;
+	}
+
+	/**
+	 * Gets the server's tick rate, as estimated from the intervals between the engine's runs.
+	 * 
+	 * @return the estimated ticks per second
+	 */
+	public double getEstimatedTps() {
+		return Math.min(TICKS_PER_SECOND, NANOS_PER_SECOND / averageTickNanos);
+	}
+
+	/**
+	 * Gets the number of played effects.
+	 * 
+	 * @return the number of played effects
+	 */
+	public long getPlayedEffects() {
+		return playedEffects;
+	}
+
+	/**
+	 * Gets the number of effects which got skipped because no player was within view distance.
+	 * 
+	 * @return the number of culled effects
+	 */
+	public long getCulledEffects() {
+		return culledEffects;
+	}
+
+	/**
+	 * Gets the number of animations which got skipped because the animation limit was reached.
+	 * 
+	 * @return the number of skipped animations
+	 */
+	public long getSkippedAnimations() {
+		return skippedAnimations;
+	}
+
+	/**
+	 * Gets the number of animations which got started with an increased spacing between their effects.
+	 * 
+	 * @return the number of degraded animations
+	 */
+	public long getDegradedAnimations() {
+		return degradedAnimations;
+	}
+
+	/**
+	 * Stops all running animations.
+	 */
+	public void stop() {
+		if (task != null) {
+			task.cancel();
+			task = null;
+		}
+		lastRunNanos = 0L;
+		Arrays.fill(worlds, 0, count, null);
+		count = 0;
+		this.resetTickWorlds();
+	}
+
+	/**
+	 * Starts an animation which moves up from the given location.
+	 * 
+	 * @param location
+	 *            the start location
+	 * @param endY
+	 *            the height at which the animation stops
+	 * @param distance
+	 *            the distance between two effects
+	 * @return <code>true</code> if the animation got started, <code>false</code> if the animation limit is reached
+	 */
+	public boolean playUpEffect(Location location, double endY, double distance) {
+		return this.start(location, endY, Math.max(0.1D, distance), UP);
+	}
+
+	/**
+	 * Starts an animation which moves down from the given location.
+	 * 
+	 * @param location
+	 *            the start location
+	 * @param endY
+	 *            the height at which the animation stops
+	 * @return <code>true</code> if the animation got started, <code>false</code> if the animation limit is reached
+	 */
+	public boolean playDownEffect(Location location, double endY) {
+		return this.start(location, endY, DOWN_EFFECT_STEP, DOWN);
+	}
+
+	private boolean start(Location location, double endY, double step, byte direction) {
+		if (count >= maxAnimations) {
+			skippedAnimations++;
+			return false;
+		}
+		double spacingMultiplier = 1.0D;
+		if (count >= degradeAnimationThreshold) {
+			spacingMultiplier *= degradeSpacingMultiplier;
+		}
+		if (this.getEstimatedTps() < degradeMinimumTps) {
+			spacingMultiplier *= degradeSpacingMultiplier;
+		}
+		if (spacingMultiplier > 1.0D) {
+			degradedAnimations++;
+			step *= spacingMultiplier;
+		}
+
+		if (count == worlds.length) {
+			this.grow();
+		}
+		int index = count++;
+		worlds[index] = location.getWorld();
+		xs[index] = location.getX();
+		ys[index] = location.getY();
+		zs[index] = location.getZ();
+		ends[index] = endY;
+		steps[index] = step;
+		directions[index] = direction;
+		secondHalves[index] = false;
+
+		if (task == null) {
+			task = Bukkit.getScheduler().runTaskTimer(plugin, this, 1L, 1L);
+		}
+		return true;
+	}
+
+	private void grow() {
+		int newCapacity = worlds.length * 2;
+		worlds = Arrays.copyOf(worlds, newCapacity);
+		xs = Arrays.copyOf(xs, newCapacity);
+		ys = Arrays.copyOf(ys, newCapacity);
+		zs = Arrays.copyOf(zs, newCapacity);
+		ends = Arrays.copyOf(ends, newCapacity);
+		steps = Arrays.copyOf(steps, newCapacity);
+		directions = Arrays.copyOf(directions, newCapacity);
+		secondHalves = Arrays.copyOf(secondHalves, newCapacity);
+		finished = Arrays.copyOf(finished, newCapacity);
+	}
+
+	// removes finished animations, keeping the order of the remaining ones:
+	private void compact() {
+		int newCount = 0;
+		for (int index = 0; index < count; index++) {
+			if (finished[index]) continue;
+			if (newCount != index) {
+				worlds[newCount] = worlds[index];
+				xs[newCount] = xs[index];
+				ys[newCount] = ys[index];
+				zs[newCount] = zs[index];
+				ends[newCount] = ends[index];
+				steps[newCount] = steps[index];
+				directions[newCount] = directions[index];
+				secondHalves[newCount] = secondHalves[index];
+			}
+			newCount++;
+		}
+		Arrays.fill(worlds, newCount, count, null);
+		Arrays.fill(finished, 0, count, false);
+		count = newCount;
+	}
+
+	@Override
+	public void run() {
+		if (count == 0) {
+			this.stop();
+			return;
+		}
+		this.updateTickDuration();
+		long startNanos = System.nanoTime();
+
+		if (startIndex >= count) startIndex = 0;
+		int finishedCount = 0;
+		for (int i = 0; i < count; i++) {
+			int index = (startIndex + i) % count;
+			TickWorld tickWorld = this.getTickWorld(worlds[index]);
+			boolean visible = tickWorld.hasViewer(xs[index], zs[index], viewDistanceSquared);
+			if (visible) {
+				// animations without remaining budget are delayed until the next tick:
+				if (tickWorld.usedBudget >= maxEffectsPerWorldPerTick) continue;
+				tickWorld.usedBudget++;
+			}
+			if (!this.advance(index, visible)) {
+				finished[index] = true;
+				finishedCount++;
+			}
+		}
+		startIndex++;
+
+		this.resetTickWorlds();
+
+		if (finishedCount > 0) {
+			this.compact();
+		}
+
+		if (tickLatency != null) {
+			tickLatency.recordSince(startNanos);
+		}
+	}
+
+	private void updateTickDuration() {
+		long now = System.nanoTime();
+		if (lastRunNanos != 0L) {
+			long tickNanos = now - lastRunNanos;
+			averageTickNanos += (tickNanos - averageTickNanos) * TICK_DURATION_SMOOTHING;
+		}
+		lastRunNanos = now;
+	}
+
+	private TickWorld getTickWorld(World world) {
+		for (int i = 0; i < tickWorldCount; i++) {
+			TickWorld tickWorld = tickWorlds[i];
+			if (tickWorld.world == world) return tickWorld;
+		}
+		if (tickWorldCount == tickWorlds.length) {
+			tickWorlds = Arrays.copyOf(tickWorlds, tickWorldCount + 4);
+		}
+		TickWorld tickWorld = tickWorlds[tickWorldCount];
+		if (tickWorld == null) {
+			tickWorld = new TickWorld();
+			tickWorlds[tickWorldCount] = tickWorld;
+		}
+		tickWorldCount++;
+		tickWorld.setup(world);
+		return tickWorld;
+	}
+
+	private void resetTickWorlds() {
+		for (int i = 0; i < tickWorldCount; i++) {
+			tickWorlds[i].reset();
+		}
+		tickWorldCount = 0;
+	}
+
+	// the budget and the viewer positions of a world during the current tick, reused across ticks:
+	private static final class TickWorld {
+
+		private World world;
+		private int usedBudget;
+		private double[] viewerXs = new double[16];
+		private double[] viewerZs = new double[16];
+		private int viewerCount;
+		private final Location location = new Location(null, 0.0D, 0.0D, 0.0D);
+
+		void setup(World world) {
+			this.world = world;
+			usedBudget = 0;
+			List<Player> players = world.getPlayers();
+			viewerCount = players.size();
+			if (viewerCount > viewerXs.length) {
+				viewerXs = new double[viewerCount];
+				viewerZs = new double[viewerCount];
+			}
+			for (int i = 0; i < viewerCount; i++) {
+				Location playerLocation = players.get(i).getLocation(location);
+				viewerXs[i] = playerLocation.getX();
+				viewerZs[i] = playerLocation.getZ();
+			}
+			location.setWorld(null);
+		}
+
+		boolean hasViewer(double x, double z, double viewDistanceSquared) {
+			for (int i = 0; i < viewerCount; i++) {
+				double dx = viewerXs[i] - x;
+				double dz = viewerZs[i] - z;
+				if (dx * dx + dz * dz <= viewDistanceSquared) return true;
+			}
+			return false;
+		}
+
+		void reset() {
+			world = null;
+			viewerCount = 0;
+		}
+	}
+
+	// plays the next effect of the animation (if visible), returns false if the animation has finished:
+	private boolean advance(int index, boolean visible) {
+		World world = worlds[index];
+		boolean up = (directions[index] == UP);
+		double step = up ? steps[index] : -steps[index];
+		if (!secondHalves[index]) {
+			this.playEffect(world, xs[index], ys[index], zs[index], up ? effect1 : effect2, visible);
+			secondHalves[index] = true;
+			return true;
+		} else {
+			double y = ys[index] + step;
+			this.playEffect(world, xs[index], y, zs[index], up ? effect2 : effect1, visible);
+			y += step;
+			ys[index] = y;
+			secondHalves[index] = false;
+			return up ? (y < ends[index]) : (y >= ends[index]);
+		}
+	}
+
+	private void playEffect(World world, double x, double y, double z, FireworkEffect effect, boolean visible) {
+		if (effect == null) return;
+		if (!visible) {
+			culledEffects++;
+			return;
+		}
+		playedEffects++;
+		renderer.playEffect(world, x, y, z, effect);
+	}
+}
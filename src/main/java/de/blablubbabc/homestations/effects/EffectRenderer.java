@@ -0,0 +1,30 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.effects;
+
+import org.bukkit.FireworkEffect;
+import org.bukkit.World;
+
+/**
+ * Plays the single effects of the teleport effect animations.
+ */
+public interface EffectRenderer {
+
+	/**
+	 * Plays the given effect at the given position.
+	 * 
+	 * @param world
+	 *            the world
+	 * @param x
+	 *            the x coordinate
+	 * @param y
+	 *            the y coordinate
+	 * @param z
+	 *            the z coordinate
+	 * @param effect
+	 *            the effect
+	 */
+	public void playEffect(World world, double x, double y, double z, FireworkEffect effect);
+}
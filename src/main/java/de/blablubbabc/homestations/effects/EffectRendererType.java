@@ -0,0 +1,29 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.effects;
+
+public enum EffectRendererType {
+	// spawns and removes firework entities:
+	FIREWORKS,
+	// sends colored particles to nearby players:
+	PARTICLES;
+
+	/**
+	 * Gets the renderer type matching the given name, ignoring case.
+	 * 
+	 * @param name
+	 *            the name
+	 * @return the renderer type, or <code>null</code> if no match is found
+	 */
+	public static EffectRendererType getByName(String name) {
+		if (name == null) return null;
+		for (EffectRendererType type : values()) {
+			if (type.name().equalsIgnoreCase(name)) {
+				return type;
+			}
+		}
+		return null;
+	}
+}
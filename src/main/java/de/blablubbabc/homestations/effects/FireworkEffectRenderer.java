@@ -0,0 +1,22 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.effects;
+
+import org.bukkit.FireworkEffect;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import de.blablubbabc.homestations.utils.Utils;
+
+/**
+ * Plays the effects as firework explosions.
+ */
+public class FireworkEffectRenderer implements EffectRenderer {
+
+	@Override
+	public void playEffect(World world, double x, double y, double z, FireworkEffect effect) {
+		Utils.playFireworkEffect(new Location(world, x, y, z), effect);
+	}
+}
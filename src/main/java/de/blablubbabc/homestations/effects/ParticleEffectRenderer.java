@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.effects;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Color;
+import org.bukkit.FireworkEffect;
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.bukkit.Particle.DustOptions;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+/**
+ * Plays the effects as particles, which are only sent to the players within view distance.
+ * 
+ * <p>
+ * Colored particles use the colors and fade colors of the played firework effect.
+ * </p>
+ */
+public class ParticleEffectRenderer implements EffectRenderer {
+
+	/**
+	 * Checks if the given particle can be played by this renderer.
+	 * 
+	 * @param particle
+	 *            the particle
+	 * @return <code>true</code> if the particle is supported
+	 */
+	public static boolean isSupported(Particle particle) {
+		if (particle == null) return false;
+		Class<?> dataType = particle.getDataType();
+		return dataType == Void.class || dataType == DustOptions.class;
+	}
+
+	private final Particle particle;
+	private final int amount;
+	private final double spread;
+	private final float size;
+	private final double viewDistanceSquared;
+
+	// firework effect -> particle data per color:
+	private final Map<FireworkEffect, Object[]> particleData = new HashMap<>();
+	// reused for looking up player locations:
+	private final Location viewerLocation = new Location(null, 0.0D, 0.0D, 0.0D);
+
+	/**
+	 * Creates a new particle effect renderer.
+	 * 
+	 * @param particle
+	 *            the particle, has to be {@link #isSupported(Particle) supported}
+	 * @param amount
+	 *            the amount of particles per color and effect
+	 * @param spread
+	 *            the spread of the particles around the effect position
+	 * @param size
+	 *            the size of colored particles
+	 * @param viewDistance
+	 *            the maximum distance of players to which the particles are sent
+	 */
+	public ParticleEffectRenderer(Particle particle, int amount, double spread, float size, double viewDistance) {
+		if (!isSupported(particle)) {
+			throw new IllegalArgumentException("Unsupported particle: " + particle);
+		}
+		this.particle = particle;
+		this.amount = Math.max(1, amount);
+		this.spread = Math.max(0.0D, spread);
+		this.size = size;
+		this.viewDistanceSquared = viewDistance * viewDistance;
+	}
+
+	@Override
+	public void playEffect(World world, double x, double y, double z, FireworkEffect effect) {
+		Object[] data = this.getParticleData(effect);
+		for (Player player : world.getPlayers()) {
+			Location location = player.getLocation(viewerLocation);
+			double dx = location.getX() - x;
+			double dy = location.getY() - y;
+			double dz = location.getZ() - z;
+			if (dx * dx + dy * dy + dz * dz > viewDistanceSquared) continue;
+
+			for (Object colorData : data) {
+				player.spawnParticle(particle, x, y, z, amount, spread, spread, spread, 0.0D, colorData);
+			}
+		}
+		viewerLocation.setWorld(null);
+	}
+
+	private Object[] getParticleData(FireworkEffect effect) {
+		Object[] data = particleData.get(effect);
+		if (data == null) {
+			if (particle.getDataType() == DustOptions.class) {
+				List<Color> colors = new ArrayList<>(effect.getColors());
+				colors.addAll(effect.getFadeColors());
+				data = new Object[colors.size()];
+				for (int i = 0; i < data.length; i++) {
+					data[i] = new DustOptions(colors.get(i), size);
+				}
+			} else {
+				// uncolored particle:
+				data = new Object[] { null };
+			}
+			particleData.put(effect, data);
+		}
+		return data;
+	}
+}
@@ -5,6 +5,12 @@
 package de.blablubbabc.homestations.external;
 
 import java.text.DecimalFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
@@ -14,8 +20,10 @@ import org.bukkit.event.Listener;
 import org.bukkit.event.server.PluginDisableEvent;
 import org.bukkit.event.server.ServiceRegisterEvent;
 import org.bukkit.event.server.ServiceUnregisterEvent;
+import org.bukkit.plugin.IllegalPluginAccessException;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.RegisteredServiceProvider;
+import org.bukkit.scheduler.BukkitTask;
 
 import net.milkbowl.vault.economy.Economy;
 import net.milkbowl.vault.economy.EconomyResponse;
@@ -56,6 +64,75 @@ public class EconomyController {
 		}
 	}
 
+	/**
+	 * Receives the result of a balance lookup on the main thread.
+	 */
+	public interface BalanceCallback {
+
+		/**
+		 * Called with the player's balance.
+		 * 
+		 * @param balance
+		 *            the balance
+		 */
+		void onBalance(double balance);
+
+		/**
+		 * Called if the balance could not be retrieved.
+		 * 
+		 * @param error
+		 *            the error message
+		 */
+		void onFailure(String error);
+	}
+
+	/**
+	 * Receives the result of a transaction on the main thread.
+	 */
+	public interface TransactionCallback {
+
+		/**
+		 * Called after the transaction has been applied.
+		 * 
+		 * @param balance
+		 *            the player's new balance
+		 * @return <code>false</code> to roll the transaction back
+		 */
+		boolean onSuccess(double balance);
+
+		/**
+		 * Called if the transaction failed, or didn't complete in time.
+		 * 
+		 * @param error
+		 *            the error message
+		 */
+		void onFailure(String error);
+	}
+
+	private static final class CachedBalance {
+
+		private final double balance;
+		private final long time;
+
+		private CachedBalance(double balance) {
+			this.balance = balance;
+			this.time = System.currentTimeMillis();
+		}
+	}
+
+	private static final class TransactionResult {
+
+		private final String error; // null on success
+		private final double balance;
+
+		private TransactionResult(String error, double balance) {
+			this.error = error;
+			this.balance = balance;
+		}
+	}
+
+	protected static final String TIMEOUT_ERROR = "The economy did not respond in time.";
+
 	protected final DecimalFormat DECIMAL_FORMAT = new DecimalFormat("0.0#");
 
 	private PluginListener pluginListener = new PluginListener();
@@ -195,6 +272,7 @@ public class EconomyController {
 
 	protected void cleanupEconomy() {
 		economy = null;
+		balanceCache.clear();
 	}
 
 	public Economy getEconomy() {
@@ -214,8 +292,8 @@ public class EconomyController {
 		return economy != null && economy.isEnabled();
 	}
 
-	private void validateHasEconomy() {
-		if (!this.hasEconomy()) {
+	private void validateHasEconomy(Economy economy) {
+		if (economy == null || !economy.isEnabled()) {
 			throw new IllegalArgumentException("No economy available!");
 		}
 	}
@@ -247,17 +325,22 @@ public class EconomyController {
 	 * @return an error message, or <code>null</code> on success
 	 */
 	public String applyChange(OfflinePlayer player, double deltaAmount, boolean withdrawPartial) {
+		return this.applyChange(this.getEconomy(), player, deltaAmount, withdrawPartial);
+	}
+
+	// operations which complete after the controller got disabled keep using the economy they were started with:
+	private String applyChange(Economy economy, OfflinePlayer player, double deltaAmount, boolean withdrawPartial) {
 		if (deltaAmount == 0.0D) return null;
 		if (deltaAmount > 0.0D) {
-			return this.depositMoney(player, deltaAmount);
+			return this.depositMoney(economy, player, deltaAmount);
 		} else {
 			deltaAmount = -deltaAmount;
-			double balance = this.getBalance(player);
+			double balance = this.getBalance(economy, player);
 			if (balance < deltaAmount) {
 				if (withdrawPartial) deltaAmount = balance;
 				else return "Not enough money.";
 			}
-			return this.withdrawMoney(player, deltaAmount);
+			return this.withdrawMoney(economy, player, deltaAmount);
 		}
 	}
 
@@ -275,14 +358,19 @@ public class EconomyController {
 	 * @return an error message, or <code>null</code> on success
 	 */
 	public String depositMoney(OfflinePlayer player, double addAmount) {
-		this.validateHasEconomy();
+		return this.depositMoney(this.getEconomy(), player, addAmount);
+	}
+
+	private String depositMoney(Economy economy, OfflinePlayer player, double addAmount) {
+		this.validateHasEconomy(economy);
 		if (player == null) {
 			throw new IllegalArgumentException("Player is null!");
 		}
 		if (addAmount == 0.0D) return null;
 		if (addAmount < 0.0D) return "Cannot deposit a negative amount.";
 
-		EconomyResponse response = this.getEconomy().depositPlayer(player, addAmount);
+		EconomyResponse response = economy.depositPlayer(player, addAmount);
+		this.invalidateBalance(player.getUniqueId());
 		return this.getErrorMessage(response);
 	}
 
@@ -300,14 +388,19 @@ public class EconomyController {
 	 * @return an error message, or <code>null</code> on success
 	 */
 	public String withdrawMoney(OfflinePlayer player, double withdrawAmount) {
-		this.validateHasEconomy();
+		return this.withdrawMoney(this.getEconomy(), player, withdrawAmount);
+	}
+
+	private String withdrawMoney(Economy economy, OfflinePlayer player, double withdrawAmount) {
+		this.validateHasEconomy(economy);
 		if (player == null) {
 			throw new IllegalArgumentException("Player is null!");
 		}
 		if (withdrawAmount == 0.0D) return null;
 		if (withdrawAmount <= 0.0D) return "Cannot withdraw a negative amount.";
 
-		EconomyResponse response = this.getEconomy().withdrawPlayer(player, withdrawAmount);
+		EconomyResponse response = economy.withdrawPlayer(player, withdrawAmount);
+		this.invalidateBalance(player.getUniqueId());
 		return this.getErrorMessage(response);
 	}
 
@@ -332,7 +425,8 @@ public class EconomyController {
 	 * Gets the player's balance.
 	 * 
 	 * <p>
-	 * This requires {@link #hasEconomy()} to return <code>true</code> in order to work.
+	 * This requires {@link #hasEconomy()} to return <code>true</code> in order to work.<br>
+	 * This always asks the economy, and updates the cached balance.
 	 * </p>
 	 * 
 	 * @param player
@@ -340,11 +434,253 @@ public class EconomyController {
 	 * @return the amount of money the player currently has
 	 */
 	public double getBalance(OfflinePlayer player) {
-		this.validateHasEconomy();
+		return this.getBalance(this.getEconomy(), player);
+	}
+
+	private double getBalance(Economy economy, OfflinePlayer player) {
+		this.validateHasEconomy(economy);
 		if (player == null) {
 			throw new IllegalArgumentException("Player is null!");
 		}
 
-		return this.getEconomy().getBalance(player);
+		double balance = economy.getBalance(player);
+		if (balanceCacheMillis > 0L) {
+			balanceCache.put(player.getUniqueId(), new CachedBalance(balance));
+		}
+		return balance;
+	}
+
+	// BALANCE CACHE
+
+	// playerUUID -> balance
+	private final Map<UUID, CachedBalance> balanceCache = new ConcurrentHashMap<>();
+	private volatile long balanceCacheMillis = 0L;
+
+	/**
+	 * Sets for how long looked up balances are cached.
+	 * 
+	 * <p>
+	 * Cached balances are invalidated by transactions of this controller, but not by changes made by other plugins.
+	 * </p>
+	 * 
+	 * @param balanceCacheMillis
+	 *            the duration in milliseconds, <code>0</code> to disable the cache
+	 */
+	public void setBalanceCacheDuration(long balanceCacheMillis) {
+		this.balanceCacheMillis = Math.max(0L, balanceCacheMillis);
+		balanceCache.clear();
+	}
+
+	/**
+	 * Gets the player's balance, using the cached balance if it is recent enough.
+	 * 
+	 * <p>
+	 * This requires {@link #hasEconomy()} to return <code>true</code> in order to work.
+	 * </p>
+	 * 
+	 * @param player
+	 *            the player
+	 * @return the amount of money the player has
+	 */
+	public double getCachedBalance(OfflinePlayer player) {
+		CachedBalance cached = this.getFreshCachedBalance(player.getUniqueId());
+		if (cached != null) return cached.balance;
+		return this.getBalance(player);
+	}
+
+	private CachedBalance getFreshCachedBalance(UUID playerId) {
+		if (balanceCacheMillis <= 0L) return null;
+		CachedBalance cached = balanceCache.get(playerId);
+		if (cached == null) return null;
+		if (System.currentTimeMillis() - cached.time > balanceCacheMillis) {
+			balanceCache.remove(playerId, cached);
+			return null;
+		}
+		return cached;
+	}
+
+	/**
+	 * Removes the cached balance of the given player.
+	 * 
+	 * @param playerId
+	 *            the player id
+	 */
+	public void invalidateBalance(UUID playerId) {
+		balanceCache.remove(playerId);
+	}
+
+	// ASYNCHRONOUS TRANSACTIONS
+
+	private volatile boolean asyncTransactions = false;
+	private volatile long timeoutTicks = 100L;
+
+	/**
+	 * Sets whether balance lookups and transactions with callbacks are executed asynchronously.
+	 * 
+	 * <p>
+	 * Only enable this if the economy can be used from other threads than the main thread.
+	 * </p>
+	 * 
+	 * @param asyncTransactions
+	 *            <code>true</code> to execute them asynchronously
+	 * @param timeoutTicks
+	 *            the time in ticks after which asynchronous operations are considered failed
+	 */
+	public void setAsyncTransactions(boolean asyncTransactions, long timeoutTicks) {
+		this.asyncTransactions = asyncTransactions;
+		this.timeoutTicks = Math.max(1L, timeoutTicks);
+	}
+
+	public boolean isAsyncTransactions() {
+		return asyncTransactions;
+	}
+
+	/**
+	 * Gets the player's balance and passes it to the given callback on the main thread.
+	 * 
+	 * <p>
+	 * Cached balances are passed to the callback right away. Otherwise, if asynchronous transactions are enabled, the
+	 * balance is looked up asynchronously.<br>
+	 * This has to be called from the main thread, and requires {@link #hasEconomy()} to return <code>true</code> in
+	 * order to work.
+	 * </p>
+	 * 
+	 * @param player
+	 *            the player
+	 * @param callback
+	 *            the callback
+	 */
+	public void getBalance(OfflinePlayer player, BalanceCallback callback) {
+		Economy economy = this.getEconomy();
+		this.validateHasEconomy(economy);
+		CachedBalance cached = this.getFreshCachedBalance(player.getUniqueId());
+		if (cached != null) {
+			callback.onBalance(cached.balance);
+			return;
+		}
+		if (!asyncTransactions) {
+			callback.onBalance(this.getBalance(economy, player));
+			return;
+		}
+
+		this.callAsync(() -> {
+			try {
+				return new TransactionResult(null, this.getBalance(economy, player));
+			} catch (RuntimeException e) {
+				return new TransactionResult(this.getExceptionMessage(e), 0.0D);
+			}
+		}, result -> {
+			if (result.error != null) {
+				callback.onFailure(result.error);
+			} else {
+				callback.onBalance(result.balance);
+			}
+		}, () -> callback.onFailure(TIMEOUT_ERROR), null);
+	}
+
+	/**
+	 * Deposits or withdraws the specified amount of money in/from the player's account, and passes the result to the
+	 * given callback on the main thread.
+	 * 
+	 * <p>
+	 * If asynchronous transactions are enabled, the transaction is executed asynchronously. If it doesn't complete
+	 * within the timeout, the callback is informed about the failure and the transaction is rolled back once it
+	 * completes. The transaction is also rolled back if the callback rejects it.<br>
+	 * This has to be called from the main thread, and requires {@link #hasEconomy()} to return <code>true</code> in
+	 * order to work.
+	 * </p>
+	 * 
+	 * @param player
+	 *            the player
+	 * @param deltaAmount
+	 *            the money changes
+	 * @param callback
+	 *            the callback
+	 * @see #applyChange(OfflinePlayer, double, boolean)
+	 */
+	public void applyChange(OfflinePlayer player, double deltaAmount, TransactionCallback callback) {
+		// the rollback uses the same economy, even if the controller got disabled in the meantime:
+		Economy economy = this.getEconomy();
+		this.validateHasEconomy(economy);
+		if (!asyncTransactions) {
+			TransactionResult result = this.applyChange(economy, player, deltaAmount);
+			if (result.error != null) {
+				callback.onFailure(result.error);
+			} else if (!callback.onSuccess(result.balance)) {
+				this.rollback(economy, player, deltaAmount);
+			}
+			return;
+		}
+
+		this.callAsync(() -> this.applyChange(economy, player, deltaAmount), result -> {
+			if (result.error != null) {
+				callback.onFailure(result.error);
+			} else if (!callback.onSuccess(result.balance)) {
+				Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> this.rollback(economy, player, deltaAmount));
+			}
+		}, () -> callback.onFailure(TIMEOUT_ERROR), lateResult -> {
+			// the callback was already informed about the failure:
+			if (lateResult.error == null) {
+				this.rollback(economy, player, deltaAmount);
+			}
+		});
+	}
+
+	private TransactionResult applyChange(Economy economy, OfflinePlayer player, double deltaAmount) {
+		try {
+			String error = this.applyChange(economy, player, deltaAmount, false);
+			if (error != null) return new TransactionResult(error, 0.0D);
+			return new TransactionResult(null, this.getBalance(economy, player));
+		} catch (RuntimeException e) {
+			return new TransactionResult(this.getExceptionMessage(e), 0.0D);
+		}
+	}
+
+	private void rollback(Economy economy, OfflinePlayer player, double deltaAmount) {
+		String error;
+		try {
+			error = this.applyChange(economy, player, -deltaAmount, true);
+		} catch (RuntimeException e) {
+			error = this.getExceptionMessage(e);
+		}
+		if (error != null) {
+			Plugin plugin = this.plugin;
+			if (plugin != null) {
+				plugin.getLogger().warning("Unable to roll back transaction of " + deltaAmount + " for player " + player.getName() + ": " + error);
+			}
+		}
+	}
+
+	private String getExceptionMessage(RuntimeException e) {
+		return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+	}
+
+	// runs the task asynchronously and passes its result to the callback on the main thread, unless the timeout is
+	// reached first: late results are passed to the late result handler (if any) on the async thread instead
+	private <T> void callAsync(Supplier<T> task, Consumer<T> callback, Runnable onTimeout, Consumer<T> onLateResult) {
+		Plugin plugin = this.plugin;
+		AtomicBoolean done = new AtomicBoolean(false);
+		BukkitTask timeoutTask = Bukkit.getScheduler().runTaskLater(plugin, () -> {
+			if (done.compareAndSet(false, true)) {
+				onTimeout.run();
+			}
+		}, timeoutTicks);
+
+		Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+			T result = task.get();
+			if (!done.compareAndSet(false, true)) {
+				if (onLateResult != null) onLateResult.accept(result);
+				return;
+			}
+			try {
+				Bukkit.getScheduler().runTask(plugin, () -> {
+					timeoutTask.cancel();
+					callback.accept(result);
+				});
+			} catch (IllegalPluginAccessException e) {
+				// the plugin got disabled in the meantime:
+				if (onLateResult != null) onLateResult.accept(result);
+			}
+		});
 	}
 }
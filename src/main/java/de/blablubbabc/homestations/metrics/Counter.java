@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A monotonically increasing count.
+ * 
+ * <p>
+ * The count is either kept by the counter itself, or read from a component which already counts the events. Safe to be
+ * used from multiple threads.
+ * </p>
+ */
+public class Counter extends Metric {
+
+	private final LongAdder count;
+	private final LongSupplier source;
+
+	Counter(String name, String help) {
+		super(name, help);
+		this.count = new LongAdder();
+		this.source = null;
+	}
+
+	Counter(String name, String help, LongSupplier source) {
+		super(name, help);
+		assert source != null;
+		this.count = null;
+		this.source = source;
+	}
+
+	public void increment() {
+		this.add(1L);
+	}
+
+	public void add(long amount) {
+		if (count == null) {
+			throw new UnsupportedOperationException("Counter " + this.getName() + " is read from its source!");
+		}
+		count.add(amount);
+	}
+
+	public long get() {
+		return (count != null) ? count.sum() : source.getAsLong();
+	}
+}
@@ -0,0 +1,25 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * A value which can go up and down, read from its source when the metrics are exported.
+ */
+public class Gauge extends Metric {
+
+	private final DoubleSupplier source;
+
+	Gauge(String name, String help, DoubleSupplier source) {
+		super(name, help);
+		assert source != null;
+		this.source = source;
+	}
+
+	public double get() {
+		return source.getAsDouble();
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records durations in a histogram with logarithmic buckets.
+ *
+ * <p>
+ * Similar to HdrHistogram, every power of two is split into {@link #SUB_BUCKET_COUNT} linear sub-buckets, so the
+ * recorded values keep a relative precision of about 6% over the whole range. Durations are recorded in nanoseconds;
+ * larger durations than {@link #MAX_TRACKABLE_NANOS} are counted in the highest bucket. Recording a value takes constant
+ * time and doesn't allocate.
+ * </p>
+ *
+ * <p>
+ * Safe to be used from multiple threads. Values read while other threads record values might be slightly inconsistent
+ * with each other.
+ * </p>
+ */
+public class LatencyRecorder extends Metric {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	// about 2.4 hours:
+	private static final int MAX_EXPONENT = 42;
+	public static final long MAX_TRACKABLE_NANOS = (1L << (MAX_EXPONENT + 1)) - 1L;
+	private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	LatencyRecorder(String name, String help) {
+		super(name, help);
+	}
+
+	private static int getBucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		// the top SUB_BUCKET_BITS + 1 bits of the value, in [SUB_BUCKET_COUNT, 2 * SUB_BUCKET_COUNT):
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS));
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + (subBucket - SUB_BUCKET_COUNT);
+	}
+
+	/**
+	 * Gets the lowest value which is counted in the specified bucket.
+	 *
+	 * @param index
+	 *            the bucket index
+	 * @return the lowest value of the bucket
+	 */
+	static long getBucketLowerBound(int index) {
+		if (index < SUB_BUCKET_COUNT) return index;
+		int shift = (index / SUB_BUCKET_COUNT) - 1;
+		return (long) (SUB_BUCKET_COUNT + (index % SUB_BUCKET_COUNT)) << shift;
+	}
+
+	/**
+	 * Gets the highest value which is counted in the specified bucket.
+	 *
+	 * @param index
+	 *            the bucket index
+	 * @return the highest value of the bucket
+	 */
+	static long getBucketUpperBound(int index) {
+		if (index == BUCKET_COUNT - 1) return MAX_TRACKABLE_NANOS;
+		return getBucketLowerBound(index + 1) - 1L;
+	}
+
+	static int getBucketCount() {
+		return BUCKET_COUNT;
+	}
+
+	/**
+	 * Records a duration.
+	 *
+	 * @param nanos
+	 *            the duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0L) nanos = 0L;
+		long bucketValue = Math.min(nanos, MAX_TRACKABLE_NANOS);
+		buckets.incrementAndGet(getBucketIndex(bucketValue));
+		count.increment();
+		sum.add(nanos);
+		long currentMax;
+		while (nanos > (currentMax = max.get()) && !max.compareAndSet(currentMax, nanos)) {
+		}
+	}
+
+	/**
+	 * Records the time which has passed since the given start time.
+	 *
+	 * @param startNanos
+	 *            the start time, as returned by {@link System#nanoTime()}
+	 */
+	public void recordSince(long startNanos) {
+		this.record(System.nanoTime() - startNanos);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Gets the sum of all recorded durations.
+	 *
+	 * @return the sum in nanoseconds
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * Gets the largest recorded duration.
+	 *
+	 * @return the largest duration in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Gets the mean of all recorded durations.
+	 *
+	 * @return the mean in nanoseconds, or <code>0</code> if no durations were recorded
+	 */
+	public double getMean() {
+		long count = this.getCount();
+		return (count == 0L) ? 0.0D : (double) this.getSum() / count;
+	}
+
+	/**
+	 * Gets the duration which the given percentage of the recorded durations doesn't exceed.
+	 *
+	 * <p>
+	 * The result is the highest value of the bucket the percentile falls into, but at most the largest recorded
+	 * duration.
+	 * </p>
+	 *
+	 * @param percentile
+	 *            the percentile, between <code>0</code> and <code>100</code>
+	 * @return the duration in nanoseconds, or <code>0</code> if no durations were recorded
+	 */
+	public long getPercentile(double percentile) {
+		long[] counts = this.getBucketCounts();
+		long total = 0L;
+		for (long bucketCount : counts) {
+			total += bucketCount;
+		}
+		if (total == 0L) return 0L;
+		long rank = Math.max(1L, (long) Math.ceil(Math.min(100.0D, Math.max(0.0D, percentile)) / 100.0D * total));
+		long seen = 0L;
+		for (int index = 0; index < counts.length; index++) {
+			seen += counts[index];
+			if (seen >= rank) {
+				return Math.min(getBucketUpperBound(index), this.getMax());
+			}
+		}
+		return this.getMax();
+	}
+
+	/**
+	 * Gets a copy of the current bucket counts.
+	 *
+	 * @return the bucket counts
+	 * @see #getBucketUpperBound(int)
+	 */
+	long[] getBucketCounts() {
+		long[] counts = new long[BUCKET_COUNT];
+		for (int index = 0; index < BUCKET_COUNT; index++) {
+			counts[index] = buckets.get(index);
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.metrics;
+
+/**
+ * A named metric.
+ */
+public abstract class Metric {
+
+	private final String name;
+	private final String help;
+
+	protected Metric(String name, String help) {
+		if (name == null || !name.matches("[a-z_][a-z0-9_]*")) {
+			throw new IllegalArgumentException("Invalid metric name: " + name);
+		}
+		this.name = name;
+		this.help = help;
+	}
+
+	/**
+	 * Gets the name of this metric, consisting of lowercase letters, digits and underscores.
+	 * 
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets a short description of this metric.
+	 * 
+	 * @return the description
+	 */
+	public String getHelp() {
+		return help;
+	}
+}
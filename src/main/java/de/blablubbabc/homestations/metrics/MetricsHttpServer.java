@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves metrics via HTTP at <code>/metrics</code>.
+ *
+ * <p>
+ * Requests are handled one after the other by a single daemon thread. The metrics are only collected when they are
+ * requested, so the server doesn't cause any work while nobody requests the metrics.
+ * </p>
+ */
+public class MetricsHttpServer {
+
+	public static final String PATH = "/metrics";
+
+	private final InetSocketAddress address;
+	private final Callable<String> source;
+	private final String contentType;
+	private final Logger logger;
+
+	private HttpServer server = null;
+	private ExecutorService executor = null;
+
+	/**
+	 * Creates the server.
+	 *
+	 * @param address
+	 *            the address to bind to
+	 * @param source
+	 *            provides the response body, called on the server thread for every request
+	 * @param contentType
+	 *            the content type of the response body
+	 * @param logger
+	 *            the logger
+	 */
+	public MetricsHttpServer(InetSocketAddress address, Callable<String> source, String contentType, Logger logger) {
+		this.address = address;
+		this.source = source;
+		this.contentType = contentType;
+		this.logger = logger;
+	}
+
+	/**
+	 * Starts the server.
+	 *
+	 * @throws IOException
+	 *             if the server cannot be bound to its address
+	 */
+	public synchronized void start() throws IOException {
+		if (server != null) return;
+		HttpServer server = HttpServer.create(address, 0);
+		server.createContext("/", this::handle);
+		executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "HomeStations metrics server");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.start();
+		this.server = server;
+	}
+
+	/**
+	 * Stops the server.
+	 */
+	public synchronized void stop() {
+		if (server == null) return;
+		server.stop(0);
+		server = null;
+		executor.shutdownNow();
+		executor = null;
+	}
+
+	public synchronized boolean isRunning() {
+		return server != null;
+	}
+
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			if (!PATH.equals(exchange.getRequestURI().getPath())) {
+				this.respond(exchange, 404, "Not found. Metrics are available at " + PATH + "\n", "text/plain; charset=utf-8");
+			} else if (!method.equals("GET") && !method.equals("HEAD")) {
+				exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+				this.respond(exchange, 405, "Method not allowed.\n", "text/plain; charset=utf-8");
+			} else {
+				String body;
+				try {
+					body = source.call();
+				} catch (Exception e) {
+					logger.log(Level.WARNING, "Unable to collect metrics", e);
+					this.respond(exchange, 503, "Unable to collect metrics.\n", "text/plain; charset=utf-8");
+					return;
+				}
+				this.respond(exchange, 200, body, contentType);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void respond(HttpExchange exchange, int status, String body, String contentType) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			exchange.sendResponseHeaders(status, -1L);
+			return;
+		}
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
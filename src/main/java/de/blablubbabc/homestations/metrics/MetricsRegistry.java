@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps track of all metrics of the plugin, in the order of their registration.
+ *
+ * <p>
+ * Metrics are usually registered during startup. Registering a metric with the name of an already registered metric
+ * replaces the previous metric, keeping its position. Safe to be used from multiple threads. However, the values of
+ * counters and gauges with a source are only read when the metrics are exported, which the plugin does on the main
+ * thread, so these sources may read state which is only updated on the main thread.
+ * </p>
+ */
+public class MetricsRegistry {
+
+	private static final double[] PERCENTILES = { 50.0D, 90.0D, 99.0D, 99.9D };
+	private static final double NANOS_PER_MILLISECOND = 1000000.0D;
+
+	private final List<Metric> metrics = new ArrayList<>();
+	// name -> index
+	private final Map<String, Integer> indices = new HashMap<>();
+
+	public MetricsRegistry() {
+	}
+
+	private synchronized <T extends Metric> T register(T metric) {
+		Integer index = indices.putIfAbsent(metric.getName(), metrics.size());
+		if (index != null) {
+			metrics.set(index, metric);
+		} else {
+			metrics.add(metric);
+		}
+		return metric;
+	}
+
+	public Counter counter(String name, String help) {
+		return this.register(new Counter(name, help));
+	}
+
+	/**
+	 * Registers a counter which reads its count from the given source.
+	 *
+	 * @param name
+	 *            the name
+	 * @param help
+	 *            the description
+	 * @param source
+	 *            the source of the count
+	 * @return the counter
+	 */
+	public Counter counter(String name, String help, LongSupplier source) {
+		return this.register(new Counter(name, help, source));
+	}
+
+	/**
+	 * Registers a gauge which reads its value from the given source.
+	 *
+	 * @param name
+	 *            the name
+	 * @param help
+	 *            the description
+	 * @param source
+	 *            the source of the value
+	 * @return the gauge
+	 */
+	public Gauge gauge(String name, String help, DoubleSupplier source) {
+		return this.register(new Gauge(name, help, source));
+	}
+
+	public LatencyRecorder latency(String name, String help) {
+		return this.register(new LatencyRecorder(name, help));
+	}
+
+	public synchronized List<Metric> getMetrics() {
+		return Collections.unmodifiableList(new ArrayList<>(metrics));
+	}
+
+	/**
+	 * Writes the current values of all metrics as a single line JSON object.
+	 *
+	 * <p>
+	 * Counters and gauges are written as numbers. Latencies are written as objects containing the number of recorded
+	 * durations, and their sum, mean, maximum and several percentiles in milliseconds.
+	 * </p>
+	 *
+	 * @param timestamp
+	 *            the timestamp in milliseconds
+	 * @return the JSON object
+	 */
+	public String toJson(long timestamp) {
+		StringBuilder json = new StringBuilder(2048);
+		json.append("{\"timestamp\":").append(timestamp);
+		for (Metric metric : this.getMetrics()) {
+			json.append(",\"").append(metric.getName()).append("\":");
+			if (metric instanceof Counter) {
+				json.append(((Counter) metric).get());
+			} else if (metric instanceof Gauge) {
+				appendNumber(json, ((Gauge) metric).get());
+			} else if (metric instanceof LatencyRecorder) {
+				LatencyRecorder latency = (LatencyRecorder) metric;
+				json.append("{\"count\":").append(latency.getCount());
+				json.append(",\"sum_ms\":");
+				appendNumber(json, latency.getSum() / NANOS_PER_MILLISECOND);
+				json.append(",\"mean_ms\":");
+				appendNumber(json, latency.getMean() / NANOS_PER_MILLISECOND);
+				for (double percentile : PERCENTILES) {
+					json.append(",\"p").append(formatPercentile(percentile)).append("_ms\":");
+					appendNumber(json, latency.getPercentile(percentile) / NANOS_PER_MILLISECOND);
+				}
+				json.append(",\"max_ms\":");
+				appendNumber(json, latency.getMax() / NANOS_PER_MILLISECOND);
+				json.append('}');
+			}
+		}
+		json.append('}');
+		return json.toString();
+	}
+
+	/**
+	 * Formats a percentile for use within a metric or field name, for example <code>99.9</code> as <code>999</code>.
+	 *
+	 * @param percentile
+	 *            the percentile
+	 * @return the formatted percentile
+	 */
+	public static String formatPercentile(double percentile) {
+		String formatted = String.valueOf(percentile);
+		if (formatted.endsWith(".0")) formatted = formatted.substring(0, formatted.length() - 2);
+		return formatted.replace(".", "");
+	}
+
+	public static double[] getPercentiles() {
+		return PERCENTILES.clone();
+	}
+
+	private static void appendNumber(StringBuilder json, double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			json.append("null");
+		} else if (value == Math.rint(value) && Math.abs(value) < 1.0E15D) {
+			json.append((long) value);
+		} else {
+			json.append(Math.round(value * 1000.0D) / 1000.0D);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.metrics;
+
+/**
+ * Writes metrics in the Prometheus text exposition format.
+ *
+ * <p>
+ * Counters get the suffix <code>_total</code>. Latencies are written as histograms in seconds, with the suffix
+ * <code>_seconds</code> and a fixed set of buckets derived from the recorder's finer buckets. Values of a finer bucket
+ * which spans one of the bounds are counted in the next larger bucket.
+ * </p>
+ */
+public class PrometheusFormat {
+
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	// bucket bounds in seconds:
+	private static final double[] BUCKET_BOUNDS = {
+			0.00001D, 0.000025D, 0.00005D, 0.0001D, 0.00025D, 0.0005D,
+			0.001D, 0.0025D, 0.005D, 0.01D, 0.025D, 0.05D,
+			0.1D, 0.25D, 0.5D, 1.0D, 2.5D, 5.0D, 10.0D
+	};
+	private static final double NANOS_PER_SECOND = 1000000000.0D;
+
+	private PrometheusFormat() {
+	}
+
+	/**
+	 * Writes the current values of all metrics of the given registry.
+	 *
+	 * @param registry
+	 *            the registry
+	 * @param namespace
+	 *            the prefix of all metric names
+	 * @return the metrics in the text exposition format
+	 */
+	public static String write(MetricsRegistry registry, String namespace) {
+		StringBuilder text = new StringBuilder(8192);
+		for (Metric metric : registry.getMetrics()) {
+			String name = namespace + "_" + metric.getName();
+			if (metric instanceof Counter) {
+				name += "_total";
+				appendHeader(text, name, metric.getHelp(), "counter");
+				text.append(name).append(' ').append(((Counter) metric).get()).append('\n');
+			} else if (metric instanceof Gauge) {
+				appendHeader(text, name, metric.getHelp(), "gauge");
+				text.append(name).append(' ');
+				appendValue(text, ((Gauge) metric).get());
+				text.append('\n');
+			} else if (metric instanceof LatencyRecorder) {
+				name += "_seconds";
+				appendHeader(text, name, metric.getHelp(), "histogram");
+				appendHistogram(text, name, (LatencyRecorder) metric);
+			}
+		}
+		return text.toString();
+	}
+
+	private static void appendHistogram(StringBuilder text, String name, LatencyRecorder latency) {
+		long[] counts = latency.getBucketCounts();
+		int index = 0;
+		long cumulativeCount = 0L;
+		for (double bound : BUCKET_BOUNDS) {
+			// fine buckets which lie entirely below the bound:
+			long boundNanos = (long) (bound * NANOS_PER_SECOND);
+			while (index < counts.length && LatencyRecorder.getBucketUpperBound(index) <= boundNanos) {
+				cumulativeCount += counts[index];
+				index++;
+			}
+			text.append(name).append("_bucket{le=\"").append(bound).append("\"} ").append(cumulativeCount).append('\n');
+		}
+		while (index < counts.length) {
+			cumulativeCount += counts[index];
+			index++;
+		}
+		text.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulativeCount).append('\n');
+		text.append(name).append("_sum ");
+		appendValue(text, latency.getSum() / NANOS_PER_SECOND);
+		text.append('\n');
+		// consistent with the buckets, even if values got recorded in the meantime:
+		text.append(name).append("_count ").append(cumulativeCount).append('\n');
+	}
+
+	private static void appendHeader(StringBuilder text, String name, String help, String type) {
+		if (help != null && !help.isEmpty()) {
+			text.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+		}
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void appendValue(StringBuilder text, double value) {
+		if (Double.isNaN(value)) {
+			text.append("NaN");
+		} else if (Double.isInfinite(value)) {
+			text.append(value > 0 ? "+Inf" : "-Inf");
+		} else if (value == Math.rint(value) && Math.abs(value) < 1.0E15D) {
+			text.append((long) value);
+		} else {
+			text.append(value);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.storage;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import de.blablubbabc.homestations.PlayerData;
+import de.blablubbabc.homestations.utils.SoftBlockLocation;
+
+/**
+ * Stores the player data of every player inside a separate text file, named after the player's unique id.
+ * 
+ * <p>
+ * The first two lines contain the selected home location and the spawn location. Players with
+ * {@link PlayerData#hasNamedHomes() named homes} get one additional line per home, in the format
+ * <code>name;world;x;y;z</code>. The selected home is the first home at the location of the first line.
+ * </p>
+ */
+public class FilePlayerDataStorage implements PlayerDataStorage {
+
+	private final File folder;
+
+	public FilePlayerDataStorage(File folder) {
+		this.folder = folder;
+		// ensure player data folder exists:
+		folder.mkdirs();
+	}
+
+	@Override
+	public String getName() {
+		return "files";
+	}
+
+	@Override
+	public List<File> getFiles() {
+		return Collections.singletonList(folder);
+	}
+
+	private File getPlayerFile(UUID playerId) {
+		return new File(folder, playerId.toString());
+	}
+
+	@Override
+	public PlayerData load(UUID playerId) throws IOException {
+		return readPlayerDataFile(this.getPlayerFile(playerId));
+	}
+
+	@Override
+	public void save(UUID playerId, PlayerData playerData) throws IOException {
+		writePlayerDataFile(this.getPlayerFile(playerId), playerData);
+	}
+
+	@Override
+	public boolean exists(UUID playerId) {
+		return this.getPlayerFile(playerId).exists();
+	}
+
+	@Override
+	public List<UUID> getPlayerIds() throws IOException {
+		File[] files = folder.listFiles();
+		if (files == null) {
+			throw new IOException("Unable to list the files of folder \"" + folder.getPath() + "\"");
+		}
+		List<UUID> playerIds = new ArrayList<>(files.length);
+		for (File file : files) {
+			if (!file.isFile()) continue;
+			UUID playerId = PlayerDataMigrator.parseUUID(file.getName());
+			if (playerId != null) {
+				playerIds.add(playerId);
+			}
+		}
+		return playerIds;
+	}
+
+	@Override
+	public void flush() {
+		// files are written directly
+	}
+
+	@Override
+	public void close() {
+		// nothing to close
+	}
+
+	/**
+	 * Reads player data from the given file.
+	 * 
+	 * @param playerFile
+	 *            the file
+	 * @return the player data, or <code>null</code> if the file doesn't exist
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	public static PlayerData readPlayerDataFile(File playerFile) throws IOException {
+		// check if player data file exists:
+		if (!playerFile.exists()) {
+			return null;
+		}
+
+		SoftBlockLocation homeLocation = null;
+		SoftBlockLocation spawnLocation = null;
+
+		// read the file:
+		try (BufferedReader inStream = new BufferedReader(new FileReader(playerFile))) {
+			// first line is the home location as string:
+			String homeLocationString = inStream.readLine();
+			// second line is the spawn location as string:
+			String spawnLocationString = inStream.readLine();
+
+			// convert those to SoftBlockLocations and store them:
+			if (homeLocationString != null) {
+				homeLocation = SoftBlockLocation.getFromString(homeLocationString);
+			}
+			if (spawnLocationString != null) {
+				spawnLocation = SoftBlockLocation.getFromString(spawnLocationString);
+			}
+
+			// remaining lines are the named homes:
+			List<String> homeNames = null;
+			List<SoftBlockLocation> homeLocations = null;
+			String homeString;
+			while ((homeString = inStream.readLine()) != null) {
+				int nameEnd = homeString.indexOf(';');
+				if (nameEnd <= 0) continue;
+				String name = homeString.substring(0, nameEnd);
+				SoftBlockLocation location = SoftBlockLocation.getFromString(homeString.substring(nameEnd + 1));
+				if (location == null || !PlayerData.isValidHomeName(name)) continue;
+				if (homeNames == null) {
+					homeNames = new ArrayList<>();
+					homeLocations = new ArrayList<>();
+				} else if (homeNames.size() >= PlayerData.MAX_HOMES || containsIgnoreCase(homeNames, name)) {
+					continue;
+				}
+				homeNames.add(name);
+				homeLocations.add(location);
+			}
+			if (homeNames != null) {
+				int selectedHome = Math.max(0, homeLocations.indexOf(homeLocation));
+				return new PlayerData(homeNames.toArray(new String[homeNames.size()]),
+						homeLocations.toArray(new SoftBlockLocation[homeLocations.size()]), selectedHome, spawnLocation);
+			}
+		}
+		return new PlayerData(homeLocation, spawnLocation);
+	}
+
+	/**
+	 * Writes player data to the given file.
+	 * 
+	 * @param playerFile
+	 *            the file
+	 * @param playerData
+	 *            the player data
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public static void writePlayerDataFile(File playerFile, PlayerData playerData) throws IOException {
+		// open the player's file:
+		try (BufferedWriter outStream = new BufferedWriter(new FileWriter(playerFile))) {
+			// first line is the home location:
+			SoftBlockLocation homeLocation = playerData.getHomeLocation();
+			outStream.write(homeLocation != null ? homeLocation.toString() : "not set");
+			outStream.newLine();
+			// second line is the spawn location:
+			SoftBlockLocation spawnLocation = playerData.getSpawnLocation();
+			outStream.write(spawnLocation != null ? spawnLocation.toString() : "not set");
+			outStream.newLine();
+			// followed by the named homes:
+			if (playerData.hasNamedHomes()) {
+				StringBuilder builder = new StringBuilder(48);
+				for (int i = 0; i < playerData.getHomeCount(); i++) {
+					builder.setLength(0);
+					builder.append(playerData.getHomeName(i)).append(';');
+					outStream.write(playerData.getHomeLocation(i).appendTo(builder).toString());
+					outStream.newLine();
+				}
+			}
+		}
+	}
+
+	private static boolean containsIgnoreCase(List<String> strings, String string) {
+		for (String element : strings) {
+			if (element.equalsIgnoreCase(string)) return true;
+		}
+		return false;
+	}
+}
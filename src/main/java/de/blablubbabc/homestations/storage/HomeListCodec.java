@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.storage;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+import de.blablubbabc.homestations.PlayerData;
+import de.blablubbabc.homestations.utils.SoftBlockLocation;
+
+/**
+ * The compact binary encoding of the named home stations of a player, shared by the binary storages.
+ *
+ * <p>
+ * Layout: number of homes (1 byte), index of the selected home (1 byte), and for every home the world id (4 bytes),
+ * the block coordinates (3 * 4 bytes), the length of the name (1 byte) and the UTF-8 encoded name. Worlds are
+ * referenced by the ids of the storage.
+ * </p>
+ *
+ * <p>
+ * Only player data with {@link PlayerData#hasNamedHomes() named homes} needs to be encoded this way: a single home with
+ * the default name is fully described by the home location of the regular record.
+ * </p>
+ */
+final class HomeListCodec {
+
+	interface WorldIdResolver {
+
+		/**
+		 * Gets the storage's id for the world of the given location, registering the world if necessary.
+		 *
+		 * @param location
+		 *            the location
+		 * @return the world id
+		 * @throws IOException
+		 *             if the world could not be registered
+		 */
+		int getWorldId(SoftBlockLocation location) throws IOException;
+	}
+
+	// world id, coordinates, name length:
+	private static final int HOME_HEADER_SIZE = 4 + 3 * 4 + 1;
+
+	private HomeListCodec() {
+	}
+
+	/**
+	 * Encodes the home stations of the given player data.
+	 *
+	 * <p>
+	 * All worlds get resolved before any bytes are produced, so that storages can write their world records first.
+	 * </p>
+	 *
+	 * @param playerData
+	 *            the player data
+	 * @param worldIds
+	 *            resolves the world ids
+	 * @return the encoded home stations
+	 * @throws IOException
+	 *             if a world could not be resolved
+	 */
+	static byte[] encode(PlayerData playerData, WorldIdResolver worldIds) throws IOException {
+		int homeCount = playerData.getHomeCount();
+		int[] homeWorldIds = new int[homeCount];
+		byte[][] names = new byte[homeCount][];
+		int size = 2;
+		for (int i = 0; i < homeCount; i++) {
+			homeWorldIds[i] = worldIds.getWorldId(playerData.getHomeLocation(i));
+			names[i] = playerData.getHomeName(i).getBytes(StandardCharsets.UTF_8);
+			size += HOME_HEADER_SIZE + names[i].length;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.put((byte) homeCount).put((byte) Math.max(0, playerData.getSelectedHome()));
+		for (int i = 0; i < homeCount; i++) {
+			SoftBlockLocation location = playerData.getHomeLocation(i);
+			buffer.putInt(homeWorldIds[i]).putInt(location.getX()).putInt(location.getY()).putInt(location.getZ());
+			buffer.put((byte) names[i].length).put(names[i]);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Decodes home stations.
+	 *
+	 * <p>
+	 * Homes in unknown worlds are skipped.
+	 * </p>
+	 *
+	 * @param buffer
+	 *            the encoded home stations, between the buffer's position and limit
+	 * @param worldNames
+	 *            maps world ids to world names, returning <code>null</code> for unknown world ids
+	 * @param spawnLocation
+	 *            the spawn location of the player, can be <code>null</code>
+	 * @return the player data
+	 * @throws IOException
+	 *             if the encoded data is malformed
+	 */
+	static PlayerData decode(ByteBuffer buffer, IntFunction<String> worldNames, SoftBlockLocation spawnLocation) throws IOException {
+		try {
+			int homeCount = buffer.get() & 0xFF;
+			int selectedHome = buffer.get() & 0xFF;
+			String[] names = new String[homeCount];
+			SoftBlockLocation[] locations = new SoftBlockLocation[homeCount];
+			int count = 0;
+			for (int i = 0; i < homeCount; i++) {
+				String worldName = worldNames.apply(buffer.getInt());
+				int x = buffer.getInt();
+				int y = buffer.getInt();
+				int z = buffer.getInt();
+				byte[] nameBytes = new byte[buffer.get() & 0xFF];
+				buffer.get(nameBytes);
+				if (worldName == null) {
+					if (selectedHome > count) selectedHome--;
+					continue;
+				}
+				names[count] = new String(nameBytes, StandardCharsets.UTF_8);
+				locations[count] = new SoftBlockLocation(worldName, x, y, z);
+				count++;
+			}
+			if (buffer.hasRemaining()) {
+				throw new IOException("Corrupted home list: unexpected trailing data!");
+			}
+			if (count < homeCount) {
+				names = Arrays.copyOf(names, count);
+				locations = Arrays.copyOf(locations, count);
+			}
+			return new PlayerData(names, locations, selectedHome, spawnLocation);
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Corrupted home list!", e);
+		}
+	}
+}
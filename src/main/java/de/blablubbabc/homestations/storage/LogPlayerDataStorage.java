@@ -0,0 +1,582 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.storage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import de.blablubbabc.homestations.PlayerData;
+import de.blablubbabc.homestations.utils.SoftBlockLocation;
+
+/**
+ * Stores all player data inside a single append-only binary file.
+ * 
+ * <p>
+ * Every save appends a fixed-size record for the player. An in-memory index keeps track of the offset of the latest
+ * record of every player. World names are stored only once and referenced by id. Outdated records are periodically
+ * removed by rewriting the file (compaction).
+ * </p>
+ * 
+ * <p>
+ * Players with {@link PlayerData#hasNamedHomes() named homes} get a variable-size record instead, which additionally
+ * contains their home stations in the encoding of {@link HomeListCodec}. These records are only checked while building
+ * the index on startup and get decoded when the player's data is loaded. Files without such records keep version 1,
+ * so that older versions of the plugin can still read them: the file gets upgraded once the first one is written, and
+ * compaction writes version 1 again if none of them remain.
+ * </p>
+ * 
+ * <p>
+ * Every record is protected by a checksum. If the file ends with an incomplete or corrupted record (for example after
+ * a crash during writing), the file is truncated to the last valid record on startup. Corrupted data in the middle of
+ * the file is skipped instead, so that the valid records after it are kept, and gets removed by the next compaction.
+ * In both cases a timestamped copy of the file is made before it gets changed.
+ * </p>
+ */
+public class LogPlayerDataStorage implements PlayerDataStorage {
+
+	private static final int MAGIC = 0x48534442; // "HSDB"
+	private static final int VERSION = 2;
+	private static final int VERSION_WITHOUT_HOMES = 1;
+	private static final int HEADER_SIZE = 8;
+
+	private static final byte RECORD_WORLD = 1;
+	private static final byte RECORD_PLAYER = 2;
+	private static final byte RECORD_PLAYER_HOMES = 3;
+
+	// type, world id, name length:
+	private static final int WORLD_RECORD_HEADER_SIZE = 1 + 4 + 2;
+	// type, uuid, 2 locations (world id and coordinates), checksum:
+	private static final int PLAYER_RECORD_SIZE = 1 + 16 + 2 * 16 + 4;
+	// same as a player record, followed by the length of the encoded homes, the encoded homes and the checksum:
+	private static final int PLAYER_HOMES_RECORD_HEADER_SIZE = 1 + 16 + 2 * 16 + 2;
+	private static final int PLAYER_HOMES_LENGTH_OFFSET = 1 + 16 + 2 * 16;
+	private static final int NO_WORLD = -1;
+
+	// the file is scanned in chunks of this size, which fits the largest possible record:
+	private static final int SCAN_BUFFER_SIZE = 128 * 1024;
+
+	// compaction is triggered once the file contains more than this many outdated records ..
+	private static final int COMPACTION_MIN_OUTDATED_RECORDS = 1024;
+	// .. and the outdated records outnumber the live records:
+	private static final double COMPACTION_OUTDATED_RATIO = 1.0D;
+
+	private final File file;
+	private final Logger logger;
+
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+	private int version;
+	private long endOffset;
+	private boolean dirty = false;
+	// set if corrupted data got skipped, which is only removed by compaction:
+	private boolean compactionRequired = false;
+	private boolean corruptedFileBackedUp = false;
+
+	// player id -> offset of the player's latest record
+	private final UUIDLongMap index = new UUIDLongMap();
+	private long playerRecordCount = 0L;
+
+	// interned world names:
+	private final List<String> worldNames = new ArrayList<>();
+	private final Map<String, Integer> worldIds = new HashMap<>();
+
+	private final ByteBuffer playerRecordBuffer = ByteBuffer.allocate(PLAYER_RECORD_SIZE);
+	private final CRC32 crc = new CRC32();
+
+	public LogPlayerDataStorage(File file, Logger logger) throws IOException {
+		this.file = file;
+		this.logger = logger;
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) parent.mkdirs();
+		this.open();
+	}
+
+	@Override
+	public String getName() {
+		return "log";
+	}
+
+	@Override
+	public List<File> getFiles() {
+		return Collections.singletonList(file);
+	}
+
+	private void open() throws IOException {
+		boolean newFile = !file.exists() || file.length() == 0L;
+		long skippedBytes = 0L;
+		if (!newFile) {
+			skippedBytes = this.readIndex();
+			if (skippedBytes > 0L || file.length() > endOffset) {
+				this.backupCorruptedFile();
+			}
+		}
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		channel = randomAccessFile.getChannel();
+		if (newFile) {
+			// older versions of the plugin can read the file until it contains named homes:
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION_WITHOUT_HOMES).flip();
+			writeFully(channel, header, 0L);
+			version = VERSION_WITHOUT_HOMES;
+			endOffset = HEADER_SIZE;
+		} else if (channel.size() > endOffset) {
+			logger.warning("Player data file \"" + file.getPath() + "\" ends with " + (channel.size() - endOffset)
+					+ " bytes of incomplete or corrupted data. Discarding them now.");
+			channel.truncate(endOffset);
+		}
+		if (skippedBytes > 0L) {
+			logger.warning("Skipped " + skippedBytes + " bytes of corrupted data in player data file \"" + file.getPath()
+					+ "\". The affected players fall back to their previous records, if there are any. The corrupted data gets removed now.");
+			compactionRequired = true;
+		}
+	}
+
+	// keeps a copy of the file, before corrupted data gets removed from it:
+	private void backupCorruptedFile() throws IOException {
+		if (corruptedFileBackedUp) return;
+		String backupPath = file.getPath() + ".corrupted-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		File backupFile = new File(backupPath);
+		for (int i = 2; backupFile.exists(); i++) {
+			backupFile = new File(backupPath + "-" + i);
+		}
+		Files.copy(file.toPath(), backupFile.toPath());
+		corruptedFileBackedUp = true;
+		logger.warning("Found corrupted data in player data file \"" + file.getPath() + "\". Saved a copy of the file to \""
+				+ backupFile.getPath() + "\".");
+	}
+
+	// scans the whole file, builds the index and determines the end of the last valid record. Corrupted data in the
+	// middle of the file is skipped; returns the number of skipped bytes:
+	private long readIndex() throws IOException {
+		index.clear();
+		worldNames.clear();
+		worldIds.clear();
+		playerRecordCount = 0L;
+
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			if (in.length() < HEADER_SIZE || in.readInt() != MAGIC) {
+				throw new IOException("Not a player data file: " + file.getPath());
+			}
+			version = in.readInt();
+			if (version != VERSION && version != VERSION_WITHOUT_HOMES) {
+				throw new IOException("Unsupported player data file version: " + version);
+			}
+
+			FileScanner scanner = new FileScanner(in.getChannel());
+			long skippedBytes = 0L;
+			long offset = HEADER_SIZE;
+			while (offset < scanner.size) {
+				int length = this.checkRecord(scanner, offset);
+				if (length < 0) {
+					// continue with the next valid record, if there is any:
+					long next = offset + 1;
+					while (next < scanner.size && (length = this.checkRecord(scanner, next)) < 0) {
+						next++;
+					}
+					if (next >= scanner.size) break; // incomplete or corrupted last record
+					skippedBytes += next - offset;
+					offset = next;
+				}
+				this.indexRecord(scanner, offset);
+				offset += length;
+			}
+			endOffset = offset;
+			return skippedBytes;
+		}
+	}
+
+	// returns the length of the valid record at the given offset, or -1 if there is no complete valid record:
+	private int checkRecord(FileScanner scanner, long offset) throws IOException {
+		int position = scanner.fill(offset, 1);
+		if (position < 0) return -1;
+		int length;
+		switch (scanner.buffer.get(position)) {
+		case RECORD_WORLD:
+			position = scanner.fill(offset, WORLD_RECORD_HEADER_SIZE);
+			if (position < 0) return -1;
+			length = WORLD_RECORD_HEADER_SIZE + (scanner.buffer.getShort(position + 5) & 0xFFFF) + 4;
+			break;
+		case RECORD_PLAYER:
+			length = PLAYER_RECORD_SIZE;
+			break;
+		case RECORD_PLAYER_HOMES:
+			position = scanner.fill(offset, PLAYER_HOMES_RECORD_HEADER_SIZE);
+			if (position < 0) return -1;
+			length = PLAYER_HOMES_RECORD_HEADER_SIZE + (scanner.buffer.getShort(position + PLAYER_HOMES_LENGTH_OFFSET) & 0xFFFF) + 4;
+			break;
+		default:
+			return -1;
+		}
+		position = scanner.fill(offset, length);
+		if (position < 0) return -1;
+		crc.reset();
+		crc.update(scanner.buffer.array(), position, length - 4);
+		if ((int) crc.getValue() != scanner.buffer.getInt(position + length - 4)) return -1;
+		return length;
+	}
+
+	// adds the record at the given offset, which has already been checked, to the index:
+	private void indexRecord(FileScanner scanner, long offset) throws IOException {
+		ByteBuffer buffer = scanner.buffer;
+		int position = scanner.fill(offset, 1);
+		if (buffer.get(position) == RECORD_WORLD) {
+			position = scanner.fill(offset, WORLD_RECORD_HEADER_SIZE);
+			int worldId = buffer.getInt(position + 1);
+			int nameLength = buffer.getShort(position + 5) & 0xFFFF;
+			position = scanner.fill(offset, WORLD_RECORD_HEADER_SIZE + nameLength);
+			this.internWorld(worldId, new String(buffer.array(), position + WORLD_RECORD_HEADER_SIZE, nameLength, StandardCharsets.UTF_8));
+		} else {
+			// player records with or without homes: the homes get decoded when the player's data is loaded
+			position = scanner.fill(offset, 1 + 16);
+			index.put(buffer.getLong(position + 1), buffer.getLong(position + 9), offset);
+			playerRecordCount++;
+		}
+	}
+
+	// reads a file in chunks, while it gets scanned from front to back:
+	private static final class FileScanner {
+
+		private final FileChannel channel;
+		private final long size;
+		private final ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+		private long bufferOffset = 0L;
+
+		FileScanner(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+			buffer.limit(0);
+		}
+
+		// returns the buffer index of the given file offset, with at least the given number of bytes available, or -1 if
+		// the file ends before:
+		int fill(long offset, int length) throws IOException {
+			if (offset + length > size) return -1;
+			if (offset < bufferOffset || offset + length > bufferOffset + buffer.limit()) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), size - offset));
+				readFully(channel, buffer, offset);
+				bufferOffset = offset;
+			}
+			return (int) (offset - bufferOffset);
+		}
+	}
+
+	private boolean isValidPlayerRecord(ByteBuffer record) {
+		crc.reset();
+		crc.update(record.array(), record.arrayOffset(), PLAYER_RECORD_SIZE - 4);
+		return (int) crc.getValue() == record.getInt(PLAYER_RECORD_SIZE - 4);
+	}
+
+	// registers a world read from the file; world ids have gaps if world records got skipped:
+	private void internWorld(int worldId, String worldName) {
+		if (worldId < worldNames.size()) return; // already known
+		while (worldNames.size() < worldId) {
+			worldNames.add(null);
+		}
+		worldNames.add(worldName);
+		worldIds.putIfAbsent(worldName, worldId);
+	}
+
+	private int internWorld(String worldName) {
+		Integer worldId = worldIds.get(worldName);
+		if (worldId == null) {
+			worldId = worldNames.size();
+			worldNames.add(worldName);
+			worldIds.put(worldName, worldId);
+		}
+		return worldId;
+	}
+
+	// fills the remaining space of the buffer:
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new EOFException("Unexpected end of player data file!");
+			}
+			position += read;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private void validateOpen() throws IOException {
+		if (channel == null) {
+			throw new IOException("Storage is closed!");
+		}
+	}
+
+	@Override
+	public synchronized PlayerData load(UUID playerId) throws IOException {
+		this.validateOpen();
+		long offset = index.get(playerId);
+		if (offset < 0L) return null;
+
+		ByteBuffer record = this.readRecord(channel, offset);
+		if (record == null) {
+			throw new IOException("Corrupted player data record at offset " + offset + "!");
+		}
+		SoftBlockLocation spawnLocation = this.readLocation(record, 33);
+		if (record.get(0) == RECORD_PLAYER_HOMES) {
+			record.position(PLAYER_HOMES_RECORD_HEADER_SIZE).limit(record.capacity() - 4);
+			return HomeListCodec.decode(record, this::getWorldName, spawnLocation);
+		}
+		return new PlayerData(this.readLocation(record, 17), spawnLocation);
+	}
+
+	// reads the player record at the given offset, returns null if it is corrupted:
+	private ByteBuffer readRecord(FileChannel channel, long offset) throws IOException {
+		// player records with homes are larger than player records:
+		playerRecordBuffer.clear();
+		readFully(channel, playerRecordBuffer, offset);
+		byte type = playerRecordBuffer.get(0);
+		if (type == RECORD_PLAYER) {
+			return this.isValidPlayerRecord(playerRecordBuffer) ? playerRecordBuffer : null;
+		} else if (type != RECORD_PLAYER_HOMES) {
+			return null;
+		}
+
+		int homesLength = playerRecordBuffer.getShort(PLAYER_HOMES_LENGTH_OFFSET) & 0xFFFF;
+		ByteBuffer record = ByteBuffer.allocate(PLAYER_HOMES_RECORD_HEADER_SIZE + homesLength + 4);
+		playerRecordBuffer.flip();
+		record.put(playerRecordBuffer);
+		readFully(channel, record, offset + PLAYER_RECORD_SIZE);
+		crc.reset();
+		crc.update(record.array(), 0, record.capacity() - 4);
+		if ((int) crc.getValue() != record.getInt(record.capacity() - 4)) return null;
+		return record;
+	}
+
+	private String getWorldName(int worldId) {
+		if (worldId < 0 || worldId >= worldNames.size()) return null;
+		return worldNames.get(worldId);
+	}
+
+	private SoftBlockLocation readLocation(ByteBuffer buffer, int index) {
+		int worldId = buffer.getInt(index);
+		String worldName = this.getWorldName(worldId);
+		if (worldName == null) return null;
+		return new SoftBlockLocation(worldName, buffer.getInt(index + 4), buffer.getInt(index + 8), buffer.getInt(index + 12));
+	}
+
+	@Override
+	public synchronized void save(UUID playerId, PlayerData playerData) throws IOException {
+		this.validateOpen();
+		// write world records for new worlds first:
+		SoftBlockLocation homeLocation = playerData.getHomeLocation();
+		SoftBlockLocation spawnLocation = playerData.getSpawnLocation();
+		int homeWorldId = this.getOrWriteWorldId(homeLocation);
+		int spawnWorldId = this.getOrWriteWorldId(spawnLocation);
+		byte[] homes = null;
+		if (playerData.hasNamedHomes()) {
+			homes = HomeListCodec.encode(playerData, this::getOrWriteWorldId);
+			if (version != VERSION) {
+				// older versions of the plugin cannot read these records:
+				ByteBuffer versionBuffer = ByteBuffer.allocate(4);
+				versionBuffer.putInt(VERSION).flip();
+				writeFully(channel, versionBuffer, 4L);
+				version = VERSION;
+			}
+		}
+
+		long offset = endOffset;
+		endOffset += this.writePlayerRecord(playerId.getMostSignificantBits(), playerId.getLeastSignificantBits(),
+				homeWorldId, homeLocation, spawnWorldId, spawnLocation, homes, offset);
+		index.put(playerId.getMostSignificantBits(), playerId.getLeastSignificantBits(), offset);
+		playerRecordCount++;
+		dirty = true;
+	}
+
+	private int getOrWriteWorldId(SoftBlockLocation location) throws IOException {
+		if (location == null) return NO_WORLD;
+		String worldName = location.getWorldName();
+		Integer worldId = worldIds.get(worldName);
+		if (worldId != null) return worldId;
+
+		worldId = this.internWorld(worldName);
+		endOffset += this.writeWorldRecord(channel, worldId, worldName, endOffset);
+		return worldId;
+	}
+
+	// returns the number of written bytes:
+	private int writeWorldRecord(FileChannel channel, int worldId, String worldName, long offset) throws IOException {
+		byte[] nameBytes = worldName.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer record = ByteBuffer.allocate(WORLD_RECORD_HEADER_SIZE + nameBytes.length + 4);
+		record.put(RECORD_WORLD).putInt(worldId).putShort((short) nameBytes.length).put(nameBytes);
+		crc.reset();
+		crc.update(record.array(), 0, record.position());
+		record.putInt((int) crc.getValue());
+		record.flip();
+		writeFully(channel, record, offset);
+		return record.limit();
+	}
+
+	// returns the number of written bytes:
+	private int writePlayerRecord(long mostSigBits, long leastSigBits, int homeWorldId, SoftBlockLocation home,
+									int spawnWorldId, SoftBlockLocation spawn, byte[] homes, long offset) throws IOException {
+		ByteBuffer record;
+		if (homes == null) {
+			record = playerRecordBuffer;
+			record.clear();
+			record.put(RECORD_PLAYER);
+		} else {
+			record = ByteBuffer.allocate(PLAYER_HOMES_RECORD_HEADER_SIZE + homes.length + 4);
+			record.put(RECORD_PLAYER_HOMES);
+		}
+		record.putLong(mostSigBits).putLong(leastSigBits);
+		this.putLocation(record, homeWorldId, home);
+		this.putLocation(record, spawnWorldId, spawn);
+		if (homes != null) {
+			record.putShort((short) homes.length).put(homes);
+		}
+		crc.reset();
+		crc.update(record.array(), record.arrayOffset(), record.position());
+		record.putInt((int) crc.getValue());
+		record.flip();
+		writeFully(channel, record, offset);
+		return record.limit();
+	}
+
+	private void putLocation(ByteBuffer buffer, int worldId, SoftBlockLocation location) {
+		if (location == null) {
+			buffer.putInt(NO_WORLD).putInt(0).putInt(0).putInt(0);
+		} else {
+			buffer.putInt(worldId).putInt(location.getX()).putInt(location.getY()).putInt(location.getZ());
+		}
+	}
+
+	@Override
+	public synchronized boolean exists(UUID playerId) {
+		return index.get(playerId) >= 0L;
+	}
+
+	@Override
+	public synchronized List<UUID> getPlayerIds() throws IOException {
+		this.validateOpen();
+		final List<UUID> playerIds = new ArrayList<>(index.size());
+		index.forEach((mostSigBits, leastSigBits, offset) -> playerIds.add(new UUID(mostSigBits, leastSigBits)));
+		return playerIds;
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		this.validateOpen();
+		if (dirty) {
+			channel.force(false);
+			dirty = false;
+		}
+
+		long outdatedRecords = playerRecordCount - index.size();
+		if (compactionRequired || (outdatedRecords >= COMPACTION_MIN_OUTDATED_RECORDS && outdatedRecords > index.size() * COMPACTION_OUTDATED_RATIO)) {
+			this.compact();
+		}
+	}
+
+	// rewrites the file, keeping only the latest record of every player:
+	private void compact() throws IOException {
+		long startTime = System.currentTimeMillis();
+		long oldSize = endOffset;
+		File tempFile = new File(file.getPath() + ".tmp");
+		final UUIDLongMap newIndex = new UUIDLongMap();
+		try (RandomAccessFile tempRandomAccessFile = new RandomAccessFile(tempFile, "rw")) {
+			tempRandomAccessFile.setLength(0L);
+			final FileChannel tempChannel = tempRandomAccessFile.getChannel();
+
+			// world records, keeping the world ids:
+			long offset = HEADER_SIZE;
+			for (int worldId = 0; worldId < worldNames.size(); worldId++) {
+				String worldName = worldNames.get(worldId);
+				if (worldName == null) continue; // lost
+				offset += this.writeWorldRecord(tempChannel, worldId, worldName, offset);
+			}
+
+			// copy the latest player records:
+			final long[] tempOffset = { offset };
+			final boolean[] containsHomes = { false };
+			index.forEach((mostSigBits, leastSigBits, recordOffset) -> {
+				ByteBuffer record = this.readRecord(channel, recordOffset);
+				if (record == null) {
+					throw new IOException("Corrupted player data record at offset " + recordOffset + "!");
+				}
+				if (record.get(0) == RECORD_PLAYER_HOMES) {
+					containsHomes[0] = true;
+				}
+				record.clear();
+				writeFully(tempChannel, record, tempOffset[0]);
+				newIndex.put(mostSigBits, leastSigBits, tempOffset[0]);
+				tempOffset[0] += record.capacity();
+			});
+			offset = tempOffset[0];
+
+			// header, only requiring the current version if there are named homes left:
+			int newVersion = containsHomes[0] ? VERSION : VERSION_WITHOUT_HOMES;
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(newVersion).flip();
+			writeFully(tempChannel, header, 0L);
+			tempChannel.force(true);
+
+			// swap files:
+			this.closeChannel();
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			version = newVersion;
+			endOffset = offset;
+		} catch (IOException e) {
+			tempFile.delete();
+			if (channel == null) {
+				// reopen the old file:
+				this.open();
+			}
+			throw e;
+		}
+
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		channel = randomAccessFile.getChannel();
+		index.clear();
+		newIndex.forEach(index::put);
+		playerRecordCount = index.size();
+		compactionRequired = false;
+		logger.info("Compacted player data file from " + oldSize + " to " + endOffset + " bytes in "
+				+ (System.currentTimeMillis() - startTime) + " ms.");
+	}
+
+	private void closeChannel() throws IOException {
+		if (randomAccessFile != null) {
+			randomAccessFile.close();
+			randomAccessFile = null;
+			channel = null;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel == null) return;
+		try {
+			this.flush();
+		} finally {
+			this.closeChannel();
+		}
+	}
+}
@@ -0,0 +1,832 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import de.blablubbabc.homestations.PlayerData;
+import de.blablubbabc.homestations.utils.SoftBlockLocation;
+
+/**
+ * Stores all player data inside a memory-mapped file of fixed-size records.
+ * 
+ * <p>
+ * The records form an open-addressing hash table (linear probing) keyed by the player's unique id, so that loading the
+ * data of a player only requires a few reads from the mapped memory. Locations are stored as world index and block
+ * coordinates. The world names are kept in a small separate text file, which only ever gets appended to.
+ * </p>
+ * 
+ * <p>
+ * The home stations of players with {@link PlayerData#hasNamedHomes() named homes} don't fit into the fixed-size
+ * records. They are appended in the encoding of {@link HomeListCodec} to a separate, checksummed homes file, which is
+ * indexed on startup without decoding the homes and compacted once it mostly consists of outdated entries.
+ * </p>
+ * 
+ * <p>
+ * Every record holds two copies of the player's locations, each protected by a sequence number and a checksum. Updates
+ * only overwrite the older copy, so that a write which got interrupted (for example due to a crash) leaves the previous
+ * data intact. Records without any valid copy are dropped when the file gets opened the next time. Files of the
+ * previous format, with a single copy per record, get converted when opened.
+ * </p>
+ * 
+ * <p>
+ * The table is only ever rebuilt (when it grows, or to drop corrupted records) via regular file writes into a new file,
+ * which then replaces the old file. If the files can't be swapped, the old file keeps being used.
+ * </p>
+ */
+public class MappedPlayerDataStorage implements PlayerDataStorage {
+
+	private static final int MAGIC = 0x48534d50; // "HSMP"
+	private static final int VERSION = 2;
+	// single copy of the data per record, converted when opened:
+	private static final int VERSION_1 = 1;
+	private static final int HEADER_SIZE = 64;
+
+	private static final int HOMES_MAGIC = 0x48534d48; // "HSMH"
+	private static final int HOMES_VERSION = 1;
+	private static final int HOMES_HEADER_SIZE = 8;
+	// uuid, length of the encoded homes:
+	private static final int HOMES_ENTRY_HEADER_SIZE = 16 + 2;
+	// the homes file is compacted once it is at least this large ..
+	private static final long HOMES_COMPACTION_MIN_SIZE = 64L * 1024L;
+	// .. and the outdated entries take up more space than the live entries:
+	private static final double HOMES_COMPACTION_OUTDATED_RATIO = 1.0D;
+
+	// state, uuid, 2 copies of the data, padding:
+	private static final int RECORD_SIZE = 128;
+	private static final int STATE_OFFSET = 0;
+	private static final int MOST_SIG_BITS_OFFSET = 1;
+	private static final int LEAST_SIG_BITS_OFFSET = 9;
+	// sequence number, 2 locations (world index and coordinates), checksum over the uuid and the copy:
+	private static final int COPY_SIZE = 4 + 2 * 16 + 4;
+	private static final int COPY_A_OFFSET = 17;
+	private static final int COPY_B_OFFSET = COPY_A_OFFSET + COPY_SIZE;
+	// relative to the copy:
+	private static final int SEQUENCE_OFFSET = 0;
+	private static final int HOME_OFFSET = 4;
+	private static final int SPAWN_OFFSET = 20;
+	private static final int CHECKSUM_OFFSET = 36;
+	private static final int CHECKSUMMED_SIZE = 16 + CHECKSUM_OFFSET;
+
+	// version 1: state, uuid, 2 locations, checksum over all of these, padding:
+	private static final int V1_RECORD_SIZE = 64;
+	private static final int V1_LOCATIONS_OFFSET = 17;
+	private static final int V1_CHECKSUMMED_SIZE = 1 + 16 + 2 * 16;
+
+	private static final byte STATE_FREE = 0;
+	private static final byte STATE_USED = 1;
+	private static final int NO_WORLD = -1;
+	private static final byte[] NO_HOMES = new byte[0];
+
+	private static final int MIN_CAPACITY = 1024;
+	private static final double MAX_LOAD_FACTOR = 0.7D;
+	// after a failed growth, the next attempt is made once this many more players got added:
+	private static final int GROWTH_RETRY_INTERVAL = 64;
+	// records are read in chunks of this size when the file is scanned or rebuilt:
+	private static final int READ_CHUNK_SIZE = 64 * 1024;
+
+	private static final Unmapper UNMAPPER = createUnmapper();
+
+	private final File file;
+	private final File worldsFile;
+	private final File homesFile;
+	private final Logger logger;
+
+	private RandomAccessFile randomAccessFile;
+	private MappedByteBuffer buffer;
+	private int capacity; // power of two
+	private int size;
+	private boolean dirty = false;
+	private int nextGrowthSize = 0;
+
+	private RandomAccessFile homesRandomAccessFile;
+	private FileChannel homesChannel;
+	private long homesEndOffset;
+	private boolean homesDirty = false;
+	// player id -> offset of the player's latest homes entry; entries without homes mark removed homes
+	private final UUIDLongMap homesIndex = new UUIDLongMap();
+	private long homesLiveBytes = 0L;
+
+	private final List<String> worldNames = new ArrayList<>();
+	private final Map<String, Integer> worldIds = new HashMap<>();
+
+	private final byte[] checksumBuffer = new byte[CHECKSUMMED_SIZE];
+	private final CRC32 crc = new CRC32();
+
+	public MappedPlayerDataStorage(File file, Logger logger) throws IOException {
+		this.file = file;
+		this.worldsFile = new File(file.getPath() + ".worlds");
+		this.homesFile = new File(file.getPath() + ".homes");
+		this.logger = logger;
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) parent.mkdirs();
+
+		this.loadWorlds();
+		if (!file.exists() || file.length() == 0L) {
+			if (homesFile.length() > HOMES_HEADER_SIZE) {
+				// left behind by a table which no longer exists, and would otherwise get applied to the new records:
+				File orphanedHomesFile = new File(homesFile.getPath() + ".orphaned");
+				logger.warning("Found homes file \"" + homesFile.getPath() + "\" without player data file. Moving it to \""
+						+ orphanedHomesFile.getPath() + "\".");
+				Files.move(homesFile.toPath(), orphanedHomesFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			create(file, MIN_CAPACITY);
+		}
+		this.open();
+		try {
+			this.openHomes();
+		} catch (IOException e) {
+			this.closeFile();
+			throw e;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "mapped";
+	}
+
+	@Override
+	public List<File> getFiles() {
+		return Arrays.asList(file, worldsFile, homesFile);
+	}
+
+	// WORLDS
+
+	private void loadWorlds() throws IOException {
+		if (!worldsFile.exists()) return;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(worldsFile), StandardCharsets.UTF_8))) {
+			String worldName;
+			while ((worldName = reader.readLine()) != null) {
+				// keep the line numbers (world indices) intact, even for duplicates:
+				if (!worldIds.containsKey(worldName)) {
+					worldIds.put(worldName, worldNames.size());
+				}
+				worldNames.add(worldName);
+			}
+		}
+	}
+
+	private int getOrAddWorldId(SoftBlockLocation location) throws IOException {
+		if (location == null) return NO_WORLD;
+		String worldName = location.getWorldName();
+		Integer worldId = worldIds.get(worldName);
+		if (worldId != null) return worldId;
+
+		// persist the new world name before any record references it:
+		try (FileOutputStream out = new FileOutputStream(worldsFile, true);
+				Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+			writer.write(worldName);
+			writer.write('\n');
+			writer.flush();
+			out.getFD().sync();
+		}
+		worldId = worldNames.size();
+		worldNames.add(worldName);
+		worldIds.put(worldName, worldId);
+		return worldId;
+	}
+
+	// FILE
+
+	private static void create(File file, int capacity) throws IOException {
+		try (RandomAccessFile newFile = new RandomAccessFile(file, "rw")) {
+			newFile.setLength(0L);
+			newFile.setLength(HEADER_SIZE + (long) capacity * RECORD_SIZE);
+			newFile.writeInt(MAGIC);
+			newFile.writeInt(VERSION);
+			newFile.writeInt(capacity);
+			newFile.getFD().sync();
+		}
+	}
+
+	// the file gets checked, and converted or repaired if necessary, before it is mapped, so that it can still be replaced:
+	private void open() throws IOException {
+		File tempFile = this.getTempFile();
+		boolean rebuilt = false;
+		int fileCapacity;
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			FileChannel channel = in.getChannel();
+			if (channel.size() < HEADER_SIZE || in.readInt() != MAGIC) {
+				throw new IOException("Not a player data file: " + file.getPath());
+			}
+			int version = in.readInt();
+			if (version != VERSION && version != VERSION_1) {
+				throw new IOException("Unsupported player data file version: " + version);
+			}
+			int recordSize = (version == VERSION_1) ? V1_RECORD_SIZE : RECORD_SIZE;
+			fileCapacity = in.readInt();
+			if (fileCapacity < MIN_CAPACITY || Integer.bitCount(fileCapacity) != 1 || channel.size() < HEADER_SIZE + (long) fileCapacity * recordSize) {
+				throw new IOException("Corrupted player data file header: " + file.getPath());
+			}
+
+			if (version == VERSION_1) {
+				logger.info("Converting player data file \"" + file.getPath() + "\" to the current format.");
+				size = this.writeTable(channel, version, fileCapacity, tempFile, fileCapacity);
+				rebuilt = true;
+			} else {
+				// count and verify records:
+				final int[] counts = new int[2]; // valid, corrupted
+				readRecords(channel, fileCapacity, RECORD_SIZE, (records, position) -> {
+					byte state = records.get(position + STATE_OFFSET);
+					if (state == STATE_FREE) return;
+					if (state == STATE_USED && this.getCurrentCopy(records, position) >= 0) {
+						counts[0]++;
+					} else {
+						counts[1]++;
+					}
+				});
+				size = counts[0];
+				if (counts[1] > 0) {
+					logger.warning("Found " + counts[1] + " corrupted records in player data file \"" + file.getPath() + "\". Dropping them now.");
+					// rebuild the table, so that the probe sequences don't get interrupted by the dropped records:
+					size = this.writeTable(channel, version, fileCapacity, tempFile, fileCapacity);
+					rebuilt = true;
+				}
+			}
+		}
+		if (rebuilt) {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		capacity = fileCapacity;
+		this.map();
+	}
+
+	private void map() throws IOException {
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+		} catch (IOException e) {
+			this.closeFile();
+			throw e;
+		}
+	}
+
+	private void closeFile() throws IOException {
+		if (buffer != null) {
+			// release the mapping right away if possible, since some platforms (Windows) don't allow replacing a mapped
+			// file; otherwise the mapping gets released once the buffer is garbage collected:
+			if (UNMAPPER != null) {
+				try {
+					UNMAPPER.unmap(buffer);
+				} catch (Exception e) {
+					logger.fine("Could not unmap player data file: " + e);
+				}
+			}
+			buffer = null;
+		}
+		if (randomAccessFile != null) {
+			randomAccessFile.close();
+			randomAccessFile = null;
+		}
+	}
+
+	private void validateOpen() throws IOException {
+		if (buffer == null) {
+			throw new IOException("Storage is closed!");
+		}
+	}
+
+	private File getTempFile() {
+		return new File(file.getPath() + ".tmp");
+	}
+
+	private interface Unmapper {
+
+		void unmap(MappedByteBuffer buffer) throws Exception;
+	}
+
+	// there is no public API to release a mapping, so this relies on JDK internals:
+	private static Unmapper createUnmapper() {
+		try {
+			// Java 9 and newer:
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			Object unsafe = theUnsafe.get(null);
+			return (buffer) -> invokeCleaner.invoke(unsafe, buffer);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// not available
+		}
+		try {
+			// Java 8:
+			Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			return (buffer) -> clean.invoke(cleaner.invoke(buffer));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	// RECORDS
+
+	private int getPosition(int slot) {
+		return HEADER_SIZE + slot * RECORD_SIZE;
+	}
+
+	// checksum over the record's uuid and the given copy of its data:
+	private int computeChecksum(ByteBuffer buffer, int position, int copyOffset) {
+		for (int i = 0; i < 16; i++) {
+			checksumBuffer[i] = buffer.get(position + MOST_SIG_BITS_OFFSET + i);
+		}
+		for (int i = 0; i < CHECKSUM_OFFSET; i++) {
+			checksumBuffer[16 + i] = buffer.get(position + copyOffset + i);
+		}
+		crc.reset();
+		crc.update(checksumBuffer, 0, CHECKSUMMED_SIZE);
+		return (int) crc.getValue();
+	}
+
+	private boolean isValidCopy(ByteBuffer buffer, int position, int copyOffset) {
+		return buffer.getInt(position + copyOffset + CHECKSUM_OFFSET) == this.computeChecksum(buffer, position, copyOffset);
+	}
+
+	// returns the offset of the latest valid copy of the record's data, or -1 if there is none:
+	private int getCurrentCopy(ByteBuffer buffer, int position) {
+		boolean validA = this.isValidCopy(buffer, position, COPY_A_OFFSET);
+		boolean validB = this.isValidCopy(buffer, position, COPY_B_OFFSET);
+		if (validA && validB) {
+			int sequenceA = buffer.getInt(position + COPY_A_OFFSET + SEQUENCE_OFFSET);
+			int sequenceB = buffer.getInt(position + COPY_B_OFFSET + SEQUENCE_OFFSET);
+			// compares the difference, so that the sequence numbers may overflow:
+			return (sequenceB - sequenceA > 0) ? COPY_B_OFFSET : COPY_A_OFFSET;
+		}
+		if (validA) return COPY_A_OFFSET;
+		if (validB) return COPY_B_OFFSET;
+		return -1;
+	}
+
+	// returns the slot of the player's record, or of the free slot where it would have to be inserted:
+	private int findSlot(long mostSigBits, long leastSigBits) {
+		int mask = capacity - 1;
+		int slot = UUIDLongMap.hash(mostSigBits, leastSigBits) & mask;
+		while (true) {
+			int position = this.getPosition(slot);
+			if (buffer.get(position + STATE_OFFSET) != STATE_USED) return slot;
+			if (buffer.getLong(position + MOST_SIG_BITS_OFFSET) == mostSigBits
+					&& buffer.getLong(position + LEAST_SIG_BITS_OFFSET) == leastSigBits) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private SoftBlockLocation readLocation(int position) {
+		int worldId = buffer.getInt(position);
+		if (worldId < 0 || worldId >= worldNames.size()) return null;
+		return new SoftBlockLocation(worldNames.get(worldId), buffer.getInt(position + 4), buffer.getInt(position + 8), buffer.getInt(position + 12));
+	}
+
+	private void writeLocation(int position, int worldId, SoftBlockLocation location) {
+		if (location == null) {
+			buffer.putInt(position, NO_WORLD);
+			buffer.putInt(position + 4, 0);
+			buffer.putInt(position + 8, 0);
+			buffer.putInt(position + 12, 0);
+		} else {
+			buffer.putInt(position, worldId);
+			buffer.putInt(position + 4, location.getX());
+			buffer.putInt(position + 8, location.getY());
+			buffer.putInt(position + 12, location.getZ());
+		}
+	}
+
+	// overwrites the older copy of the record's data, so that an interrupted write leaves the current copy intact:
+	private void writeData(int position, int homeWorldId, SoftBlockLocation home, int spawnWorldId, SoftBlockLocation spawn) {
+		int currentCopy = this.getCurrentCopy(buffer, position);
+		int copyOffset = (currentCopy == COPY_A_OFFSET) ? COPY_B_OFFSET : COPY_A_OFFSET;
+		int sequence = (currentCopy < 0) ? 1 : buffer.getInt(position + currentCopy + SEQUENCE_OFFSET) + 1;
+		int copyPosition = position + copyOffset;
+		buffer.putInt(copyPosition + SEQUENCE_OFFSET, sequence);
+		this.writeLocation(copyPosition + HOME_OFFSET, homeWorldId, home);
+		this.writeLocation(copyPosition + SPAWN_OFFSET, spawnWorldId, spawn);
+		buffer.putInt(copyPosition + CHECKSUM_OFFSET, this.computeChecksum(buffer, position, copyOffset));
+	}
+
+	private interface RecordVisitor {
+
+		void visit(ByteBuffer records, int position) throws IOException;
+	}
+
+	// reads all slots of the given file in chunks:
+	private static void readRecords(FileChannel channel, int capacity, int recordSize, RecordVisitor visitor) throws IOException {
+		int chunkRecords = READ_CHUNK_SIZE / recordSize;
+		ByteBuffer chunk = ByteBuffer.allocate(chunkRecords * recordSize);
+		for (int slot = 0; slot < capacity; slot += chunkRecords) {
+			int count = Math.min(chunkRecords, capacity - slot);
+			chunk.clear();
+			chunk.limit(count * recordSize);
+			readFully(channel, chunk, HEADER_SIZE + (long) slot * recordSize);
+			for (int i = 0; i < count; i++) {
+				visitor.visit(chunk, i * recordSize);
+			}
+		}
+	}
+
+	// converts a version 1 record, returns false if it holds no valid data:
+	private boolean convertRecord(ByteBuffer records, int position, ByteBuffer record) {
+		if (records.get(position + STATE_OFFSET) != STATE_USED) return false;
+		crc.reset();
+		crc.update(records.array(), position, V1_CHECKSUMMED_SIZE);
+		if ((int) crc.getValue() != records.getInt(position + V1_CHECKSUMMED_SIZE)) return false;
+
+		Arrays.fill(record.array(), (byte) 0);
+		// state and uuid:
+		System.arraycopy(records.array(), position, record.array(), 0, V1_LOCATIONS_OFFSET);
+		record.putInt(COPY_A_OFFSET + SEQUENCE_OFFSET, 1);
+		System.arraycopy(records.array(), position + V1_LOCATIONS_OFFSET, record.array(), COPY_A_OFFSET + HOME_OFFSET, 2 * 16);
+		record.putInt(COPY_A_OFFSET + CHECKSUM_OFFSET, this.computeChecksum(record, 0, COPY_A_OFFSET));
+		return true;
+	}
+
+	// copies all records with valid data into a new file of the given capacity, and returns the number of copied
+	// records; the new file is written via the channel, since a mapping of it could not be released before the files
+	// get swapped:
+	private int writeTable(FileChannel source, int sourceVersion, int sourceCapacity, File target, int newCapacity) throws IOException {
+		final int mask = newCapacity - 1;
+		final BitSet usedSlots = new BitSet(newCapacity);
+		final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+		final int[] newSize = { 0 };
+		try (RandomAccessFile targetRandomAccessFile = new RandomAccessFile(target, "rw")) {
+			targetRandomAccessFile.setLength(0L);
+			targetRandomAccessFile.setLength(HEADER_SIZE + (long) newCapacity * RECORD_SIZE);
+			final FileChannel targetChannel = targetRandomAccessFile.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(3 * 4);
+			header.putInt(MAGIC).putInt(VERSION).putInt(newCapacity).flip();
+			writeFully(targetChannel, header, 0L);
+
+			int sourceRecordSize = (sourceVersion == VERSION_1) ? V1_RECORD_SIZE : RECORD_SIZE;
+			readRecords(source, sourceCapacity, sourceRecordSize, (records, position) -> {
+				if (sourceVersion == VERSION_1) {
+					if (!this.convertRecord(records, position, record)) return;
+				} else {
+					if (records.get(position + STATE_OFFSET) != STATE_USED || this.getCurrentCopy(records, position) < 0) return;
+					// copy the record as is:
+					System.arraycopy(records.array(), position, record.array(), 0, RECORD_SIZE);
+				}
+				int slot = UUIDLongMap.hash(record.getLong(MOST_SIG_BITS_OFFSET), record.getLong(LEAST_SIG_BITS_OFFSET)) & mask;
+				while (usedSlots.get(slot)) {
+					slot = (slot + 1) & mask;
+				}
+				usedSlots.set(slot);
+				record.clear();
+				writeFully(targetChannel, record, this.getPosition(slot));
+				newSize[0]++;
+			});
+			targetChannel.force(true);
+		} catch (IOException e) {
+			target.delete();
+			throw e;
+		}
+		return newSize[0];
+	}
+
+	// copies all records into a new file of twice the capacity and swaps the files:
+	private void grow() throws IOException {
+		int newCapacity = capacity * 2;
+		File tempFile = this.getTempFile();
+		// the channel of the mapped file sees all writes to the mapping:
+		int newSize = this.writeTable(randomAccessFile.getChannel(), VERSION, capacity, tempFile, newCapacity);
+
+		this.closeFile();
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			capacity = newCapacity;
+			size = newSize;
+		} catch (IOException e) {
+			tempFile.delete();
+			throw e;
+		} finally {
+			// maps the old file again if the files could not be swapped:
+			this.map();
+		}
+	}
+
+	// HOMES
+
+	private void openHomes() throws IOException {
+		homesIndex.clear();
+		homesLiveBytes = 0L;
+		boolean newFile = !homesFile.exists() || homesFile.length() == 0L;
+		homesRandomAccessFile = new RandomAccessFile(homesFile, "rw");
+		homesChannel = homesRandomAccessFile.getChannel();
+		if (!newFile) {
+			try {
+				this.readHomesIndex();
+			} catch (IOException e) {
+				this.closeHomesFile();
+				throw e;
+			}
+		}
+		if (newFile) {
+			ByteBuffer header = ByteBuffer.allocate(HOMES_HEADER_SIZE);
+			header.putInt(HOMES_MAGIC).putInt(HOMES_VERSION).flip();
+			writeFully(homesChannel, header, 0L);
+			homesEndOffset = HOMES_HEADER_SIZE;
+		} else if (homesChannel.size() > homesEndOffset) {
+			logger.warning("Homes file \"" + homesFile.getPath() + "\" ends with " + (homesChannel.size() - homesEndOffset)
+					+ " bytes of incomplete or corrupted data. Discarding them now.");
+			homesChannel.truncate(homesEndOffset);
+		}
+	}
+
+	// scans the homes file, builds the index and determines the end of the last valid entry:
+	private void readHomesIndex() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(homesFile)))) {
+			if (homesFile.length() < HOMES_HEADER_SIZE || in.readInt() != HOMES_MAGIC) {
+				throw new IOException("Not a homes file: " + homesFile.getPath());
+			}
+			int version = in.readInt();
+			if (version != HOMES_VERSION) {
+				throw new IOException("Unsupported homes file version: " + version);
+			}
+			homesEndOffset = HOMES_HEADER_SIZE;
+
+			byte[] entryHeader = new byte[HOMES_ENTRY_HEADER_SIZE];
+			ByteBuffer entryHeaderBuffer = ByteBuffer.wrap(entryHeader);
+			try {
+				while (true) {
+					int first = in.read();
+					if (first == -1) break; // end of file
+					entryHeader[0] = (byte) first;
+					in.readFully(entryHeader, 1, HOMES_ENTRY_HEADER_SIZE - 1);
+					int homesLength = entryHeaderBuffer.getShort(16) & 0xFFFF;
+					byte[] homes = new byte[homesLength];
+					in.readFully(homes);
+					int checksum = in.readInt();
+					crc.reset();
+					crc.update(entryHeader, 0, HOMES_ENTRY_HEADER_SIZE);
+					crc.update(homes, 0, homesLength);
+					if ((int) crc.getValue() != checksum) break; // corrupted
+					this.indexHomesEntry(entryHeaderBuffer.getLong(0), entryHeaderBuffer.getLong(8), homesEndOffset, homesLength);
+					homesEndOffset += HOMES_ENTRY_HEADER_SIZE + homesLength + 4;
+				}
+			} catch (EOFException e) {
+				// incomplete last entry: homesEndOffset still points to the end of the last complete entry
+			}
+		}
+	}
+
+	private void indexHomesEntry(long mostSigBits, long leastSigBits, long offset, int homesLength) throws IOException {
+		long previousOffset = homesIndex.get(new UUID(mostSigBits, leastSigBits));
+		if (previousOffset >= 0L) {
+			homesLiveBytes -= this.readHomesEntry(homesChannel, previousOffset, true).capacity();
+		}
+		homesIndex.put(mostSigBits, leastSigBits, offset);
+		homesLiveBytes += HOMES_ENTRY_HEADER_SIZE + homesLength + 4;
+	}
+
+	// reads the complete entry, or only its header:
+	private ByteBuffer readHomesEntry(FileChannel channel, long offset, boolean headerOnly) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HOMES_ENTRY_HEADER_SIZE);
+		readFully(channel, header, offset);
+		int homesLength = header.getShort(16) & 0xFFFF;
+		if (headerOnly) {
+			// only the size of the entry is of interest:
+			return ByteBuffer.allocate(HOMES_ENTRY_HEADER_SIZE + homesLength + 4);
+		}
+		ByteBuffer entry = ByteBuffer.allocate(HOMES_ENTRY_HEADER_SIZE + homesLength + 4);
+		header.flip();
+		entry.put(header);
+		readFully(channel, entry, offset + HOMES_ENTRY_HEADER_SIZE);
+		crc.reset();
+		crc.update(entry.array(), 0, entry.capacity() - 4);
+		if ((int) crc.getValue() != entry.getInt(entry.capacity() - 4)) {
+			throw new IOException("Corrupted homes entry at offset " + offset + "!");
+		}
+		return entry;
+	}
+
+	private void writeHomesEntry(long mostSigBits, long leastSigBits, byte[] homes) throws IOException {
+		ByteBuffer entry = ByteBuffer.allocate(HOMES_ENTRY_HEADER_SIZE + homes.length + 4);
+		entry.putLong(mostSigBits).putLong(leastSigBits).putShort((short) homes.length).put(homes);
+		crc.reset();
+		crc.update(entry.array(), 0, entry.position());
+		entry.putInt((int) crc.getValue());
+		entry.flip();
+		long offset = homesEndOffset;
+		writeFully(homesChannel, entry, offset);
+		homesEndOffset += entry.limit();
+		this.indexHomesEntry(mostSigBits, leastSigBits, offset, homes.length);
+		homesDirty = true;
+	}
+
+	// rewrites the homes file, keeping only the latest entries of players which have homes:
+	private void compactHomes() throws IOException {
+		long startTime = System.currentTimeMillis();
+		long oldSize = homesEndOffset;
+		File tempFile = new File(homesFile.getPath() + ".tmp");
+		try (RandomAccessFile tempRandomAccessFile = new RandomAccessFile(tempFile, "rw")) {
+			tempRandomAccessFile.setLength(0L);
+			final FileChannel tempChannel = tempRandomAccessFile.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HOMES_HEADER_SIZE);
+			header.putInt(HOMES_MAGIC).putInt(HOMES_VERSION).flip();
+			writeFully(tempChannel, header, 0L);
+			final long[] tempOffset = { HOMES_HEADER_SIZE };
+			homesIndex.forEach((mostSigBits, leastSigBits, offset) -> {
+				ByteBuffer entry = this.readHomesEntry(homesChannel, offset, false);
+				if (entry.capacity() == HOMES_ENTRY_HEADER_SIZE + 4) return; // no homes
+				entry.clear();
+				writeFully(tempChannel, entry, tempOffset[0]);
+				tempOffset[0] += entry.capacity();
+			});
+			tempChannel.force(true);
+		} catch (IOException e) {
+			tempFile.delete();
+			throw e;
+		}
+
+		this.closeHomesFile();
+		try {
+			Files.move(tempFile.toPath(), homesFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			// reopens the old file if the files could not be swapped:
+			this.openHomes();
+		}
+		logger.info("Compacted homes file from " + oldSize + " to " + homesEndOffset + " bytes in "
+				+ (System.currentTimeMillis() - startTime) + " ms.");
+	}
+
+	private void closeHomesFile() throws IOException {
+		if (homesRandomAccessFile != null) {
+			homesRandomAccessFile.close();
+			homesRandomAccessFile = null;
+			homesChannel = null;
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new EOFException("Unexpected end of file!");
+			}
+			position += read;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private String getWorldName(int worldId) {
+		if (worldId < 0 || worldId >= worldNames.size()) return null;
+		return worldNames.get(worldId);
+	}
+
+	// STORAGE
+
+	@Override
+	public synchronized PlayerData load(UUID playerId) throws IOException {
+		this.validateOpen();
+		int position = this.getPosition(this.findSlot(playerId.getMostSignificantBits(), playerId.getLeastSignificantBits()));
+		if (buffer.get(position + STATE_OFFSET) != STATE_USED) return null;
+		int copyOffset = this.getCurrentCopy(buffer, position);
+		if (copyOffset < 0) return null; // only possible if the file got modified externally
+		int copyPosition = position + copyOffset;
+
+		SoftBlockLocation spawnLocation = this.readLocation(copyPosition + SPAWN_OFFSET);
+		long homesOffset = homesIndex.get(playerId);
+		if (homesOffset >= 0L) {
+			ByteBuffer entry = this.readHomesEntry(homesChannel, homesOffset, false);
+			if (entry.capacity() > HOMES_ENTRY_HEADER_SIZE + 4) {
+				entry.position(HOMES_ENTRY_HEADER_SIZE).limit(entry.capacity() - 4);
+				return HomeListCodec.decode(entry, this::getWorldName, spawnLocation);
+			}
+		}
+		return new PlayerData(this.readLocation(copyPosition + HOME_OFFSET), spawnLocation);
+	}
+
+	@Override
+	public synchronized void save(UUID playerId, PlayerData playerData) throws IOException {
+		this.validateOpen();
+		SoftBlockLocation homeLocation = playerData.getHomeLocation();
+		SoftBlockLocation spawnLocation = playerData.getSpawnLocation();
+		int homeWorldId = this.getOrAddWorldId(homeLocation);
+		int spawnWorldId = this.getOrAddWorldId(spawnLocation);
+
+		long mostSigBits = playerId.getMostSignificantBits();
+		long leastSigBits = playerId.getLeastSignificantBits();
+		// the homes entry is written first, since it takes precedence over the regular record:
+		if (playerData.hasNamedHomes()) {
+			this.writeHomesEntry(mostSigBits, leastSigBits, HomeListCodec.encode(playerData, this::getOrAddWorldId));
+		} else if (homesIndex.get(playerId) >= 0L) {
+			// mark the previous homes as removed:
+			this.writeHomesEntry(mostSigBits, leastSigBits, NO_HOMES);
+		}
+		int slot = this.findSlot(mostSigBits, leastSigBits);
+		boolean newRecord = (buffer.get(this.getPosition(slot) + STATE_OFFSET) != STATE_USED);
+		if (newRecord) {
+			if (size + 1 > capacity * MAX_LOAD_FACTOR && size >= nextGrowthSize) {
+				try {
+					this.grow();
+				} catch (IOException e) {
+					// at least one slot has to stay free:
+					if (size + 1 >= capacity) throw e;
+					this.validateOpen();
+					logger.warning("Could not grow player data file \"" + file.getPath() + "\" (" + e.getMessage()
+							+ "). Continuing with the current file for now.");
+					nextGrowthSize = size + GROWTH_RETRY_INTERVAL;
+				}
+				slot = this.findSlot(mostSigBits, leastSigBits);
+			}
+			size++;
+		}
+		int position = this.getPosition(slot);
+		if (newRecord) {
+			buffer.putLong(position + MOST_SIG_BITS_OFFSET, mostSigBits);
+			buffer.putLong(position + LEAST_SIG_BITS_OFFSET, leastSigBits);
+		}
+		this.writeData(position, homeWorldId, homeLocation, spawnWorldId, spawnLocation);
+		if (newRecord) {
+			// the record only becomes visible once its data is complete:
+			buffer.put(position + STATE_OFFSET, STATE_USED);
+		}
+		dirty = true;
+	}
+
+	@Override
+	public synchronized boolean exists(UUID playerId) {
+		if (buffer == null) return false;
+		int position = this.getPosition(this.findSlot(playerId.getMostSignificantBits(), playerId.getLeastSignificantBits()));
+		return buffer.get(position + STATE_OFFSET) == STATE_USED;
+	}
+
+	@Override
+	public synchronized List<UUID> getPlayerIds() throws IOException {
+		this.validateOpen();
+		List<UUID> playerIds = new ArrayList<>(size);
+		for (int slot = 0; slot < capacity; slot++) {
+			int position = this.getPosition(slot);
+			if (buffer.get(position + STATE_OFFSET) != STATE_USED) continue;
+			playerIds.add(new UUID(buffer.getLong(position + MOST_SIG_BITS_OFFSET), buffer.getLong(position + LEAST_SIG_BITS_OFFSET)));
+		}
+		return playerIds;
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		this.validateOpen();
+		// homes entries before the records that rely on them:
+		if (homesDirty) {
+			homesChannel.force(false);
+			homesDirty = false;
+		}
+		if (dirty) {
+			buffer.force();
+			dirty = false;
+		}
+
+		long outdatedBytes = (homesEndOffset - HOMES_HEADER_SIZE) - homesLiveBytes;
+		if (homesEndOffset >= HOMES_COMPACTION_MIN_SIZE && outdatedBytes > homesLiveBytes * HOMES_COMPACTION_OUTDATED_RATIO) {
+			this.compactHomes();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (buffer == null) return;
+		try {
+			this.flush();
+		} finally {
+			try {
+				this.closeHomesFile();
+			} finally {
+				this.closeFile();
+			}
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+
+import de.blablubbabc.homestations.PlayerData;
+
+/**
+ * Imports player data from the one-file-per-player layout into another {@link PlayerDataStorage}.
+ */
+public class PlayerDataMigrator {
+
+	private PlayerDataMigrator() {
+	}
+
+	/**
+	 * Moves all player data files found inside the given folder into the given storage.
+	 * 
+	 * <p>
+	 * Files named after player ids are imported directly. Old player data files named after player names are imported
+	 * if the name can be mapped to a known player id. Imported files are moved into the given backup folder. Old player
+	 * data files of unknown players stay where they are, so that they can still be imported once the player joins.
+	 * </p>
+	 * 
+	 * @param folder
+	 *            the folder containing the player data files
+	 * @param backupFolder
+	 *            the folder to move the imported files to
+	 * @param target
+	 *            the storage to import the player data into
+	 * @param logger
+	 *            the logger
+	 * @return the number of imported files
+	 */
+	public static int migrateFiles(File folder, File backupFolder, PlayerDataStorage target, Logger logger) {
+		File[] files = folder.listFiles();
+		if (files == null || files.length == 0) return 0;
+
+		Map<String, UUID> playerIdsByName = null; // lazily setup
+		int imported = 0;
+		int skipped = 0;
+		for (File file : files) {
+			if (!file.isFile()) continue;
+			String fileName = file.getName();
+			UUID playerId = parseUUID(fileName);
+			if (playerId == null) {
+				// old player data file, named after the player:
+				if (playerIdsByName == null) {
+					playerIdsByName = getKnownPlayerIdsByName();
+				}
+				playerId = playerIdsByName.get(fileName.toLowerCase(Locale.ROOT));
+				if (playerId == null) {
+					// gets imported once the player joins:
+					skipped++;
+					continue;
+				}
+				if (target.exists(playerId)) {
+					// newer data is already available for this player:
+					skipped++;
+					continue;
+				}
+			}
+
+			try {
+				PlayerData playerData = FilePlayerDataStorage.readPlayerDataFile(file);
+				if (playerData == null) continue;
+				target.save(playerId, playerData);
+			} catch (IOException e) {
+				logger.severe("Unable to import player data from \"" + file.getPath() + "\": " + e.getMessage());
+				continue;
+			}
+
+			// move imported file into backup folder:
+			backupFolder.mkdirs();
+			if (!file.renameTo(new File(backupFolder, fileName))) {
+				logger.warning("Unable to move imported player data file \"" + file.getPath() + "\" into backup folder.");
+			}
+			imported++;
+		}
+
+		if (imported > 0) {
+			try {
+				target.flush();
+			} catch (IOException e) {
+				logger.severe("Unable to flush imported player data: " + e.getMessage());
+			}
+			logger.info("Imported " + imported + " player data files into the '" + target.getName() + "' storage. Backups of the files are located at \"" + backupFolder.getPath() + "\".");
+		}
+		if (skipped > 0) {
+			logger.info("Skipped " + skipped + " old player data files of unknown players. Those get imported once the players join.");
+		}
+		return imported;
+	}
+
+	/**
+	 * Copies all player data from the given source storage into the given target storage.
+	 * 
+	 * <p>
+	 * Player data which already exists in the target storage is kept.
+	 * </p>
+	 * 
+	 * @param source
+	 *            the source storage
+	 * @param target
+	 *            the target storage
+	 * @param logger
+	 *            the logger
+	 * @return the number of imported players
+	 * @throws IOException
+	 *             if the player data could not be copied
+	 */
+	public static int migrateStorage(PlayerDataStorage source, PlayerDataStorage target, Logger logger) throws IOException {
+		int imported = 0;
+		for (UUID playerId : source.getPlayerIds()) {
+			if (target.exists(playerId)) continue;
+			PlayerData playerData = source.load(playerId);
+			if (playerData == null) continue;
+			target.save(playerId, playerData);
+			imported++;
+		}
+		target.flush();
+		logger.info("Imported the data of " + imported + " players from the '" + source.getName() + "' storage into the '" + target.getName() + "' storage.");
+		return imported;
+	}
+
+	static UUID parseUUID(String string) {
+		// quick check, to avoid the exception for old player name files:
+		if (string.length() != 36 || string.charAt(8) != '-') return null;
+		try {
+			return UUID.fromString(string);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	// uses the server's locally cached player information:
+	private static Map<String, UUID> getKnownPlayerIdsByName() {
+		Map<String, UUID> playerIdsByName = new HashMap<>();
+		for (OfflinePlayer offlinePlayer : Bukkit.getOfflinePlayers()) {
+			String playerName = offlinePlayer.getName();
+			if (playerName == null) continue;
+			playerIdsByName.put(playerName.toLowerCase(Locale.ROOT), offlinePlayer.getUniqueId());
+		}
+		return playerIdsByName;
+	}
+}
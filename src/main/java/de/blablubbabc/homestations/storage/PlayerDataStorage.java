@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+import de.blablubbabc.homestations.PlayerData;
+
+/**
+ * A backend which persistently stores {@link PlayerData}.
+ * 
+ * <p>
+ * Implementations have to be thread-safe, since player data gets loaded and saved asynchronously.
+ * </p>
+ */
+public interface PlayerDataStorage {
+
+	/**
+	 * Gets a short name of this storage, used in log messages.
+	 * 
+	 * @return the name
+	 */
+	String getName();
+
+	/**
+	 * Gets the files and folders in which this storage keeps its data.
+	 * 
+	 * <p>
+	 * These get moved aside together once the data has been migrated to another storage.
+	 * </p>
+	 * 
+	 * @return the files and folders
+	 */
+	List<File> getFiles();
+
+	/**
+	 * Loads the {@link PlayerData} for the given player id.
+	 * 
+	 * @param playerId
+	 *            the player id
+	 * @return the player data, or <code>null</code> if there is no data stored for the given player id
+	 * @throws IOException
+	 *             if the player data could not be loaded
+	 */
+	PlayerData load(UUID playerId) throws IOException;
+
+	/**
+	 * Stores the {@link PlayerData} for the given player id.
+	 * 
+	 * <p>
+	 * The changes are not guaranteed to be durable until the next {@link #flush()}.
+	 * </p>
+	 * 
+	 * @param playerId
+	 *            the player id
+	 * @param playerData
+	 *            the player data
+	 * @throws IOException
+	 *             if the player data could not be saved
+	 */
+	void save(UUID playerId, PlayerData playerData) throws IOException;
+
+	/**
+	 * Checks if there is data stored for the given player id.
+	 * 
+	 * @param playerId
+	 *            the player id
+	 * @return <code>true</code> if there is data stored
+	 */
+	boolean exists(UUID playerId);
+
+	/**
+	 * Gets the ids of all players for which data is stored.
+	 * 
+	 * @return the player ids
+	 * @throws IOException
+	 *             if the player ids could not be read
+	 */
+	List<UUID> getPlayerIds() throws IOException;
+
+	/**
+	 * Makes all previous saves durable and performs any pending maintenance work.
+	 * 
+	 * <p>
+	 * This gets called periodically after batches of saves.
+	 * </p>
+	 * 
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Flushes and closes this storage. The storage can no longer be used afterwards.
+	 * 
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	void close() throws IOException;
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.storage;
+
+public enum StorageType {
+	// one text file per player:
+	FILES,
+	// a single append-only binary file:
+	LOG,
+	// a single memory-mapped file of fixed-size records:
+	MAPPED;
+
+	/**
+	 * Gets the storage type matching the given name, ignoring case.
+	 * 
+	 * @param name
+	 *            the name
+	 * @return the storage type, or <code>null</code> if no match is found
+	 */
+	public static StorageType getByName(String name) {
+		if (name == null) return null;
+		for (StorageType type : values()) {
+			if (type.name().equalsIgnoreCase(name)) {
+				return type;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A compact open-addressing hash map from {@link UUID} to non-negative <code>long</code> values.
+ * 
+ * <p>
+ * Keys are stored as two primitive longs, which avoids keeping hundreds of thousands of {@link UUID} and {@link Long}
+ * objects in memory.
+ * </p>
+ */
+class UUIDLongMap {
+
+	private static final long NO_VALUE = -1L;
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] mostSigBits;
+	private long[] leastSigBits;
+	private long[] values; // NO_VALUE marks free slots
+	private int size = 0;
+
+	UUIDLongMap() {
+		this.allocate(MIN_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		mostSigBits = new long[capacity];
+		leastSigBits = new long[capacity];
+		values = new long[capacity];
+		Arrays.fill(values, NO_VALUE);
+	}
+
+	static int hash(long mostSigBits, long leastSigBits) {
+		long h = mostSigBits ^ leastSigBits;
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h >>> 33);
+		return (int) h;
+	}
+
+	private int findSlot(long msb, long lsb) {
+		int mask = values.length - 1;
+		int slot = hash(msb, lsb) & mask;
+		while (values[slot] != NO_VALUE && (mostSigBits[slot] != msb || leastSigBits[slot] != lsb)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the value for the given key.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the value, or <code>-1</code> if there is no mapping for the key
+	 */
+	long get(UUID key) {
+		return values[this.findSlot(key.getMostSignificantBits(), key.getLeastSignificantBits())];
+	}
+
+	/**
+	 * Sets the value for the given key.
+	 * 
+	 * @param mostSigBits
+	 *            the most significant bits of the key
+	 * @param leastSigBits
+	 *            the least significant bits of the key
+	 * @param value
+	 *            the value, has to be non-negative
+	 */
+	void put(long mostSigBits, long leastSigBits, long value) {
+		assert value >= 0L;
+		int slot = this.findSlot(mostSigBits, leastSigBits);
+		if (values[slot] == NO_VALUE) {
+			this.mostSigBits[slot] = mostSigBits;
+			this.leastSigBits[slot] = leastSigBits;
+			size++;
+		}
+		values[slot] = value;
+		// keep the load factor below 0.5:
+		if (size * 2 > values.length) {
+			this.rehash(values.length * 2);
+		}
+	}
+
+	private void rehash(int newCapacity) {
+		long[] oldMostSigBits = mostSigBits;
+		long[] oldLeastSigBits = leastSigBits;
+		long[] oldValues = values;
+		this.allocate(newCapacity);
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] == NO_VALUE) continue;
+			int slot = this.findSlot(oldMostSigBits[i], oldLeastSigBits[i]);
+			mostSigBits[slot] = oldMostSigBits[i];
+			leastSigBits[slot] = oldLeastSigBits[i];
+			values[slot] = oldValues[i];
+		}
+	}
+
+	void clear() {
+		this.allocate(MIN_CAPACITY);
+		size = 0;
+	}
+
+	interface EntryConsumer {
+
+		void accept(long mostSigBits, long leastSigBits, long value) throws IOException;
+	}
+
+	void forEach(EntryConsumer consumer) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] == NO_VALUE) continue;
+			consumer.accept(mostSigBits[i], leastSigBits[i], values[i]);
+		}
+	}
+}
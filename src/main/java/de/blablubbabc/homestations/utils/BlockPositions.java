@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.utils;
+
+/**
+ * Packs block coordinates into a single <code>long</code>.
+ * 
+ * <p>
+ * Uses 26 bits for the x and z coordinates and 12 bits for the y coordinate, which covers the block coordinates of
+ * worlds with the vanilla world size limits.
+ * </p>
+ */
+public class BlockPositions {
+
+	private static final int XZ_BITS = 26;
+	private static final int Y_BITS = 12;
+	private static final long XZ_MASK = (1L << XZ_BITS) - 1L;
+	private static final long Y_MASK = (1L << Y_BITS) - 1L;
+	private static final int X_SHIFT = XZ_BITS + Y_BITS;
+	private static final int Z_SHIFT = Y_BITS;
+
+	private BlockPositions() {
+	}
+
+	// checks if the coordinates can be packed without loss:
+	public static boolean isInRange(int x, int y, int z) {
+		return (x >> (XZ_BITS - 1)) == (x >> 31)
+				&& (z >> (XZ_BITS - 1)) == (z >> 31)
+				&& (y >> (Y_BITS - 1)) == (y >> 31);
+	}
+
+	public static long pack(int x, int y, int z) {
+		return ((x & XZ_MASK) << X_SHIFT) | ((z & XZ_MASK) << Z_SHIFT) | (y & Y_MASK);
+	}
+
+	public static int getX(long packed) {
+		return (int) (packed >> X_SHIFT);
+	}
+
+	public static int getY(long packed) {
+		return (int) (packed << (64 - Y_BITS) >> (64 - Y_BITS));
+	}
+
+	public static int getZ(long packed) {
+		return (int) (packed << (64 - Z_SHIFT - XZ_BITS) >> (64 - XZ_BITS));
+	}
+
+	// spreads the bits of the packed position, for use in hash tables:
+	public static int hash(long packed) {
+		long h = packed * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.utils;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * An open-addressing hash map from primitive <code>long</code> keys to non-zero <code>byte</code> values.
+ * 
+ * <p>
+ * The value <code>0</code> is reserved to mark free slots and therefore cannot be stored.
+ * </p>
+ */
+public class LongByteHashMap {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private byte[] values;
+	private int size = 0;
+
+	public LongByteHashMap() {
+		this.allocate(MIN_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new byte[capacity];
+	}
+
+	private int findSlot(long key) {
+		int mask = keys.length - 1;
+		int slot = BlockPositions.hash(key) & mask;
+		while (values[slot] != 0 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets the value for the given key.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the value, or <code>0</code> if there is no mapping for the key
+	 */
+	public byte get(long key) {
+		return values[this.findSlot(key)];
+	}
+
+	public boolean containsKey(long key) {
+		return this.get(key) != 0;
+	}
+
+	/**
+	 * Sets the value for the given key.
+	 * 
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, not <code>0</code>
+	 */
+	public void put(long key, byte value) {
+		if (value == 0) {
+			throw new IllegalArgumentException("Value cannot be 0!");
+		}
+		int slot = this.findSlot(key);
+		if (values[slot] == 0) {
+			keys[slot] = key;
+			size++;
+		}
+		values[slot] = value;
+		// keep the load factor below 0.5:
+		if (size * 2 > keys.length) {
+			this.rehash(keys.length * 2);
+		}
+	}
+
+	/**
+	 * Removes the mapping for the given key.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the previous value, or <code>0</code> if there was no mapping for the key
+	 */
+	public byte remove(long key) {
+		int slot = this.findSlot(key);
+		byte value = values[slot];
+		if (value == 0) return 0;
+
+		// backward shift deletion: move following entries of the same probe sequence into the gap
+		int mask = keys.length - 1;
+		int gap = slot;
+		int next = (gap + 1) & mask;
+		while (values[next] != 0) {
+			int home = BlockPositions.hash(keys[next]) & mask;
+			// move the entry if its home slot is not located cyclically within (gap, next]:
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		values[gap] = 0;
+		size--;
+		return value;
+	}
+
+	private void rehash(int newCapacity) {
+		long[] oldKeys = keys;
+		byte[] oldValues = values;
+		this.allocate(newCapacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] == 0) continue;
+			int slot = this.findSlot(oldKeys[i]);
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+
+	/**
+	 * Passes all keys to the given consumer.
+	 * 
+	 * <p>
+	 * The map must not be modified during the iteration.
+	 * </p>
+	 * 
+	 * @param consumer
+	 *            the consumer
+	 */
+	public void forEachKey(LongConsumer consumer) {
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != 0) {
+				consumer.accept(keys[i]);
+			}
+		}
+	}
+
+	public void clear() {
+		if (size == 0) return;
+		if (keys.length > MIN_CAPACITY * 4) {
+			this.allocate(MIN_CAPACITY);
+		} else {
+			Arrays.fill(values, (byte) 0);
+		}
+		size = 0;
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.utils;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * An open-addressing hash map from primitive <code>long</code> keys to non-zero <code>long</code> values.
+ *
+ * <p>
+ * The value <code>0</code> is reserved to mark free slots and therefore cannot be stored.
+ * </p>
+ */
+public class LongLongHashMap {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private long[] values;
+	private int size = 0;
+
+	public LongLongHashMap() {
+		this.allocate(MIN_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new long[capacity];
+	}
+
+	private int findSlot(long key) {
+		int mask = keys.length - 1;
+		int slot = BlockPositions.hash(key) & mask;
+		while (values[slot] != 0L && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets the value for the given key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or <code>0</code> if there is no mapping for the key
+	 */
+	public long get(long key) {
+		return values[this.findSlot(key)];
+	}
+
+	/**
+	 * Sets the value for the given key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, not <code>0</code>
+	 */
+	public void put(long key, long value) {
+		if (value == 0L) {
+			throw new IllegalArgumentException("Value cannot be 0!");
+		}
+		int slot = this.findSlot(key);
+		if (values[slot] == 0L) {
+			keys[slot] = key;
+			size++;
+		}
+		values[slot] = value;
+		// keep the load factor below 0.5:
+		if (size * 2 > keys.length) {
+			this.rehash(keys.length * 2);
+		}
+	}
+
+	/**
+	 * Removes the mapping for the given key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the removed value, or <code>0</code> if there was no mapping for the key
+	 */
+	public long remove(long key) {
+		int mask = keys.length - 1;
+		int slot = this.findSlot(key);
+		long value = values[slot];
+		if (value == 0L) return 0L;
+		values[slot] = 0L;
+		size--;
+
+		// shift back following entries of the probe sequence, so that they stay reachable:
+		int free = slot;
+		int next = (free + 1) & mask;
+		while (values[next] != 0L) {
+			int home = BlockPositions.hash(keys[next]) & mask;
+			// move the entry if its home slot doesn't lie cyclically within (free, next]:
+			if (((next - home) & mask) >= ((next - free) & mask)) {
+				keys[free] = keys[next];
+				values[free] = values[next];
+				values[next] = 0L;
+				free = next;
+			}
+			next = (next + 1) & mask;
+		}
+		return value;
+	}
+
+	/**
+	 * Removes all entries whose value matches the given predicate.
+	 *
+	 * @param predicate
+	 *            the predicate
+	 * @return the number of removed entries
+	 */
+	public int removeIfValue(LongPredicate predicate) {
+		int removed = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != 0L && predicate.test(values[i])) {
+				// marked as free, the remaining entries get reinserted below:
+				values[i] = 0L;
+				removed++;
+			}
+		}
+		if (removed > 0) {
+			size -= removed;
+			int capacity = MIN_CAPACITY;
+			while (size * 2 > capacity) {
+				capacity *= 2;
+			}
+			this.rehash(capacity);
+		}
+		return removed;
+	}
+
+	private void rehash(int newCapacity) {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		this.allocate(newCapacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] == 0L) continue;
+			int slot = this.findSlot(oldKeys[i]);
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+
+	public void clear() {
+		if (size == 0) return;
+		if (keys.length > MIN_CAPACITY * 4) {
+			this.allocate(MIN_CAPACITY);
+		} else {
+			Arrays.fill(values, 0L);
+		}
+		size = 0;
+	}
+}
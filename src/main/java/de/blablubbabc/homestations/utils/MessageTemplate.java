@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * A message which got split into its lines, and into literal text and <code>{placeholder}</code> segments, once.
+ *
+ * <p>
+ * Placeholder values are passed as pairs of placeholder name and value, like for
+ * {@link Utils#replacePlaceholders(String, String...)}. Placeholders without value are kept as they are.
+ * </p>
+ */
+public final class MessageTemplate {
+
+	private static final String[] NO_PLACEHOLDERS = new String[0];
+	private static final int EXPECTED_VALUE_LENGTH = 16;
+
+	private static final class Line {
+
+		// literals.length == placeholders.length + 1
+		private final String[] literals;
+		private final String[] placeholders;
+		private final int literalsLength;
+
+		Line(String[] literals, String[] placeholders) {
+			this.literals = literals;
+			this.placeholders = placeholders;
+			int literalsLength = 0;
+			for (String literal : literals) {
+				literalsLength += literal.length();
+			}
+			this.literalsLength = literalsLength;
+		}
+
+		int getExpectedLength() {
+			return literalsLength + placeholders.length * EXPECTED_VALUE_LENGTH;
+		}
+
+		void appendTo(StringBuilder builder, String[] values) {
+			builder.append(literals[0]);
+			for (int i = 0; i < placeholders.length; i++) {
+				String placeholder = placeholders[i];
+				String value = getValue(placeholder, values);
+				if (value != null) {
+					builder.append(value);
+				} else {
+					builder.append('{').append(placeholder).append('}');
+				}
+				builder.append(literals[i + 1]);
+			}
+		}
+
+		String render(String[] values) {
+			if (placeholders.length == 0) return literals[0];
+			StringBuilder builder = new StringBuilder(this.getExpectedLength());
+			this.appendTo(builder, values);
+			return builder.toString();
+		}
+
+		private static String getValue(String placeholder, String[] values) {
+			if (values == null) return null;
+			for (int i = 1; i < values.length; i += 2) {
+				if (placeholder.equals(values[i - 1])) {
+					return values[i];
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Compiles the given message.
+	 *
+	 * @param message
+	 *            the message, lines are separated like for {@link Utils#getLines(String)}
+	 * @return the message template
+	 */
+	public static MessageTemplate compile(String message) {
+		List<String> lines = message.isEmpty() ? new ArrayList<>() : Utils.getLines(message);
+		Line[] compiledLines = new Line[lines.size()];
+		for (int i = 0; i < compiledLines.length; i++) {
+			compiledLines[i] = compileLine(lines.get(i));
+		}
+		return new MessageTemplate(message, compiledLines);
+	}
+
+	private static Line compileLine(String line) {
+		List<String> literals = null;
+		List<String> placeholders = null;
+		int literalStart = 0;
+		int index = 0;
+		while (true) {
+			int start = line.indexOf('{', index);
+			if (start < 0) break;
+			int end = line.indexOf('}', start + 1);
+			if (end < 0) break;
+			int nestedStart = line.indexOf('{', start + 1);
+			if (nestedStart >= 0 && nestedStart < end) {
+				// the placeholder starts at the inner '{':
+				index = nestedStart;
+				continue;
+			}
+			if (literals == null) {
+				literals = new ArrayList<>();
+				placeholders = new ArrayList<>();
+			}
+			literals.add(line.substring(literalStart, start));
+			placeholders.add(line.substring(start + 1, end));
+			literalStart = end + 1;
+			index = literalStart;
+		}
+		if (literals == null) {
+			return new Line(new String[] { line }, NO_PLACEHOLDERS);
+		}
+		literals.add(line.substring(literalStart));
+		return new Line(literals.toArray(new String[literals.size()]), placeholders.toArray(new String[placeholders.size()]));
+	}
+
+	private final String message;
+	private final Line[] lines;
+
+	private MessageTemplate(String message, Line[] lines) {
+		this.message = message;
+		this.lines = lines;
+	}
+
+	/**
+	 * Checks if this message is empty.
+	 *
+	 * <p>
+	 * Empty messages are not sent.
+	 * </p>
+	 *
+	 * @return <code>true</code> if the message is empty
+	 */
+	public boolean isEmpty() {
+		return lines.length == 0;
+	}
+
+	/**
+	 * Gets the message with the given placeholder values inserted.
+	 *
+	 * @param placeholders
+	 *            pairs of placeholder name and value
+	 * @return the message, with lines separated by <code>\n</code>
+	 */
+	public String render(String... placeholders) {
+		if (lines.length == 0) return message;
+		if (lines.length == 1) return lines[0].render(placeholders);
+
+		int expectedLength = lines.length;
+		for (Line line : lines) {
+			expectedLength += line.getExpectedLength();
+		}
+		StringBuilder builder = new StringBuilder(expectedLength);
+		for (int i = 0; i < lines.length; i++) {
+			if (i > 0) builder.append('\n');
+			lines[i].appendTo(builder, placeholders);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Sends the lines of this message, with the given placeholder values inserted, to the given recipient.
+	 *
+	 * @param recipient
+	 *            the recipient
+	 * @param placeholders
+	 *            pairs of placeholder name and value
+	 */
+	public void send(CommandSender recipient, String... placeholders) {
+		if (recipient == null) return;
+		for (Line line : lines) {
+			recipient.sendMessage(line.render(placeholders));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return message;
+	}
+}
@@ -8,116 +8,119 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
-import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.World;
 
-public class SoftBlockLocation {
+/**
+ * An immutable block location, which refers to its world by its {@link WorldRegistry world id}.
+ */
+public final class SoftBlockLocation {
 
-	private String worldName;
-	private int x;
-	private int y;
-	private int z;
+	private final int worldId;
+	// see BlockPositions
+	private final long position;
 
 	public SoftBlockLocation(Location location) {
-		this(location.getWorld().getName(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+		this(location.getWorld(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+	}
+
+	public SoftBlockLocation(World world, int x, int y, int z) {
+		this(WorldRegistry.getWorldId(world), x, y, z);
 	}
 
 	public SoftBlockLocation(String worldName, int x, int y, int z) {
-		this.worldName = worldName;
-		this.x = x;
-		this.y = y;
-		this.z = z;
+		this(WorldRegistry.getWorldId(worldName), x, y, z);
 	}
 
-	public String getWorldName() {
-		return worldName;
+	private SoftBlockLocation(int worldId, int x, int y, int z) {
+		if (!BlockPositions.isInRange(x, y, z)) {
+			throw new IllegalArgumentException("Coordinates out of range: " + x + ";" + y + ";" + z);
+		}
+		this.worldId = worldId;
+		this.position = BlockPositions.pack(x, y, z);
 	}
 
-	public void setWorldName(String worldName) {
-		this.worldName = worldName;
+	public int getWorldId() {
+		return worldId;
 	}
 
-	public int getX() {
-		return x;
+	public String getWorldName() {
+		return WorldRegistry.getWorldName(worldId);
 	}
 
-	public void setX(int x) {
-		this.x = x;
+	/**
+	 * Gets the world of this location.
+	 * 
+	 * @return the world, or <code>null</code> if the world is not loaded
+	 */
+	public World getWorld() {
+		return WorldRegistry.getWorld(worldId);
 	}
 
-	public int getY() {
-		return y;
+	/**
+	 * Gets the packed coordinates of this location.
+	 * 
+	 * @return the packed coordinates
+	 * @see BlockPositions
+	 */
+	public long getPosition() {
+		return position;
 	}
 
-	public void setY(int y) {
-		this.y = y;
+	public int getX() {
+		return BlockPositions.getX(position);
 	}
 
-	public int getZ() {
-		return z;
+	public int getY() {
+		return BlockPositions.getY(position);
 	}
 
-	public void setZ(int z) {
-		this.z = z;
+	public int getZ() {
+		return BlockPositions.getZ(position);
 	}
 
 	public Location getBukkitLocation() {
-		World world = Bukkit.getServer().getWorld(worldName);
+		World world = this.getWorld();
 		if (world == null) return null;
-		return new Location(world, x, y, z);
+		return new Location(world, this.getX(), this.getY(), this.getZ());
 	}
 
 	@Override
 	public boolean equals(Object obj) {
-		if (obj == null) {
-			return false;
-		}
-		if (getClass() != obj.getClass()) {
-			return false;
-		}
-		final SoftBlockLocation other = (SoftBlockLocation) obj;
-
-		if (this.worldName != other.worldName && (this.worldName == null || !this.worldName.equals(other.worldName))) {
-			return false;
-		}
-
-		if (this.x != other.x) {
-			return false;
-		}
-
-		if (this.y != other.y) {
-			return false;
-		}
-
-		if (this.z != other.z) {
-			return false;
-		}
-
-		return true;
+		if (this == obj) return true;
+		if (!(obj instanceof SoftBlockLocation)) return false;
+		SoftBlockLocation other = (SoftBlockLocation) obj;
+		return worldId == other.worldId && position == other.position;
 	}
 
 	@Override
 	public int hashCode() {
-		int hash = 3;
-
-		hash = 19 * hash + (this.worldName != null ? this.worldName.hashCode() : 0);
-		hash = 19 * hash + this.x ^ (this.x >>> 32);
-		hash = 19 * hash + this.y ^ (this.y >>> 32);
-		hash = 19 * hash + this.z ^ (this.z >>> 32);
-
-		return hash;
+		return 31 * worldId + BlockPositions.hash(position);
 	}
 
 	@Override
 	public String toString() {
-		return worldName + ";" + x + ";" + y + ";" + z;
+		return this.appendTo(new StringBuilder(32)).toString();
+	}
+
+	/**
+	 * Appends this location in the format <code>world;x;y;z</code>.
+	 * 
+	 * @param builder
+	 *            the string builder
+	 * @return the string builder
+	 */
+	public StringBuilder appendTo(StringBuilder builder) {
+		return builder.append(this.getWorldName())
+				.append(';').append(this.getX())
+				.append(';').append(this.getY())
+				.append(';').append(this.getZ());
 	}
 
 	// statics
 
 	public static List<SoftBlockLocation> getFromStringList(Collection<String> strings) {
-		List<SoftBlockLocation> softLocs = new ArrayList<>();
+		List<SoftBlockLocation> softLocs = new ArrayList<>(strings.size());
 		for (String s : strings) {
 			SoftBlockLocation soft = getFromString(s);
 			if (soft != null) softLocs.add(soft);
@@ -126,27 +129,46 @@ public class SoftBlockLocation {
 	}
 
 	public static List<String> toStringList(Collection<SoftBlockLocation> softLocs) {
-		List<String> strings = new ArrayList<>();
+		List<String> strings = new ArrayList<>(softLocs.size());
+		StringBuilder builder = new StringBuilder(32);
 		for (SoftBlockLocation soft : softLocs) {
-			if (soft != null) strings.add(soft.toString());
+			if (soft == null) continue;
+			builder.setLength(0);
+			strings.add(soft.appendTo(builder).toString());
 		}
 		return strings;
 	}
 
+	/**
+	 * Parses a location in the format <code>world;x;y;z</code>.
+	 * 
+	 * <p>
+	 * Other strings (such as the <code>not set</code> placeholder) result in <code>null</code>.
+	 * </p>
+	 * 
+	 * @param string
+	 *            the string
+	 * @return the location, or <code>null</code> if the string is no valid location
+	 */
 	public static SoftBlockLocation getFromString(String string) {
 		if (string == null) return null;
-		String[] split = string.split(";");
-		if (split.length != 4) return null;
-
-		String worldName = split[0];
-		if (worldName == null) return null;
-		Integer x = Utils.parseInteger(split[1]);
-		if (x == null) return null;
-		Integer y = Utils.parseInteger(split[2]);
-		if (y == null) return null;
-		Integer z = Utils.parseInteger(split[3]);
-		if (z == null) return null;
-
-		return new SoftBlockLocation(worldName, x, y, z);
+		int worldEnd = string.indexOf(';');
+		if (worldEnd < 0) return null;
+		int xEnd = string.indexOf(';', worldEnd + 1);
+		if (xEnd < 0) return null;
+		int yEnd = string.indexOf(';', xEnd + 1);
+		if (yEnd < 0) return null;
+		int zEnd = Utils.indexOfSeparatorOrEnd(string, yEnd + 1);
+		if (!Utils.isTrailingSeparators(string, zEnd)) return null;
+
+		long x = Utils.parseInt(string, worldEnd + 1, xEnd);
+		if (x == Utils.INVALID_INT) return null;
+		long y = Utils.parseInt(string, xEnd + 1, yEnd);
+		if (y == Utils.INVALID_INT) return null;
+		long z = Utils.parseInt(string, yEnd + 1, zEnd);
+		if (z == Utils.INVALID_INT) return null;
+		if (!BlockPositions.isInRange((int) x, (int) y, (int) z)) return null;
+
+		return new SoftBlockLocation(WorldRegistry.getWorldId(string, 0, worldEnd), (int) x, (int) y, (int) z);
 	}
 }
@@ -4,25 +4,72 @@
  */
 package de.blablubbabc.homestations.utils;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Set;
 
-import org.bukkit.Bukkit;
 import org.bukkit.EntityEffect;
 import org.bukkit.FireworkEffect;
 import org.bukkit.Location;
+import org.bukkit.Material;
 import org.bukkit.World;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.type.Switch;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Firework;
 import org.bukkit.inventory.meta.FireworkMeta;
 
 public class Utils {
 
-	private static final Pattern NEW_LINE = Pattern.compile("\\r?(\\n|\\\\n)");
-
+	/**
+	 * Splits the given text into lines.
+	 * 
+	 * <p>
+	 * Lines are separated by line breaks or by the characters <code>\\n</code>, optionally preceded by
+	 * <code>\r</code>. Trailing empty lines are removed.
+	 * </p>
+	 * 
+	 * @param text
+	 *            the text
+	 * @return the lines
+	 */
 	public static List<String> getLines(String text) {
-		return Arrays.asList(NEW_LINE.split(text));
+		List<String> lines = new ArrayList<>(2);
+		int length = text.length();
+		int lineStart = 0;
+		for (int index = 0; index < length; index++) {
+			char c = text.charAt(index);
+			int separatorLength;
+			if (c == '\n') {
+				separatorLength = 1;
+			} else if (c == '\\' && index + 1 < length && text.charAt(index + 1) == 'n') {
+				separatorLength = 2;
+			} else {
+				continue;
+			}
+			int lineEnd = index;
+			if (lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r') {
+				lineEnd--;
+			}
+			lines.add(text.substring(lineStart, lineEnd));
+			index += separatorLength - 1;
+			lineStart = index + 1;
+		}
+		if (lineStart == 0) {
+			// no line separators:
+			lines.add(text);
+			return lines;
+		}
+		lines.add(text.substring(lineStart));
+
+		// remove trailing empty lines:
+		int size = lines.size();
+		while (size > 0 && lines.get(size - 1).isEmpty()) {
+			lines.remove(--size);
+		}
+		return lines;
 	}
 
 	public static String replacePlaceholders(String message, String... placeholders) {
@@ -48,6 +95,44 @@ public class Utils {
 		}
 	}
 
+	// BLOCKS
+
+	private static final Set<Material> BUTTONS = EnumSet.noneOf(Material.class);
+	static {
+		for (Material material : Material.values()) {
+			if (!material.isLegacy() && material.name().endsWith("_BUTTON")) {
+				BUTTONS.add(material);
+			}
+		}
+	}
+
+	public static boolean isButton(Material material) {
+		return BUTTONS.contains(material);
+	}
+
+	/**
+	 * Gets the face of the block the given button or lever is attached to.
+	 * 
+	 * @param blockData
+	 *            the block data
+	 * @return the attached face, or <code>null</code> if the block data is not of a button or lever
+	 */
+	public static BlockFace getAttachedFace(BlockData blockData) {
+		if (!(blockData instanceof Switch)) return null;
+		Switch switchData = (Switch) blockData;
+		switch (switchData.getFace()) {
+		case FLOOR:
+			return BlockFace.DOWN;
+		case CEILING:
+			return BlockFace.UP;
+		case WALL:
+		default:
+			return switchData.getFacing().getOppositeFace();
+		}
+	}
+
+	// EFFECTS
+
 	public static void playFireworkEffect(Location loc, FireworkEffect effect) {
 		// spawn firework entity:
 		Firework firework = loc.getWorld().spawn(loc, Firework.class, fireworkEntity -> {
@@ -65,35 +150,225 @@ public class Utils {
 	// LOCATIONS TO / FROM STRING
 
 	public static String LocationToString(Location loc) {
-		return loc.getWorld().getName() + ";" + loc.getX() + ";" + loc.getY() + ";" + loc.getZ() + ";" + loc.getYaw() + ";" + loc.getPitch();
+		return appendLocation(new StringBuilder(64), loc).toString();
+	}
+
+	/**
+	 * Appends the given location in the format used by {@link #LocationToString(Location)}.
+	 * 
+	 * @param builder
+	 *            the string builder
+	 * @param loc
+	 *            the location
+	 * @return the string builder
+	 */
+	public static StringBuilder appendLocation(StringBuilder builder, Location loc) {
+		return builder.append(loc.getWorld().getName())
+				.append(';').append(loc.getX())
+				.append(';').append(loc.getY())
+				.append(';').append(loc.getZ())
+				.append(';').append(loc.getYaw())
+				.append(';').append(loc.getPitch());
 	}
 
 	public static Location StringToLocation(String string) {
 		if (string == null) return null;
-		String[] split = string.split(";");
-		if (split.length != 4 && split.length != 6) return null;
+		int length = string.length();
+		int worldEnd = string.indexOf(';');
+		if (worldEnd < 0) return null;
+		int xEnd = string.indexOf(';', worldEnd + 1);
+		if (xEnd < 0) return null;
+		int yEnd = string.indexOf(';', xEnd + 1);
+		if (yEnd < 0) return null;
+		int zEnd = indexOfSeparatorOrEnd(string, yEnd + 1);
+		int yawEnd = -1;
+		int pitchEnd = -1;
+		if (zEnd < length && !isTrailingSeparators(string, zEnd)) {
+			yawEnd = string.indexOf(';', zEnd + 1);
+			if (yawEnd < 0) return null;
+			pitchEnd = indexOfSeparatorOrEnd(string, yawEnd + 1);
+			if (!isTrailingSeparators(string, pitchEnd)) return null;
+		}
 
-		World world = Bukkit.getWorld(split[0]);
+		World world = WorldRegistry.getWorld(WorldRegistry.getWorldId(string, 0, worldEnd));
 		if (world == null) return null;
-		Double x = parseDouble(split[1]);
-		if (x == null) return null;
-		Double y = parseDouble(split[2]);
-		if (y == null) return null;
-		Double z = parseDouble(split[3]);
-		if (z == null) return null;
-
-		Float yaw = 0.0F;
-		Float pitch = 0.0F;
-		if (split.length == 6) {
-			yaw = parseFloat(split[4]);
-			if (yaw == null) yaw = 0.0F;
-			pitch = parseFloat(split[5]);
-			if (pitch == null) pitch = 0.0F;
+		double x = parseDouble(string, worldEnd + 1, xEnd);
+		if (Double.isNaN(x)) return null;
+		double y = parseDouble(string, xEnd + 1, yEnd);
+		if (Double.isNaN(y)) return null;
+		double z = parseDouble(string, yEnd + 1, zEnd);
+		if (Double.isNaN(z)) return null;
+
+		float yaw = 0.0F;
+		float pitch = 0.0F;
+		if (yawEnd >= 0) {
+			yaw = parseFloat(string, zEnd + 1, yawEnd);
+			if (Float.isNaN(yaw)) yaw = 0.0F;
+			pitch = parseFloat(string, yawEnd + 1, pitchEnd);
+			if (Float.isNaN(pitch)) pitch = 0.0F;
 		}
 
 		return new Location(world, x, y, z, yaw, pitch);
 	}
 
+	static int indexOfSeparatorOrEnd(String string, int fromIndex) {
+		int index = string.indexOf(';', fromIndex);
+		return (index < 0) ? string.length() : index;
+	}
+
+	// String#split(";"), which was used previously, ignores trailing separators:
+	static boolean isTrailingSeparators(String string, int fromIndex) {
+		for (int i = fromIndex; i < string.length(); i++) {
+			if (string.charAt(i) != ';') return false;
+		}
+		return true;
+	}
+
+	// PARSING
+
+	// returned by parseInt(String, int, int) for invalid input:
+	public static final long INVALID_INT = Long.MIN_VALUE;
+
+	private static final long MAX_EXACT_DOUBLE_MANTISSA = 1L << 53;
+	private static final double[] DOUBLE_POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	private static final long MAX_EXACT_FLOAT_MANTISSA = 1L << 24;
+	private static final float[] FLOAT_POWERS_OF_TEN = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+
+	/**
+	 * Parses the decimal int within the given range of the string, without allocating any objects.
+	 * 
+	 * @param string
+	 *            the string
+	 * @param start
+	 *            the start index (inclusive)
+	 * @param end
+	 *            the end index (exclusive)
+	 * @return the parsed int, or {@link #INVALID_INT} if the range doesn't contain a valid int
+	 */
+	public static long parseInt(String string, int start, int end) {
+		if (start >= end) return INVALID_INT;
+		int index = start;
+		char first = string.charAt(index);
+		boolean negative = (first == '-');
+		if (negative || first == '+') {
+			index++;
+			if (index == end) return INVALID_INT;
+		}
+		long value = 0L;
+		for (; index < end; index++) {
+			int digit = string.charAt(index) - '0';
+			if (digit < 0 || digit > 9) return INVALID_INT;
+			value = value * 10 + digit;
+			if (value > -(long) Integer.MIN_VALUE) return INVALID_INT;
+		}
+		if (negative) value = -value;
+		if (value > Integer.MAX_VALUE) return INVALID_INT;
+		return value;
+	}
+
+	/**
+	 * Parses the double within the given range of the string.
+	 * 
+	 * <p>
+	 * Plain decimal numbers with up to 15 significant digits are parsed without allocating any objects. Other numbers
+	 * are parsed via {@link Double#parseDouble(String)}.
+	 * </p>
+	 * 
+	 * @param string
+	 *            the string
+	 * @param start
+	 *            the start index (inclusive)
+	 * @param end
+	 *            the end index (exclusive)
+	 * @return the parsed double, or {@link Double#NaN} if the range doesn't contain a valid double
+	 */
+	public static double parseDouble(String string, int start, int end) {
+		long mantissa = parseDecimalMantissa(string, start, end, MAX_EXACT_DOUBLE_MANTISSA);
+		if (mantissa != INVALID_INT) {
+			int fractionDigits = getFractionDigits(string, start, end);
+			if (fractionDigits < DOUBLE_POWERS_OF_TEN.length) {
+				// both operands are exact, so the result is correctly rounded:
+				double value = Math.abs(mantissa) / DOUBLE_POWERS_OF_TEN[fractionDigits];
+				return (string.charAt(start) == '-') ? -value : value;
+			}
+		}
+		try {
+			return Double.parseDouble(string.substring(start, end));
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Parses the float within the given range of the string.
+	 * 
+	 * <p>
+	 * Plain decimal numbers with up to 7 significant digits are parsed without allocating any objects. Other numbers
+	 * are parsed via {@link Float#parseFloat(String)}.
+	 * </p>
+	 * 
+	 * @param string
+	 *            the string
+	 * @param start
+	 *            the start index (inclusive)
+	 * @param end
+	 *            the end index (exclusive)
+	 * @return the parsed float, or {@link Float#NaN} if the range doesn't contain a valid float
+	 */
+	public static float parseFloat(String string, int start, int end) {
+		long mantissa = parseDecimalMantissa(string, start, end, MAX_EXACT_FLOAT_MANTISSA);
+		if (mantissa != INVALID_INT) {
+			int fractionDigits = getFractionDigits(string, start, end);
+			if (fractionDigits < FLOAT_POWERS_OF_TEN.length) {
+				// both operands are exact, so the result is correctly rounded:
+				float value = Math.abs(mantissa) / FLOAT_POWERS_OF_TEN[fractionDigits];
+				return (string.charAt(start) == '-') ? -value : value;
+			}
+		}
+		try {
+			return Float.parseFloat(string.substring(start, end));
+		} catch (NumberFormatException e) {
+			return Float.NaN;
+		}
+	}
+
+	// parses the digits of a plain decimal number ([+-]digits[.digits]), ignoring the decimal point; returns
+	// INVALID_INT if the number has a different format or if its digits exceed the given maximum
+	private static long parseDecimalMantissa(String string, int start, int end, long maxMantissa) {
+		if (start >= end) return INVALID_INT;
+		int index = start;
+		char first = string.charAt(index);
+		if (first == '-' || first == '+') {
+			index++;
+		}
+		long mantissa = 0L;
+		boolean digits = false;
+		boolean decimalPoint = false;
+		for (; index < end; index++) {
+			char c = string.charAt(index);
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				if (mantissa > maxMantissa) return INVALID_INT;
+				digits = true;
+			} else if (c == '.' && !decimalPoint) {
+				decimalPoint = true;
+			} else {
+				return INVALID_INT;
+			}
+		}
+		if (!digits) return INVALID_INT;
+		return mantissa;
+	}
+
+	// the number of digits after the decimal point, only valid for numbers accepted by parseDecimalMantissa:
+	private static int getFractionDigits(String string, int start, int end) {
+		int decimalPoint = string.indexOf('.', start);
+		if (decimalPoint < 0 || decimalPoint >= end) return 0;
+		return end - decimalPoint - 1;
+	}
+
 	public static Integer parseInteger(String string) {
 		try {
 			return Integer.parseInt(string);
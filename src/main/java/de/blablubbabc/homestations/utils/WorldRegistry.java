@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) blablubbabc <http://www.blablubbabc.de>
+ * All rights reserved.
+ */
+package de.blablubbabc.homestations.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+/**
+ * Assigns small int ids to world names and caches the references to the loaded worlds.
+ * 
+ * <p>
+ * World ids are assigned on first use and stay the same for as long as the plugin is loaded. They are not meant to be
+ * persisted. Ids can be assigned from any thread; the world references are only updated on the main thread, via
+ * {@link #init()}, {@link #onWorldLoad(World)} and {@link #onWorldUnload(World)}.
+ * </p>
+ */
+public final class WorldRegistry {
+
+	private static final ConcurrentMap<String, Integer> WORLD_IDS = new ConcurrentHashMap<>();
+	// world id -> world name
+	private static volatile String[] worldNames = new String[0];
+	// world id -> world, or null if the world is not loaded
+	private static volatile World[] worlds = new World[0];
+
+	private WorldRegistry() {
+	}
+
+	/**
+	 * Registers all currently loaded worlds.
+	 */
+	public static void init() {
+		for (World world : Bukkit.getWorlds()) {
+			onWorldLoad(world);
+		}
+	}
+
+	/**
+	 * Drops all cached world references.
+	 */
+	public static synchronized void clearWorlds() {
+		worlds = new World[worlds.length];
+	}
+
+	public static synchronized void onWorldLoad(World world) {
+		int worldId = getWorldId(world.getName());
+		World[] newWorlds = worlds.clone();
+		newWorlds[worldId] = world;
+		worlds = newWorlds;
+	}
+
+	public static synchronized void onWorldUnload(World world) {
+		Integer worldId = WORLD_IDS.get(world.getName());
+		if (worldId == null) return;
+		World[] newWorlds = worlds.clone();
+		newWorlds[worldId] = null;
+		worlds = newWorlds;
+	}
+
+	/**
+	 * Gets the id of the given world name, assigning a new id if required.
+	 * 
+	 * @param worldName
+	 *            the world name
+	 * @return the world id
+	 */
+	public static int getWorldId(String worldName) {
+		Integer worldId = WORLD_IDS.get(worldName);
+		if (worldId != null) return worldId.intValue();
+		return registerWorldName(worldName);
+	}
+
+	/**
+	 * Gets the id of the world name within the given range of the string, assigning a new id if required.
+	 * 
+	 * <p>
+	 * Doesn't allocate a new string for world names which already have an id.
+	 * </p>
+	 * 
+	 * @param string
+	 *            the string
+	 * @param start
+	 *            the start index of the world name (inclusive)
+	 * @param end
+	 *            the end index of the world name (exclusive)
+	 * @return the world id
+	 */
+	public static int getWorldId(String string, int start, int end) {
+		String[] worldNames = WorldRegistry.worldNames;
+		int length = end - start;
+		for (int worldId = 0; worldId < worldNames.length; worldId++) {
+			String worldName = worldNames[worldId];
+			if (worldName.length() == length && string.regionMatches(start, worldName, 0, length)) {
+				return worldId;
+			}
+		}
+		return getWorldId(string.substring(start, end));
+	}
+
+	/**
+	 * Gets the id of the given world, assigning a new id if required.
+	 * 
+	 * @param world
+	 *            the world
+	 * @return the world id
+	 */
+	public static int getWorldId(World world) {
+		return getWorldId(world.getName());
+	}
+
+	private static synchronized int registerWorldName(String worldName) {
+		Integer worldId = WORLD_IDS.get(worldName);
+		if (worldId != null) return worldId.intValue();
+
+		int newWorldId = worldNames.length;
+		String[] newWorldNames = Arrays.copyOf(worldNames, newWorldId + 1);
+		newWorldNames[newWorldId] = worldName;
+		// the world reference gets set once the world is loaded (worlds loaded before init() are set by init()):
+		worlds = Arrays.copyOf(worlds, newWorldId + 1);
+		worldNames = newWorldNames;
+		WORLD_IDS.put(worldName, newWorldId);
+		return newWorldId;
+	}
+
+	/**
+	 * Gets the number of assigned world ids.
+	 * 
+	 * @return the number of world ids
+	 */
+	public static int getWorldCount() {
+		return worldNames.length;
+	}
+
+	/**
+	 * Gets the name of the world with the given id.
+	 * 
+	 * @param worldId
+	 *            the world id
+	 * @return the world name
+	 */
+	public static String getWorldName(int worldId) {
+		return worldNames[worldId];
+	}
+
+	/**
+	 * Gets the loaded world with the given id.
+	 * 
+	 * @param worldId
+	 *            the world id
+	 * @return the world, or <code>null</code> if the world is not loaded
+	 */
+	public static World getWorld(int worldId) {
+		World[] worlds = WorldRegistry.worlds;
+		return (worldId < worlds.length) ? worlds[worldId] : null;
+	}
+}